@@ -0,0 +1,219 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j
+
+import java.io.Serializable
+import java.util.function.Supplier
+
+import firep4j.tools.Filter
+
+/**
+ * This class represents the FireP4j instance that is handed out to clients without a FirePHP extension.
+ * It is stateless and shared by all requests, so every method is a no-op.
+ *
+ * @author Thomas Endres
+ */
+public class DisabledFireP4j extends FireP4j {
+	/**
+	 * The instance shared by all requests
+	 */
+	static final DisabledFireP4j sharedInstance = new DisabledFireP4j()
+
+	/**
+	 * This constructor is private, the shared instance is used instead.
+	 */
+	private DisabledFireP4j() {
+		super()
+	}
+
+	/**
+	 * The disabled instance never outputs anything.
+	 *
+	 * @return Always false
+	 */
+	@Override
+	public boolean isActive() { false }
+
+	/**
+	 * The disabled instance cannot be enabled (it is shared by all requests).
+	 */
+	@Override
+	public void setEnabled(boolean enabled) { }
+
+	// Options are ignored
+
+	@Override
+	public void setMaxTraceCount(int maxTraceCount) { }
+
+	@Override
+	public void setMaxCauseCount(int maxCauseCount) { }
+
+	@Override
+	public void setMaxDepth(int maxDepth) { }
+
+	@Override
+	public void setChunkSize(int chunkSize) { }
+
+	@Override
+	public void setHeaderBudget(int maxBytes) { }
+
+	@Override
+	public int getHeaderBudget() { -1 }
+
+	@Override
+	public void setIncludeLineNumbers(includeLineNumbers) { }
+
+	@Override
+	public void release() { }
+
+	@Override
+	public void setMaxMessages(int maxMessages) { }
+
+	@Override
+	public void setMaxLevel(int maxLevel) { }
+
+	@Override
+	public void setCollapseRepeats(boolean collapseRepeats) { }
+
+	@Override
+	public void setTailSampling(long latencyThreshold, double sampleRate) { }
+
+	@Override
+	public boolean isSampling() { false }
+
+	@Override
+	public void flush() { }
+
+	@Override
+	public void setOptions(int maxTraceCount, int maxDepth, boolean includeLineNumbers = true) { }
+
+	// Filters are ignored
+
+	@Override
+	public void addTraceFilter(Filter.Criteria filterType, String filterValue) { }
+
+	@Override
+	public void removeTraceFilter(Filter.Criteria filterType, String filterValue) { }
+
+	@Override
+	public void addObjectFilter(String className, String... fieldNames) { }
+
+	@Override
+	public void removeObjectFilter(String className, String... fieldNames) { }
+
+	// Exception handlers are never registered
+
+	@Override
+	public void registerExceptionHandler(Thread thread = null) { }
+
+	@Override
+	public void unregisterExceptionHandler(Thread thread = null) { }
+
+	@Override
+	public void registerErrorHandler(Thread thread = null) { }
+
+	@Override
+	public void unregisterErrorHandler(Thread thread = null) { }
+
+	@Override
+	public void registerAssertionHandler(Thread thread = null) { }
+
+	@Override
+	public void unregisterAssertionHandler(Thread thread = null) { }
+
+	// Nothing is output
+
+	@Override
+	public void group(String label, boolean collapsed = false) { }
+
+	@Override
+	public void groupEnd() { }
+
+	@Override
+	public void dump(String label, Serializable object) { }
+
+	@Override
+	public void log(Serializable object, String label = null) { }
+
+	@Override
+	public void info(Serializable object, String label = null) { }
+
+	@Override
+	public void warn(Serializable object, String label = null) { }
+
+	@Override
+	public void error(Serializable object, String label = null) { }
+
+	@Override
+	public void table(Table table, String label = null) { }
+
+	@Override
+	public void dump(String label, LazyObject object) { }
+
+	@Override
+	public void log(LazyObject object, String label = null) { }
+
+	@Override
+	public void info(LazyObject object, String label = null) { }
+
+	@Override
+	public void warn(LazyObject object, String label = null) { }
+
+	@Override
+	public void error(LazyObject object, String label = null) { }
+
+	@Override
+	public void table(String label, LazyObject table) { }
+
+	@Override
+	public void table(String label, Closure closure) { }
+
+	@Override
+	public void dump(String label, Supplier<? extends Serializable> supplier) { }
+
+	@Override
+	public void log(Supplier<? extends Serializable> supplier, String label = null) { }
+
+	@Override
+	public void info(Supplier<? extends Serializable> supplier, String label = null) { }
+
+	@Override
+	public void warn(Supplier<? extends Serializable> supplier, String label = null) { }
+
+	@Override
+	public void error(Supplier<? extends Serializable> supplier, String label = null) { }
+
+	@Override
+	public void table(String label, Supplier<? extends Table> supplier) { }
+
+	@Override
+	public void dump(String label, Object object) { }
+
+	@Override
+	public void log(Object object, String label = null) { }
+
+	@Override
+	public void info(Object object, String label = null) { }
+
+	@Override
+	public void warn(Object object, String label = null) { }
+
+	@Override
+	public void error(Object object, String label = null) { }
+
+	@Override
+	public void trace(String label) { }
+}
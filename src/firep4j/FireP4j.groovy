@@ -18,11 +18,19 @@ package firep4j
 import javax.servlet.http.HttpServletRequest
 import javax.servlet.http.HttpServletResponse
 import java.io.Serializable
+import java.lang.ref.Cleaner
 
-import java.util.Iterator
+import java.util.ArrayList
 import java.util.HashMap
-import java.util.LinkedList
+import java.util.List
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.*
+import java.util.function.Function
+import java.util.function.IntFunction
+import java.util.function.Predicate
+import java.util.function.Supplier
+import java.util.stream.Stream
 
 import firep4j.profile.*
 import firep4j.tools.*
@@ -34,9 +42,9 @@ import firep4j.tools.*
  */
 public class FireP4j {
 	/**
-	 * Different log levels
+	 * Different log levels (the logging bridges map the levels of the logging frameworks onto them)
 	 */
-	private enum FireP4jLogLevel {
+	protected enum FireP4jLogLevel {
 		/**
 		 * Simply logging to the console
 		 */
@@ -94,79 +102,167 @@ public class FireP4j {
 	public static final String version = "0.3"
 	
 	/**
-	 * Max chunk size (max size of a FireP4j message)
+	 * Cached FirePHP version decisions for the user agents seen so far
 	 */
-	private static final int chunkSize = 5000
+	private static final UserAgentCache userAgentCache = new UserAgentCache(minFirePHPVersion, 256)
 	
 	/**
-	 * Current FireP4j profile
+	 * Highest header index supported by the Wildfire protocol
 	 */
-	private static FireP4jProfile profile = new JavaProfile()
+	private static final int maxHeaderIndex = 99999
 	
 	/**
-	 * Counter variable counting the number of instances created
+	 * Header indexes reserved for the summary messages (when the header index limit of a request is reached)
 	 */
-	private static int instanceCount = 0
+	private static final int reservedSummaryIndexes = 10
 	
 	/**
-	 * The JSON utility class instance
+	 * Default maximum number of messages per request
 	 */
-	private JSONUtils jsonUtils = null
+	private static final int defaultMaxMessages = 10000
 	
 	/**
-	 * Flag indicating whether the output is enabled 
+	 * Rate limiter for the messages of all requests
 	 */
-	boolean enabled = true
+	private static final RateLimiter globalRateLimiter = new RateLimiter(-1)
 	
 	/**
-	 * Max depth for debug traces
+	 * Memory budget for the messages of all requests in flight
 	 */
-	private int maxTraceCount = 10
+	private static final MemoryBudget globalMemoryBudget = new MemoryBudget(-1)
 	
 	/**
-	 * Max output depth
+	 * Load monitor deciding how much detail is output (the pressure is evaluated once per second)
 	 */
-	private int maxDepth = 10
+	private static final LoadMonitor loadMonitor = new LoadMonitor(1000000000L)
 	
 	/**
-	 * Flag indicating whether line numbers should be output
+	 * Exceptions seen recently by all requests (fingerprinted by their type and top 5 frames; by default, the full
+	 * trace is always output, omitting the traces of known exceptions has to be enabled with a trace interval)
 	 */
-	boolean includeLineNumbers = true
+	private static final ExceptionFingerprints exceptionFingerprints = new ExceptionFingerprints(5, 1024, 0)
 	
 	/**
-	 * Filter criteria for trace and class name output
+	 * Cleaner releasing the memory held by instances that were not released explicitly
 	 */
-	private ArrayList<Filter> traceFilters = null
+	private static final Cleaner cleaner = Cleaner.create()
 	
 	/**
-	 * Exception handler for uncaptured exceptions
+	 * Name of the request header containing the activation token
 	 */
-	private HashMap<Long, FireP4jExceptionHandler> exceptionHandlers = null
+	public static final String activationHeader = "X-FireP4j-Activation"
 	
 	/**
-	 * HTTP servlet request object for getting header values
+	 * Maximum number of cached activation tokens
 	 */
-	private HttpServletRequest request = null
+	private static final int maxCachedTokens = 256
+	
 	/**
-	 * HTTP servlet repsonse object for setting the header values
+	 * Activation token verification (null if no activation token is required)
 	 */
-	private HttpServletResponse response = null
+	private static volatile ActivationTokens activationTokens = null
+	
+	/**
+	 * Number of recent messages that are checked for repeats
+	 */
+	private static final int repeatWindow = 16
+	
+	/**
+	 * Maximum length of the message description in a repeat summary
+	 */
+	private static final int maxRepeatDescriptionLength = 64
+	
+	/**
+	 * Maximum number of messages buffered until the sampling decision (tail sampling)
+	 */
+	private static final int maxBufferedMessages = 1000
+	
+	/**
+	 * Maximum estimated memory of the messages buffered by one request until the sampling decision (1 MB)
+	 */
+	private static final long maxBufferedBytes = 1048576
+	
+	/**
+	 * Estimated memory of a buffered message without its object, label and trace
+	 */
+	private static final int bufferedMessageBytes = 128
+	
+	/**
+	 * Estimated memory of a trace element or of an object whose size is unknown
+	 */
+	private static final int elementBytes = 64
+	
+	/**
+	 * Estimated header bytes per chunk in addition to the chunk itself (header name, separators and line break)
+	 */
+	private static final int chunkOverhead = 32
 	
 	/**
-	 * Lock needed for JSON serialization
+	 * Header byte budget of new instances (-1 for an unlimited budget)
 	 */
-	private final ReadWriteLock jsonLock = null
+	private static volatile int defaultHeaderBudget = -1
 	
 	/**
-	 * Lock needed for setting exception handlers
+	 * Stack walker used for determining the calling stack frame
+	 */
+	private static final StackWalker stackWalker = StackWalker.getInstance()
+	
+	/**
+	 * Classes of the library that are skipped when the calling stack frame is determined (including their inner classes)
+	 */
+	private static final List<String> libraryClassNames = ["firep4j.FireP4j", "firep4j.FireP4jAppender", "firep4j.FireP4jHandler",
+		"firep4j.FireP4jContext", "firep4j.DisabledFireP4j", "firep4j.LazyObject", "firep4j.FireP4jExceptionHandler", "firep4j.FireP4jFilter"]
+	
+	/**
+	 * Packages of the library tools and the logging frameworks that are skipped when the calling stack frame is determined
+	 */
+	private static final List<String> skippedPackages = ["firep4j.tools.", "java.util.logging.", "org.slf4j.", "ch.qos.logback.",
+		"org.apache.log4j.", "org.apache.logging.log4j.", "org.apache.commons.logging."]
+	
+	/**
+	 * Current FireP4j profile
+	 */
+	private static FireP4jProfile profile = new JavaProfile()
+	
+	/**
+	 * Compiled settings of the current FireP4j profile (shared by all instances)
+	 */
+	private static volatile CompiledProfile compiledProfile = new CompiledProfile(profile)
+	
+	/**
+	 * Counter variable counting the number of instances created
+	 */
+	private static int instanceCount = 0
+	
+	/**
+	 * Current output settings (replaced as a whole on every change, so log calls can read them without locking)
+	 */
+	private volatile FireP4jConfig config = null
+	
+	/**
+	 * Flag indicating whether the output is enabled 
+	 */
+	boolean enabled = true
+	
+	/**
+	 * HTTP servlet request object for getting header values
+	 */
+	private HttpServletRequest request = null
+	/**
+	 * HTTP servlet repsonse object for setting the header values
 	 */
-	private final Lock exceptionHandlerLock = null
+	private HttpServletResponse response = null
 	
 	/**
 	 * Lock needed for setting the header variables
 	 */
 	private final Lock setHeaderLock = null
 	
+	/**
+	 * Lock needed for buffering messages (tail sampling)
+	 */
+	private final Lock bufferLock = null
+	
 	/**
 	 * Flag indicating whether the FirePHP logger can be used
 	 */
@@ -180,15 +276,245 @@ public class FireP4j {
   	/**
   	 * Number of currently open groups
   	 */
-  	int openGroups = 0
+  	private final AtomicInteger openGroups = new AtomicInteger()
+  	
+  	/**
+  	 * Flag indicating whether the instance was released (the response must not be written anymore)
+  	 */
+  	private volatile boolean closed = false
+  	
+  	/**
+  	 * Budget for the header bytes of the response
+  	 */
+  	private HeaderBudget headerBudget = null
+  	
+  	/**
+  	 * Header index of the summary of the dropped messages (0 if no message was dropped yet)
+  	 */
+  	private int dropSummaryIndex = 0
+  	
+  	/**
+  	 * Maximum number of messages of the request
+  	 */
+  	private int maxMessages = defaultMaxMessages
+  	
+  	/**
+  	 * Maximum header index of the request (messages that would need a higher index are suppressed)
+  	 */
+  	private int maxLevel = maxHeaderIndex - reservedSummaryIndexes
+  	
+  	/**
+  	 * Number of messages of the request that were output so far (collapsed, dropped and suppressed ones excluded)
+  	 */
+  	private int messageCount = 0
+  	
+  	/**
+  	 * Number of suppressed messages
+  	 */
+  	private int suppressedCount = 0
+  	
+  	/**
+  	 * Header index of the summary of the suppressed messages (0 if no message was suppressed yet)
+  	 */
+  	private int suppressedSummaryIndex = 0
+  	
+  	/**
+  	 * Memory held by the messages of the response (accounted in the global memory budget)
+  	 */
+  	private MemoryBudget.Hold memoryHold = null
+  	
+  	/**
+  	 * Recent messages of the response (for collapsing repeated messages)
+  	 */
+  	private MessageRepeats messageRepeats = null
+  	
+  	/**
+  	 * Flag indicating whether repeated messages are collapsed into a repeat count
+  	 */
+  	private boolean collapseRepeats = true
+  	
+  	/**
+  	 * Start time of the request in nanoseconds (for tail sampling)
+  	 */
+  	private long startTime = 0
+  	
+  	/**
+  	 * Latency threshold in nanoseconds above which the buffered messages are output (-1 if messages are output immediately)
+  	 */
+  	private long sampleLatency = -1
+  	
+  	/**
+  	 * Rate of requests whose buffered messages are output anyway (between 0 and 1)
+  	 */
+  	private double sampleRate = 0
+  	
+  	/**
+  	 * Messages buffered until the sampling decision is made
+  	 */
+  	private List<BufferedMessage> bufferedMessages = null
+  	
+  	/**
+  	 * Flag indicating whether an error or an exception was buffered
+  	 */
+  	private boolean sampledError = false
+  	
+  	/**
+  	 * Number of messages dropped because the buffer was full (before the sampling decision)
+  	 */
+  	private int overflowCount = 0
+  	
+  	/**
+  	 * Estimated memory of the buffered messages (accounted in the global memory budget)
+  	 */
+  	private long bufferedBytes = 0
+  	
+  	/**
+  	 * Sampling decision (null as long as it was not made, true if messages are output, false if they are dropped)
+  	 */
+  	private Boolean sampleDecision = null
 	
+  	/**
+  	 * This method sets the header byte budget of the FireP4j instances created from now on.
+  	 * 
+  	 * @param maxBytes Maximum number of header bytes per response (-1 for an unlimited budget)
+  	 */
+  	public static void setDefaultHeaderBudget(int maxBytes) {
+  		defaultHeaderBudget = maxBytes
+  	}
+  	
+  	/**
+  	 * This method sets the maximum number of messages per second of all requests together. Messages above the rate
+  	 * are suppressed (and counted in the summary of the suppressed messages of their request).
+  	 * 
+  	 * @param messagesPerSecond Maximum number of messages per second (-1 for an unlimited rate)
+  	 */
+  	public static void setGlobalRateLimit(int messagesPerSecond) {
+  		globalRateLimiter.permitsPerSecond = messagesPerSecond
+  	}
+  	
+  	/**
+  	 * This method returns the maximum number of messages per second of all requests together.
+  	 * 
+  	 * @return Maximum number of messages per second (-1 for an unlimited rate)
+  	 */
+  	public static int getGlobalRateLimit() {
+  		globalRateLimiter.permitsPerSecond
+  	}
+  	
+  	/**
+  	 * This method sets the memory budget for the messages of all requests in flight. Once it is exceeded, payloads
+  	 * are replaced by a short summary (tables, traces and exceptions are suppressed).
+  	 * 
+  	 * @param maxBytes Maximum number of bytes (-1 for an unlimited budget)
+  	 */
+  	public static void setGlobalMemoryBudget(long maxBytes) {
+  		globalMemoryBudget.maxBytes = maxBytes
+  	}
+  	
+  	/**
+  	 * This method returns the memory budget for the messages of all requests in flight.
+  	 * 
+  	 * @return Maximum number of bytes (-1 for an unlimited budget)
+  	 */
+  	public static long getGlobalMemoryBudget() {
+  		globalMemoryBudget.maxBytes
+  	}
+  	
+  	/**
+  	 * This method sets the interval after which the full trace of a known exception is output again. In between,
+  	 * the exception is only output with its message and the number of times it was seen in the last minute.
+  	 * Omitting the traces across requests is disabled by default (other requests may well need the trace).
+  	 * 
+  	 * @param seconds Interval in seconds (0 to always output the full trace, the default)
+  	 */
+  	public static void setExceptionTraceInterval(long seconds) {
+  		exceptionFingerprints.traceInterval = seconds * 1000000000L
+  	}
+  	
+  	/**
+  	 * This method returns the interval after which the full trace of a known exception is output again.
+  	 * 
+  	 * @return Interval in seconds
+  	 */
+  	public static long getExceptionTraceInterval() {
+  		exceptionFingerprints.traceInterval.intdiv(1000000000L) as long
+  	}
+  	
+  	/**
+  	 * This method returns the number of bytes held by the messages of all requests in flight.
+  	 * 
+  	 * @return Used bytes
+  	 */
+  	public static long getGlobalMemoryUsage() {
+  		globalMemoryBudget.usedBytes
+  	}
+  	
+  	/**
+  	 * This method returns the number of payloads that were degraded or suppressed because of the memory budget.
+  	 * 
+  	 * @return Number of degraded payloads
+  	 */
+  	public static long getGlobalDegradedCount() {
+  		globalMemoryBudget.degradedCount
+  	}
+  	
+  	/**
+  	 * This method enables the load-aware degradation: under high load FireP4j reduces its own cost step by step
+  	 * (lower serialization depth and shorter traces, then no line numbers, then no output at all) and restores
+  	 * the detail when the load drops.
+  	 * 
+  	 * @param maxMessageTime Maximum average time FireP4j may spend per message in microseconds (-1 to ignore it)
+  	 * @param maxSystemLoad Maximum system load average per processor (-1 to ignore it)
+  	 */
+  	public static void setAdaptiveDegradation(long maxMessageTime, double maxSystemLoad) {
+  		loadMonitor.setLimits(maxMessageTime > 0 ? maxMessageTime * 1000L : -1, maxSystemLoad)
+  	}
+  	
+  	/**
+  	 * This method returns the current degradation level.
+  	 * 
+  	 * @return Degradation level (0 for full detail up to 3 for no output, @see firep4j.tools.LoadMonitor)
+  	 */
+  	public static int getDegradationLevel() {
+  		loadMonitor.level
+  	}
+  	
+  	/**
+  	 * This method sets the secret for activation tokens. With a secret, FireP4j is only enabled for requests
+  	 * carrying a valid, unexpired token in the activation header (@see #createActivationToken).
+  	 * 
+  	 * @param secret Secret key of the token signatures (null if no activation token is required)
+  	 */
+  	public static void setActivationSecret(byte[] secret) {
+  		activationTokens = secret != null ? new ActivationTokens(secret, maxCachedTokens) : null
+  	}
+  	
+  	/**
+  	 * This method creates an activation token for the current activation secret.
+  	 * 
+  	 * @param subject Subject of the token (e.g. the name of the engineer, without dots)
+  	 * @param expiry Expiry in seconds since the epoch
+  	 * @return Signed token to be sent in the activation header
+  	 */
+  	public static String createActivationToken(String subject, long expiry) {
+  		ActivationTokens tokens = activationTokens
+  		
+  		// If no secret was set, an exception is thrown
+  		if (tokens == null) {
+  			throw new Exception("No activation secret was set!")
+  		}
+  		tokens.create(subject, expiry)
+  	}
+  	
   	/**
   	 * This method sets the FireP4j profile that is used.
   	 * 
   	 * @param profile FireP4j profile to use
   	 */
 	public static void setProfile(FireP4jProfile profile) {
-		this.profile = profile		
+		this.profile = profile
+		// The profile settings are compiled once for all instances
+		compiledProfile = new CompiledProfile(profile)
 	}
   	
 	/**
@@ -216,6 +542,11 @@ public class FireP4j {
 			instance = null
 		}
 		
+		// Clients without a supported FirePHP extension share the stateless disabled instance (nothing is allocated for them)
+		if ((instance == null || reinit) && (!isActivated(request) || !isFirePHPClient(request))) {
+			return DisabledFireP4j.sharedInstance
+		}
+		
 		try {
 			// If no FireP4j instance existed on the request (or if it should be reinitialized), it is created and added to the request
 			if (instance == null || reinit) {
@@ -233,6 +564,37 @@ public class FireP4j {
 		instance
 	}
 	
+	/**
+	 * This method checks whether the request carries a valid activation token (if one is required).
+	 * Requests without the activation header are rejected after a single header lookup.
+	 * 
+	 * @param request HTTP servlet request object
+	 * @return True if no token is required or the token is valid, false otherwise
+	 */
+	private static boolean isActivated(HttpServletRequest request) {
+		ActivationTokens tokens = activationTokens
+		tokens == null || tokens.verify(request.getHeader(activationHeader), System.currentTimeMillis())
+	}
+	
+	/**
+	 * This method checks whether the client uses a supported FirePHP version.
+	 * 
+	 * @param request HTTP servlet request object
+	 * @return True if the user agent contains a supported FirePHP version, false otherwise
+	 */
+	private static boolean isFirePHPClient(HttpServletRequest request) {
+		userAgentCache.isSupported(request.getHeader("User-Agent"))
+	}
+	
+	/**
+	 * This constructor is used by the disabled instance only. It leaves all the request specific objects uninitialized.
+	 */
+	protected FireP4j() {
+		enabled = false
+		correctVersion = false
+		config = FireP4jConfig.forProfile(compiledProfile)
+	}
+	
 	/**
 	 * This constructor initializes the FireP4j object.
 	 * 
@@ -254,68 +616,42 @@ public class FireP4j {
 		// The correct client FirePHP version is checked
 		checkForCorrectVersion()
 		
-		// The JSON utility class is instantiated
-		jsonUtils = new JSONUtils();
-		
-		// Objects are initialized
-		traceFilters = new LinkedList<Filter>()
-		exceptionHandlers = new HashMap<Long, FireP4jExceptionHandler>()
+		// The compiled profile settings are shared until they are changed for this instance
+		config = FireP4jConfig.forProfile(compiledProfile)
 		
 		// Locks are initialized
-		jsonLock = new ReentrantReadWriteLock()
-		exceptionHandlerLock = new ReentrantLock()
 		setHeaderLock = new ReentrantLock()
+		bufferLock = new ReentrantLock()
 		
-		// The profile settings are set
-		if (profile != null) {
-			setProfileSettings()			
-		}
-	}
-	
-	/**
-	 * This method takes over profile settings from the given profile.
-	 */
-	private void setProfileSettings() {
-		// Trace filters are taken over
-		if (profile.getTraceFilters() != null) {
-			// Each trace filter is added to the trace filter list
-			profile.getTraceFilters().each {
-				addTraceFilter(it.type, it.value)
-			}
-		}
+		// The start time is taken for tail sampling
+		startTime = System.nanoTime()
 		
-		// Path filters are overtaken
-		if (profile.getPathFilters() != null) {
-			// Each path filter is added to the path filter list
-			profile.getPathFilters().each {
-				jsonUtils.addPathFilter(it)
-			}
-		}
+		// The header budget of the response is initialized
+		headerBudget = new HeaderBudget(defaultHeaderBudget)
+		
+		// Recent messages are tracked to collapse repeats
+		messageRepeats = new MessageRepeats(repeatWindow)
+		
+		// The memory held by the messages is released at the latest when the instance is collected
+		memoryHold = globalMemoryBudget.newHold()
+		cleaner.register(this, memoryHold)
 	}
 	
 	/**
 	 * This method checks if the FirePHP version is correct.
 	 */
 	private void checkForCorrectVersion() {
-		// In the user agent, the FirePHP version is searched for
-		String userAgent = request.getHeader("User-Agent")
-		def matcher = userAgent =~ /\sFirePHP\/([\.|\d]*)\s?/
-		
-		// The version number is determined
-		String version = null
-		try {
-			if (matcher[0] != null && matcher[0][1] != null) {
-				version = matcher[0][1]
-			}
-		} catch(Exception e) { }
+		// The user agent is looked up in the version cache
+		correctVersion = isFirePHPClient(request)
+	}
 	
-		// The version number is compared with the required version number
-		correctVersion = false
-		if (version != null) {
-			correctVersion = Versioner.compareVersions(version, minFirePHPVersion) >= 0
-		} else {
-			correctVersion = false
-		}		
+	/**
+	 * This method returns whether messages are output at all (FireP4j is enabled and the client supports FirePHP).
+	 * 
+	 * @return True if messages are output, false otherwise
+	 */
+	public boolean isActive() {
+		enabled && correctVersion
 	}
 	
 	/**
@@ -323,137 +659,434 @@ public class FireP4j {
 	 * 
 	 * @param maxTraceCount Maximum trace element count
 	 */
-	public void setMaxTraceCount(int maxTraceCount) {
-		// Execution is protected by a lock
-		jsonLock.writeLock().lock()
+	public synchronized void setMaxTraceCount(int maxTraceCount) {
 		// Max trace count is set
 		if (maxTraceCount > 0) {
-			this.maxTraceCount = maxTraceCount
+			config = config.withMaxTraceCount(maxTraceCount)
 		}
-		// The lock is removed
-		jsonLock.writeLock().unlock()
 	}
 	
 	/**
-	 * This method sets the maximum serialization depth for object serialization (-1 for infinite depth).
+	 * This method returns the maximum trace element count that is output in trace and exception outputs.
 	 * 
-	 * @param maxDepth Maximum serialization depth
+	 * @return Maximum trace element count
 	 */
-	public void setMaxDepth(int maxDepth) {
-		// Execution is protected by a lock
-		jsonLock.writeLock().lock()
-		// The max depth property is set
-		jsonUtils.setMaxDepth(maxDepth)
-		// The lock is removed
-		jsonLock.writeLock().unlock()
+	public int getMaxTraceCount() {
+		config.maxTraceCount
 	}
 	
-	public void setIncludeLineNumbers(includeLineNumbers) {
-		// Execution is protected by a lock
-		jsonLock.writeLock().lock()
-		// The flag indicating whether line numbers and file names should be set is output
-		this.includeLineNumbers = includeLineNumbers
-		// The lock is removed
-		jsonLock.writeLock().unlock()		
+	/**
+	 * This method sets the maximum number of causes that are output for an exception (0 for no causes).
+	 * 
+	 * @param maxCauseCount Maximum number of causes
+	 */
+	public synchronized void setMaxCauseCount(int maxCauseCount) {
+		// Max cause count is set
+		if (maxCauseCount >= 0) {
+			config = config.withMaxCauseCount(maxCauseCount)
+		}
 	}
 	
 	/**
-	 * This method sets all the options that can be configured.
+	 * This method returns the maximum number of causes that are output for an exception.
 	 * 
-	 * @param maxTraceCount Maximum trace element count (for trace and exception output)
-	 * @param maxDepth Maximum serialization depth (for object output)
-	 * @param includeLineNumbers True if line numbers and file names should be included in the output, false otherwise
+	 * @return Maximum number of causes
 	 */
-	public void setOptions(int maxTraceCount, int maxDepth, boolean includeLineNumbers = true) {
-		// Execution is protected by a lock
-		jsonLock.writeLock().lock()
-		// Max trace element count is set
-		if (maxTraceCount > 0) {
-			this.maxTraceCount = maxTraceCount
-		}
-		// Max serialization depth is set
-		jsonUtils.setMaxDepth(maxDepth)
-		// The flag indicating line number output is set
-		this.includeLineNumbers = includeLineNumbers
-		// The lock is removed
-		jsonLock.writeLock().unlock()
+	public int getMaxCauseCount() {
+		config.maxCauseCount
 	}
 	
 	/**
-	 * This method adds a trace filter to the list of existing trace filters.
+	 * This method sets the maximum size of a message header. Longer messages are split into several headers.
 	 * 
-	 * @param filterType Filter type (@see firep4j.tools.Filter)
-	 * @param filterValue Package name to be filtered
+	 * @param chunkSize Maximum UTF-8 byte length of a message header
 	 */
-	public void addTraceFilter(Filter.Criteria filterType, String filterValue) {
-		try {		
-			// Execution is protected by a lock
-			jsonLock.writeLock().lock()
-			
-			Filter filter = null
-			
-			// For each existing trace filter
-			traceFilters.each {
-				// If the filter is already present, method execution is aborted
-				if (it.type == filterType && it.value == filterValue) {
-					return
-				}			
-			}
-			
-			// The new filter is added to the list of filters
-			filter = new Filter(type: filterType, value: filterValue)
-			traceFilters.add(filter)
-		} catch (Exception e) {
-			// An exception is thrown again
-			throw e
-		} finally {
-			// The lock is removed
-			jsonLock.writeLock().unlock()
+	public synchronized void setChunkSize(int chunkSize) {
+		// Chunk size is set
+		if (chunkSize > 0) {
+			config = config.withChunkSize(chunkSize)
 		}
 	}
 	
 	/**
-	 * This method adds a trace filter to the list of existing trace filters.
+	 * This method returns the maximum size of a message header.
 	 * 
-	 * @param filter Trace filter
+	 * @return Maximum UTF-8 byte length of a message header
 	 */
-	protected void addTraceFilter(Filter filter) {
-		addTraceFilter(filter.type, filter.value);
+	public int getChunkSize() {
+		config.chunkSize
 	}
 	
 	/**
-	 * This method removes a trace filter from the list of existing trace filters.
+	 * This method sets the budget for the header bytes of the response. Once the budget is used up, messages are
+	 * dropped (LOG messages first, then INFO messages, then all others) and a summary of the dropped messages is output.
 	 * 
-	 * @param filterType Filter type (@see firep4j.tools.Filter)
-	 * @param filterValue Package name to be filtered
+	 * @param maxBytes Maximum number of header bytes (-1 for an unlimited budget)
+	 */
+	public void setHeaderBudget(int maxBytes) {
+		headerBudget.maxBytes = maxBytes
+	}
+	
+	/**
+	 * This method returns the budget for the header bytes of the response.
+	 * 
+	 * @return Maximum number of header bytes (-1 for an unlimited budget)
+	 */
+	public int getHeaderBudget() {
+		headerBudget.maxBytes
+	}
+	
+	/**
+	 * This method releases the memory accounted for the messages of the response (discarding the messages that are
+	 * still buffered for the sampling decision) and removes the exception handlers registered by the request.
+	 * It should be called once the response was sent (@see FireP4jFilter), otherwise the memory is released when the
+	 * instance is collected.
+	 */
+	public void release() {
+		// Execution is protected by a lock
+		setHeaderLock.lock()
+		
+		try {
+			// Late messages of asynchronous tasks must not be written to a recycled response
+			closed = true
+		} finally {
+			// The lock is removed
+			setHeaderLock.unlock()
+		}
+		
+		// Messages still waiting for the sampling decision are discarded
+		bufferLock.lock()
+		
+		try {
+			if (bufferedMessages != null) {
+				bufferedMessages.clear()
+			}
+			bufferedBytes = 0
+		} finally {
+			// The lock is removed
+			bufferLock.unlock()
+		}
+		memoryHold.run()
+		
+		// The exception handlers registered by the request are removed from the (pooled) threads
+		FireP4jExceptionHandler.release(this)
+	}
+	
+	/**
+	 * This method returns the FireP4j instance bound to the current thread (@see FireP4jContext).
+	 * 
+	 * @return Bound instance (the disabled instance if none is bound)
+	 */
+	public static FireP4j current() {
+		FireP4jContext.current()
+	}
+	
+	/**
+	 * This method returns the number of currently open groups.
+	 * 
+	 * @return Number of open groups
+	 */
+	public int getOpenGroups() {
+		openGroups.get()
+	}
+	
+	/**
+	 * This method sets the maximum number of messages of the request. Further messages are suppressed and counted
+	 * in a summary message.
+	 * 
+	 * @param maxMessages Maximum number of messages
+	 */
+	public synchronized void setMaxMessages(int maxMessages) {
+		this.maxMessages = maxMessages
+	}
+	
+	/**
+	 * This method returns the maximum number of messages of the request.
+	 * 
+	 * @return Maximum number of messages
+	 */
+	public int getMaxMessages() {
+		maxMessages
+	}
+	
+	/**
+	 * This method sets the maximum header index of the request (a message uses one index per chunk).
+	 * Messages that would exceed it are suppressed and counted in a summary message.
+	 * 
+	 * @param maxLevel Maximum header index (at most 99989, the remaining indexes are reserved for summary messages)
+	 */
+	public synchronized void setMaxLevel(int maxLevel) {
+		this.maxLevel = Math.min(maxLevel, maxHeaderIndex - reservedSummaryIndexes)
+	}
+	
+	/**
+	 * This method returns the maximum header index of the request.
+	 * 
+	 * @return Maximum header index
+	 */
+	public int getMaxLevel() {
+		maxLevel
+	}
+	
+	/**
+	 * This method returns the number of messages that were suppressed because a limit was exceeded.
+	 * 
+	 * @return Number of suppressed messages
+	 */
+	public int getSuppressedCount() {
+		suppressedCount
+	}
+	
+	/**
+	 * This method sets whether repeated messages (same call site and payload as one of the recent messages) are
+	 * collapsed: the message is output once, followed by a summary with the repeat count.
+	 * 
+	 * @param collapseRepeats True if repeated messages are collapsed, false if every message is output
+	 */
+	public void setCollapseRepeats(boolean collapseRepeats) {
+		this.collapseRepeats = collapseRepeats
+	}
+	
+	/**
+	 * This method returns whether repeated messages are collapsed.
+	 * 
+	 * @return True if repeated messages are collapsed, false otherwise
+	 */
+	public boolean isCollapseRepeats() {
+		collapseRepeats
+	}
+	
+	/**
+	 * This method enables tail sampling: messages are buffered (without being serialized) until the request ends.
+	 * When flush() is called, the buffered messages are output only if the request took longer than the latency
+	 * threshold, if an error or exception was logged or if the request was picked by the sampling rate.
+	 * Otherwise they are dropped.
+	 * 
+	 * @param latencyThreshold Latency threshold in milliseconds (measured from the creation of the instance)
+	 * @param sampleRate Rate of requests whose messages are output anyway (between 0 and 1)
+	 */
+	public void setTailSampling(long latencyThreshold, double sampleRate) {
+		// Execution is protected by a lock
+		bufferLock.lock()
+		
+		try {
+			// The sampling settings are set and a new decision is made for the following messages
+			this.sampleLatency = latencyThreshold * 1000000L
+			this.sampleRate = sampleRate
+			this.sampleDecision = null
+			if (bufferedMessages == null) {
+				bufferedMessages = new ArrayList<BufferedMessage>()
+			}
+		} finally {
+			// The lock is removed
+			bufferLock.unlock()
+		}
+	}
+	
+	/**
+	 * This method returns whether tail sampling is enabled.
+	 * 
+	 * @return True if messages are buffered until the sampling decision, false otherwise
+	 */
+	public boolean isSampling() {
+		sampleLatency >= 0
+	}
+	
+	/**
+	 * This method makes the sampling decision (if tail sampling is enabled) and outputs or drops the buffered messages.
+	 * Messages logged afterwards are output or dropped according to the decision. It should be called when the request
+	 * ends, but before the response is committed (@see FireP4jFilter).
+	 */
+	public void flush() {
+		// The buffered messages are output or dropped
+		flushBufferedMessages()
+	}
+	
+	/**
+	 * @return True if the instance was released (messages are not written to the response anymore), false otherwise
 	 */
-	public void removeTraceFilter(Filter.Criteria filterType, String filterValue) {
+	public boolean isReleased() {
+		closed
+	}
+	
+	/**
+	 * This method makes the sampling decision (if tail sampling is enabled) and outputs or drops the buffered messages.
+	 */
+	private void flushBufferedMessages() {
+		List<BufferedMessage> messages = null
+		int overflow = 0
+		long heldBytes = 0
+		
+		// Execution is protected by a lock
+		bufferLock.lock()
+		
 		try {
-			// Execution is protected by a lock
-			jsonLock.writeLock().lock()
+			// If tail sampling is disabled or the decision was already made, there is nothing to do
+			if (sampleLatency < 0 || sampleDecision != null) {
+				return
+			}
 			
-			Filter filter = null	
+			// Slow requests, requests with errors and sampled requests are output
+			boolean output = sampledError || System.nanoTime() - startTime >= sampleLatency ||
+				ThreadLocalRandom.current().nextDouble() < sampleRate
 			
-			// For each existing trace filter
-			def valueToRemove = null		
-			traceFilters.each {
-				// If the filter is present, it is remembered
-				if (it.type == filterType && it.value == filterValue) {
-					valueToRemove = it
-				}
+			// Lazy objects may turn out to be exceptions as well (they are only built if nothing else decided yet)
+			if (!output) {
+				output = containsLazyException(bufferedMessages)
 			}
+			sampleDecision = output
 			
-			// The filter is removed from the list of filters
-			if (valueToRemove != null) {
-				traceFilters.remove(valueToRemove)
-			}
-		} catch (Exception e) {
-			// An exception is thrown again
-			throw e
+			messages = output ? bufferedMessages : null
+			overflow = overflowCount
+			heldBytes = bufferedBytes
+			bufferedMessages = new ArrayList<BufferedMessage>()
+			overflowCount = 0
+			bufferedBytes = 0
 		} finally {
 			// The lock is removed
-			jsonLock.writeLock().unlock()
+			bufferLock.unlock()
+		}
+		
+		// The buffered messages are not held anymore (the output ones are accounted when they are rendered)
+		memoryHold.remove(heldBytes)
+		
+		// If the messages are dropped, there is nothing more to do
+		if (messages == null) {
+			return
+		}
+		
+		// The buffered messages are output in the order they were logged
+		for (BufferedMessage message : messages) {
+			try {
+				renderMessage(message.object, message.label, message.logLevel, message)
+			} catch (Exception e) {
+				// A failing lazy object or table source must not break the response (the failure is output instead)
+				renderMessage("Message could not be output: ${e}".toString(), message.label, FireP4jLogLevel.ERROR, message)
+			}
+		}
+		
+		// The messages that did not fit into the buffer are summarized
+		if (overflow > 0) {
+			renderSummary(FireP4jLogLevel.WARN, "Tail sampling buffer full: ${overflow} messages dropped")
+		}
+	}
+	
+	/**
+	 * This method builds the lazy objects of the buffered messages until one of them turns out to be an exception
+	 * (or fails with one). The built objects are kept, so they are not built again when the messages are output.
+	 * 
+	 * @param messages Buffered messages
+	 * @return True if a lazy object is an exception, false otherwise
+	 */
+	private static boolean containsLazyException(List<BufferedMessage> messages) {
+		// Messages logged while an object is built are appended to the list, so it is walked by index
+		for (int i = 0; i < messages.size(); i++) {
+			BufferedMessage message = messages.get(i)
+			if (!(message.object instanceof LazyObject)) {
+				continue
+			}
+			
+			// A failing lazy object is output as the exception it failed with
+			try {
+				message.object = ((LazyObject) message.object).get()
+			} catch (Exception e) {
+				message.object = e
+			}
+			if (message.object instanceof Throwable) {
+				message.logLevel = FireP4jLogLevel.EXCEPTION
+				return true
+			}
+		}
+		false
+	}
+	
+	/**
+	 * This method sets the maximum serialization depth for object serialization (-1 for infinite depth).
+	 * 
+	 * @param maxDepth Maximum serialization depth
+	 */
+	public synchronized void setMaxDepth(int maxDepth) {
+		// The max depth property is set
+		config = config.withJSONUtils { JSONUtils utils -> utils.setMaxDepth(maxDepth) }
+	}
+	
+	/**
+	 * This method returns the maximum serialization depth for object serialization (-1 for infinite depth).
+	 * 
+	 * @return Maximum serialization depth
+	 */
+	public int getMaxDepth() {
+		config.jsonUtils.maxDepth
+	}
+	
+	/**
+	 * This method sets whether line numbers and file names should be included in the output.
+	 * 
+	 * @param includeLineNumbers True if line numbers and file names should be included in the output, false otherwise
+	 */
+	public synchronized void setIncludeLineNumbers(includeLineNumbers) {
+		// The flag indicating whether line numbers and file names should be set is output
+		config = config.withIncludeLineNumbers(includeLineNumbers as boolean)
+	}
+	
+	/**
+	 * This method returns whether line numbers and file names are included in the output.
+	 * 
+	 * @return True if line numbers and file names are included in the output, false otherwise
+	 */
+	public boolean isIncludeLineNumbers() {
+		config.includeLineNumbers
+	}
+	
+	/**
+	 * This method sets all the options that can be configured.
+	 * 
+	 * @param maxTraceCount Maximum trace element count (for trace and exception output)
+	 * @param maxDepth Maximum serialization depth (for object output)
+	 * @param includeLineNumbers True if line numbers and file names should be included in the output, false otherwise
+	 */
+	public synchronized void setOptions(int maxTraceCount, int maxDepth, boolean includeLineNumbers = true) {
+		// All the options are changed on one copy, so log calls see either none or all of them
+		FireP4jConfig newConfig = config
+		// Max trace element count is set
+		if (maxTraceCount > 0) {
+			newConfig = newConfig.withMaxTraceCount(maxTraceCount)
 		}
+		// Max serialization depth is set
+		newConfig = newConfig.withJSONUtils { JSONUtils utils -> utils.setMaxDepth(maxDepth) }
+		// The flag indicating line number output is set
+		config = newConfig.withIncludeLineNumbers(includeLineNumbers)
+	}
+	
+	/**
+	 * This method adds a trace filter to the list of existing trace filters.
+	 * 
+	 * @param filterType Filter type (@see firep4j.tools.Filter)
+	 * @param filterValue Package name to be filtered
+	 */
+	public synchronized void addTraceFilter(Filter.Criteria filterType, String filterValue) {
+		// The new filter is added to the list of filters (if it is not present yet)
+		config = config.withTraceFilter(filterType, filterValue)
+	}
+	
+	/**
+	 * This method adds a trace filter to the list of existing trace filters.
+	 * 
+	 * @param filter Trace filter
+	 */
+	protected void addTraceFilter(Filter filter) {
+		addTraceFilter(filter.type, filter.value);
+	}
+	
+	/**
+	 * This method removes a trace filter from the list of existing trace filters.
+	 * 
+	 * @param filterType Filter type (@see firep4j.tools.Filter)
+	 * @param filterValue Package name to be filtered
+	 */
+	public synchronized void removeTraceFilter(Filter.Criteria filterType, String filterValue) {
+		// The filter is removed from the list of filters (if it is present)
+		config = config.withoutTraceFilter(filterType, filterValue)
 	}
 	
 	/**
@@ -468,45 +1101,13 @@ public class FireP4j {
 	/**
 	 * This method tests if the given class should be output in trace or exception outputs.
 	 * 
+	 * @param config Configuration snapshot containing the trace filters
 	 * @param className Class (in package notation) name to check
 	 * @return True if the class should be output, false otherwise
 	 */
-	private boolean isValidClassName(String className) {
-		def valid = true
-		
-		// The FireP4j class is always excluded
-		if (className == "firep4j.FireP4j") {
-			valid = false
-		}
-		
-		// For all the trace filters
-		for (filter in traceFilters) {
-			// The class name is checked with the trace filter according to its type
-			
-			if (filter.type == Filter.Criteria.STARTS_WITH) {
-				// Class name is checked if it starts with a specific value
-				if (className.startsWith(filter.value)) {
-					valid = false
-				}
-			} else if (filter.type == Filter.Criteria.CONTAINS) {
-				// Class name is checked if it contains a specific value
-				if (className.contains(filter.value)) {
-					valid = false
-				}
-			} else if (filter.type == Filter.Criteria.ENDS_WITH) {
-				// Class name is checked if it ends with a specific value
-				if (className.endsWith(filter.value)) {
-					valid = false
-				}
-			} else if (filter.type == Filter.Criteria.EQUALS) {
-				// Class name is checked if it equals a specific value
-				if (className == filter.value) {
-					valid = false
-				}
-			}
-		}		
-		
-		valid
+	private boolean isValidClassName(FireP4jConfig config, String className) {
+		// The FireP4j class is always excluded, all other classes are checked with the compiled trace filters
+		className != "firep4j.FireP4j" && !config.traceFilterMatcher.matches(className)
 	}
 	
 	/**
@@ -515,20 +1116,9 @@ public class FireP4j {
 	 * @param className Class name for which the fields should be filtered
 	 * @param fieldNames List of field names that should be filtered within the class
 	 */
-	public void addObjectFilter(String className, String... fieldNames) {
-		try {
-			// Execution is protected by a lock
-			jsonLock.writeLock().lock()
-			
-			// The object filter is added
-			jsonUtils.addObjectFilter(className, fieldNames)
-		} catch (Exception e) {
-			// An exception is thrown again
-			throw e
-		} finally {
-			// The lock is removed
-			jsonLock.writeLock().unlock()
-		}
+	public synchronized void addObjectFilter(String className, String... fieldNames) {
+		// The object filter is added
+		config = config.withJSONUtils { JSONUtils utils -> utils.addObjectFilter(className, fieldNames) }
 	}
 	
 	/**
@@ -537,20 +1127,9 @@ public class FireP4j {
 	 * @param className Class name for which the fields should be filtered
 	 * @param fieldNames List of field names that should be filtered within the class
 	 */
-	public void removeObjectFilter(String className, String... fieldNames) {
-		try {
-			// Execution is protected by a lock
-			jsonLock.writeLock().lock()
-			
-			// The object filter is removed
-			jsonUtils.removeObjectFilter(className, fieldNames)
-		} catch (Exception e) {
-			// An exception is thrown again
-			throw e
-		} finally {
-			// The lock is removed
-			jsonLock.writeLock().unlock()
-		}
+	public synchronized void removeObjectFilter(String className, String... fieldNames) {
+		// The object filter is removed
+		config = config.withJSONUtils { JSONUtils utils -> utils.removeObjectFilter(className, fieldNames) }
 	}
 	
 	/**
@@ -616,67 +1195,21 @@ public class FireP4j {
 	 * @param assertionHandler Integer indicating whether an assertion error handler should be registered (> 0), reset (< 0) or nothing should be done (0)
 	 */
 	private void initExceptionHandler(Thread thread, int exceptionHandler, int errorHandler, int assertionHandler) {
-		try {
-			// Execution is protected by a lock
-			exceptionHandlerLock.lock()
-			
-			// If no thread was specified, the current thread is taken
-			if (thread == null) {
-				thread = Thread.currentThread()
-			}
-			
-			// The thread ID is determined
-			long threadId = thread.getId()
-			
-			// Flags indicating whether exception, error and assertion error handlers should be registered or reset are set
-			boolean setExceptionHandler = exceptionHandler > 0
-			boolean setErrorHandler = errorHandler > 0
-			boolean setAssertionError = assertionHandler > 0	
-			boolean unsetExceptionHandler = exceptionHandler < 0
-			boolean unsetErrorHandler = errorHandler < 0
-			boolean unsetAssertionHandler = assertionHandler < 0
-			
-			FireP4jExceptionHandler handler = null
-			
-			if (exceptionHandlers.containsKey(threadId)) {
-				// If the exception handler for that thread already exists, it is determined
-				handler = exceptionHandlers[threadId]
-			} else if (setExceptionHandler || setErrorHandler || setAssertionError) {
-				// If the exception handler for that thread does not exists, it is created
-				handler = new FireP4jExceptionHandler(this)
-				// The exception handler is registered and put in the exception handler list
-				thread.setUncaughtExceptionHandler(handler)			
-				exceptionHandlers[threadId] = handler
-			} else {
-				return
-			}
-			
-			// Handler flags are set or reset for the exception handler
-			
-			// Exceptions
-			if (setExceptionHandler) { handler.captureExceptions = true }
-			else if (unsetExceptionHandler) { handler.captureExceptions = false }
-			
-			// Errors
-			if (setErrorHandler) { handler.captureErrors = true }
-			else if (unsetErrorHandler) { handler.captureErrors = false }
-			
-			// Assertion errors
-			if (setAssertionError) { handler.captureAssertions = true }
-			else if (unsetAssertionHandler) { handler.captureAssertions = false }
-			
-			// If there is nothing to do anymore for the exception handler, it is deleted
-			if (!handler.isHandlerDefined()) {
-				thread.setUncaughtExceptionHandler(null)
-				exceptionHandlers.remove(handler)
-			}
-		} catch(Exception e) {
-			// An exception is thrown again
-			throw e
-		} finally {
-			// The lock is removed
-			exceptionHandlerLock.unlock()
+		// If no thread was specified, the current thread is taken
+		if (thread == null) {
+			thread = Thread.currentThread()
 		}
+		
+		// The capture flags to set and to reset are determined
+		int set = (exceptionHandler > 0 ? FireP4jExceptionHandler.captureExceptions : 0) |
+			(errorHandler > 0 ? FireP4jExceptionHandler.captureErrors : 0) |
+			(assertionHandler > 0 ? FireP4jExceptionHandler.captureAssertions : 0)
+		int reset = (exceptionHandler < 0 ? FireP4jExceptionHandler.captureExceptions : 0) |
+			(errorHandler < 0 ? FireP4jExceptionHandler.captureErrors : 0) |
+			(assertionHandler < 0 ? FireP4jExceptionHandler.captureAssertions : 0)
+		
+		// The registration of the thread is updated in the shared dispatcher
+		FireP4jExceptionHandler.update(thread, this, set, reset)
 	}
 	
 	/**
@@ -701,7 +1234,7 @@ public class FireP4j {
 		}
 		
 		// The number of currently open groups is incremented
-		openGroups++
+		openGroups.incrementAndGet()
 		
 		// According to the collapsed flag, the group is opened either in a collapsed or in an open way
 		if (collapsed) {
@@ -715,12 +1248,15 @@ public class FireP4j {
 	 * This method ends an existing group in FireP4j. 
 	 */
 	public void groupEnd() {
-		// Groups can only be closed if they were opened before
-		if (openGroups > 0) {
-			// The number of currently open groups is decremented
-			openGroups--
-			// The group is closed
-			fireBug(null, null, FireP4jLogLevel.GROUP_END)
+		// Groups can only be closed if they were opened before (the count is decremented without going below 0)
+		int groups = openGroups.get()
+		while (groups > 0) {
+			if (openGroups.compareAndSet(groups, groups - 1)) {
+				// The group is closed
+				fireBug(null, null, FireP4jLogLevel.GROUP_END)
+				return
+			}
+			groups = openGroups.get()
 		}
 	}
 	
@@ -735,37 +1271,173 @@ public class FireP4j {
 	}
 	
 	/**
-	 * This method outputs the given object with the given label to the FireBug console with log level LOG.
+	 * This method dumps the object built by the given lazy object to the FireBug net tab.
+	 * The object is only built if it is actually output.
 	 * 
-	 * @param object Object to log
-	 * @param label Label of the object
+	 * @param label Object label
+	 * @param object Lazy object building the object
 	 */
-	public void log(Serializable object, String label = null) {
-		fireBug(object, label, FireP4jLogLevel.LOG)
+	public void dump(String label, LazyObject object) {
+		fireBug(object, label, FireP4jLogLevel.DUMP)
 	}
 	
 	/**
-	 * This method outputs the given object with the given label to the FireBug console with log level INFO.
+	 * This method dumps the object built by the given supplier to the FireBug net tab.
+	 * The object is only built if it is actually output.
 	 * 
-	 * @param object Object to log
-	 * @param label Label of the object
+	 * @param label Object label
+	 * @param supplier Supplier building the object
 	 */
-	public void info(Serializable object, String label = null) {
-		fireBug(object, label, FireP4jLogLevel.INFO)
+	public void dump(String label, Supplier<? extends Serializable> supplier) {
+		fireBug(toSerializable(supplier), label, FireP4jLogLevel.DUMP)
 	}
 	
 	/**
-	 * This method outputs the given object with the given label to the FireBug console with log level WARN.
+	 * This method dumps any object to the FireBug net tab. It is chosen by Groovy for null values (which would match
+	 * both the serializable and the supplier overloads): suppliers are built lazily, other objects that are not
+	 * serializable are dumped as their string.
 	 * 
-	 * @param object Object to log
-	 * @param label Label of the object
+	 * @param label Object label
+	 * @param object Object to dump
 	 */
-	public void warn(Serializable object, String label = null) {
-		fireBug(object, label, FireP4jLogLevel.WARN);
+	public void dump(String label, Object object) {
+		fireBug(toSerializable(object), label, FireP4jLogLevel.DUMP)
 	}
 	
 	/**
-	 * This method outputs the given object with the given label to the FireBug console with log level ERROR.
+	 * This method outputs the given object with the given label to the FireBug console with log level LOG.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 */
+	public void log(Serializable object, String label = null) {
+		fireBug(object, label, FireP4jLogLevel.LOG)
+	}
+	
+	/**
+	 * This method outputs the object built by the given lazy object to the FireBug console with log level LOG.
+	 * The object is only built if it is actually output.
+	 * 
+	 * @param object Lazy object building the object to log
+	 * @param label Label of the object
+	 */
+	public void log(LazyObject object, String label = null) {
+		fireBug(object, label, FireP4jLogLevel.LOG)
+	}
+	
+	/**
+	 * This method outputs the object built by the given supplier to the FireBug console with log level LOG.
+	 * The object is only built if it is actually output.
+	 * 
+	 * @param supplier Supplier building the object to log
+	 * @param label Label of the object
+	 */
+	public void log(Supplier<? extends Serializable> supplier, String label = null) {
+		fireBug(toSerializable(supplier), label, FireP4jLogLevel.LOG)
+	}
+	
+	/**
+	 * This method outputs any object to the FireBug console with log level LOG. It is chosen by Groovy for null
+	 * values (which would match both the serializable and the supplier overloads): suppliers are built lazily, other
+	 * objects that are not serializable are output as their string.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 */
+	public void log(Object object, String label = null) {
+		fireBug(toSerializable(object), label, FireP4jLogLevel.LOG)
+	}
+	
+	/**
+	 * This method outputs the given object with the given label to the FireBug console with log level INFO.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 */
+	public void info(Serializable object, String label = null) {
+		fireBug(object, label, FireP4jLogLevel.INFO)
+	}
+	
+	/**
+	 * This method outputs the object built by the given lazy object to the FireBug console with log level INFO.
+	 * The object is only built if it is actually output.
+	 * 
+	 * @param object Lazy object building the object to log
+	 * @param label Label of the object
+	 */
+	public void info(LazyObject object, String label = null) {
+		fireBug(object, label, FireP4jLogLevel.INFO)
+	}
+	
+	/**
+	 * This method outputs the object built by the given supplier to the FireBug console with log level INFO.
+	 * The object is only built if it is actually output.
+	 * 
+	 * @param supplier Supplier building the object to log
+	 * @param label Label of the object
+	 */
+	public void info(Supplier<? extends Serializable> supplier, String label = null) {
+		fireBug(toSerializable(supplier), label, FireP4jLogLevel.INFO)
+	}
+	
+	/**
+	 * This method outputs any object to the FireBug console with log level INFO. It is chosen by Groovy for null
+	 * values (which would match both the serializable and the supplier overloads): suppliers are built lazily, other
+	 * objects that are not serializable are output as their string.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 */
+	public void info(Object object, String label = null) {
+		fireBug(toSerializable(object), label, FireP4jLogLevel.INFO)
+	}
+	
+	/**
+	 * This method outputs the given object with the given label to the FireBug console with log level WARN.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 */
+	public void warn(Serializable object, String label = null) {
+		fireBug(object, label, FireP4jLogLevel.WARN);
+	}
+	
+	/**
+	 * This method outputs the object built by the given lazy object to the FireBug console with log level WARN.
+	 * The object is only built if it is actually output.
+	 * 
+	 * @param object Lazy object building the object to log
+	 * @param label Label of the object
+	 */
+	public void warn(LazyObject object, String label = null) {
+		fireBug(object, label, FireP4jLogLevel.WARN)
+	}
+	
+	/**
+	 * This method outputs the object built by the given supplier to the FireBug console with log level WARN.
+	 * The object is only built if it is actually output.
+	 * 
+	 * @param supplier Supplier building the object to log
+	 * @param label Label of the object
+	 */
+	public void warn(Supplier<? extends Serializable> supplier, String label = null) {
+		fireBug(toSerializable(supplier), label, FireP4jLogLevel.WARN)
+	}
+	
+	/**
+	 * This method outputs any object to the FireBug console with log level WARN. It is chosen by Groovy for null
+	 * values (which would match both the serializable and the supplier overloads): suppliers are built lazily, other
+	 * objects that are not serializable are output as their string.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 */
+	public void warn(Object object, String label = null) {
+		fireBug(toSerializable(object), label, FireP4jLogLevel.WARN)
+	}
+	
+	/**
+	 * This method outputs the given object with the given label to the FireBug console with log level ERROR.
 	 * 
 	 * @param object Object to log
 	 * @param label Label of the object
@@ -774,6 +1446,40 @@ public class FireP4j {
 		fireBug(object, label, FireP4jLogLevel.ERROR)
 	}
 	
+	/**
+	 * This method outputs the object built by the given lazy object to the FireBug console with log level ERROR.
+	 * The object is only built if it is actually output.
+	 * 
+	 * @param object Lazy object building the object to log
+	 * @param label Label of the object
+	 */
+	public void error(LazyObject object, String label = null) {
+		fireBug(object, label, FireP4jLogLevel.ERROR)
+	}
+	
+	/**
+	 * This method outputs the object built by the given supplier to the FireBug console with log level ERROR.
+	 * The object is only built if it is actually output.
+	 * 
+	 * @param supplier Supplier building the object to log
+	 * @param label Label of the object
+	 */
+	public void error(Supplier<? extends Serializable> supplier, String label = null) {
+		fireBug(toSerializable(supplier), label, FireP4jLogLevel.ERROR)
+	}
+	
+	/**
+	 * This method outputs any object to the FireBug console with log level ERROR. It is chosen by Groovy for null
+	 * values (which would match both the serializable and the supplier overloads): suppliers are built lazily, other
+	 * objects that are not serializable are output as their string.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 */
+	public void error(Object object, String label = null) {
+		fireBug(toSerializable(object), label, FireP4jLogLevel.ERROR)
+	}
+	
 	/**
 	 * This method outputs the given table with the given label to the FireBug console with log level TABLE.
 	 * 
@@ -789,6 +1495,62 @@ public class FireP4j {
 		fireBug(table, label, FireP4jLogLevel.TABLE)
 	}
 	
+	/**
+	 * This method outputs the table built by the given lazy object to the FireBug console with log level TABLE.
+	 * The table (and its rows) is only built if it is actually output.
+	 * 
+	 * @param label Label of the table
+	 * @param table Lazy object building the table
+	 */
+	public void table(String label, LazyObject table) {
+		// If no label was given, an exception is thrown
+		if (label == null || label == "") {
+			throw new Exception("Please specify a table name!")			
+		}
+		// The table is output
+		fireBug(table, label, FireP4jLogLevel.TABLE)
+	}
+	
+	/**
+	 * This method outputs the table built by the given closure to the FireBug console with log level TABLE.
+	 * The table (and its rows) is only built if it is actually output.
+	 * 
+	 * @param label Label of the table
+	 * @param closure Closure building the table
+	 */
+	public void table(String label, Closure closure) {
+		table(label, LazyObject.of(closure as Supplier))
+	}
+	
+	/**
+	 * This method outputs the table built by the given supplier to the FireBug console with log level TABLE.
+	 * The table (and its rows) is only built if it is actually output.
+	 * 
+	 * @param label Label of the table
+	 * @param supplier Supplier building the table
+	 */
+	public void table(String label, Supplier<? extends Table> supplier) {
+		table(label, LazyObject.of(supplier))
+	}
+	
+	/**
+	 * This method converts an object into the object that is output: suppliers are wrapped into lazy objects,
+	 * objects that are not serializable are replaced by their string (null, lazy objects and other serializable
+	 * objects are passed on as they are).
+	 * 
+	 * @param object Object to log
+	 * @return Serializable object
+	 */
+	private static Serializable toSerializable(Object object) {
+		if (object == null || object instanceof LazyObject) {
+			return (Serializable) object
+		}
+		if (object instanceof Supplier) {
+			return LazyObject.of((Supplier<? extends Serializable>) object)
+		}
+		object instanceof Serializable ? (Serializable) object : String.valueOf(object)
+	}
+	
 	/**
 	 * This method outputs the current stack trace with the given label to the FireBug.
 	 * 
@@ -821,49 +1583,587 @@ public class FireP4j {
 			logLevel = FireP4jLogLevel.EXCEPTION
 		}
 		
-	  	String headerBody = ""
+		// Closures are not serialized, but built lazily
+		if (object instanceof Closure) {
+			object = LazyObject.of(object as Supplier)
+		}
+		
+		// With tail sampling, the message is buffered until the sampling decision is made
+		if (sampleLatency >= 0 && bufferMessage(object, label, logLevel)) {
+			return
+		}
+		
+		renderMessage(object, label, logLevel, null)
+	}
+	
+	/**
+	 * This method buffers a message until the sampling decision is made (or drops it if the decision was negative).
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 * @param logLevel Output log level
+	 * @return True if the message was buffered or dropped, false if it should be output immediately
+	 */
+	private boolean bufferMessage(Serializable object, String label, FireP4jLogLevel logLevel) {
+		// Execution is protected by a lock
+		bufferLock.lock()
 		
 		try {
-			// Execution is protected by the JSON serialization lock
-			jsonLock.readLock().lock()
+			// After the decision, messages are output or dropped immediately
+			if (sampleLatency < 0) {
+				return false
+			}
+			if (sampleDecision != null) {
+				return !sampleDecision
+			}
 			
-			// The payload (the main output) is determined
-		  	String headerBodyPayload = getHeaderBodyPayload(label, object, logLevel)
-		  	
-		  	// If there is nothing to output for a trace or exception statement, method execution is aborted
-		  	if ((logLevel == FireP4jLogLevel.TRACE || logLevel == FireP4jLogLevel.EXCEPTION) && headerBodyPayload == "{}") {
-		  		return
-		  	}
+			// Errors and exceptions cause the request to be output (lazy objects are checked when the decision is made)
+			if (logLevel == FireP4jLogLevel.ERROR || logLevel == FireP4jLogLevel.EXCEPTION) {
+				sampledError = true
+			}
 			
-		  	// The protocol HTTP headers are set (stating the protocol versions) 
-			setInitialHeaders(logLevel)
+			// Without room in the buffer, the message is only counted (and summarized if the messages are output)
+			if (bufferedMessages.size() >= maxBufferedMessages) {
+				overflowCount++
+				return true
+			}
 			
-		  	if (logLevel != FireP4jLogLevel.DUMP) {
-		  		// The header is determined for non-dump entries
-		  		
-		  		// Header body index is built (determining file properties, labels, etc)
-		  		HashMap<String, String> headerBodyTitleEntries = getHeaderBodyTitleEntries(label, logLevel)
-		  		String headerBodyIndex = buildHeaderBodyIndex(headerBodyTitleEntries)	
-		  		
-		  		// The complete header body is determined
-		  		headerBody = "[" + headerBodyIndex + "," + headerBodyPayload + "]"
-		  	} else {
-		  		// The header is determined for dump entries	  		
-		  		headerBody = getDumpHeaderBody(label, headerBodyPayload)  		
-		  	}
-		} catch (Exception e) {
-			// If an exception occurs, it is thrown again
-			throw e
+			// The message is buffered, only the call site (and the frames of a trace) are determined now
+			FireP4jConfig config = this.config.degrade(loadMonitor.level)
+			StackWalker.StackFrame callerFrame = config.includeLineNumbers ? findCallerFrame(config) : null
+			StackTraceElement[] stackTrace = logLevel == FireP4jLogLevel.TRACE ? captureTrace(config) : null
+			
+			// Table sources that can only be read once (streams and result sets) are read now, as they may be closed
+			// when the decision is made (iterables are only read if the messages are output)
+			if (object instanceof Table) {
+				((Table) object).readOneShotSource()
+			}
+			
+			// The memory held by the message is bounded per request and accounted in the global memory budget
+			long bytes = estimateBufferedBytes(object, label, stackTrace)
+			if (bufferedBytes + bytes > maxBufferedBytes || !globalMemoryBudget.hasRoom(bytes)) {
+				globalMemoryBudget.degrade()
+				overflowCount++
+				return true
+			}
+			bufferedBytes += bytes
+			memoryHold.add(bytes)
+			
+			bufferedMessages.add(new BufferedMessage(object, label, logLevel, config, callerFrame, stackTrace))
+			true
+		} finally {
+			// The lock is removed
+			bufferLock.unlock()
+		}
+	}
+	
+	/**
+	 * This method estimates the memory held by a buffered message. The size of texts, tables, collections and
+	 * exceptions is estimated from their length, other objects are estimated with a fixed size.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 * @param stackTrace Trace elements of a trace message (null for other messages)
+	 * @return Estimated number of bytes
+	 */
+	private static long estimateBufferedBytes(Serializable object, String label, StackTraceElement[] stackTrace) {
+		long bytes = bufferedMessageBytes + (label != null ? 2L * label.length() : 0) +
+			(stackTrace != null ? (long) elementBytes * stackTrace.length : 0)
+		
+		if (object instanceof CharSequence) {
+			bytes += 2L * ((CharSequence) object).length()
+		} else if (object instanceof Table) {
+			Table table = (Table) object
+			bytes += 16L * table.columnCount * (table.rowCount + 1)
+		} else if (object instanceof Collection) {
+			bytes += (long) elementBytes * ((Collection) object).size()
+		} else if (object instanceof Map) {
+			bytes += 2L * elementBytes * ((Map) object).size()
+		} else if (object instanceof Object[]) {
+			bytes += (long) elementBytes * ((Object[]) object).length
+		} else if (object instanceof Throwable) {
+			bytes += (long) elementBytes * ((Throwable) object).getStackTrace().length
+		} else if (object != null) {
+			bytes += elementBytes
+		}
+		bytes
+	}
+	
+	/**
+	 * This method renders a message into the HTTP headers.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 * @param logLevel Output log level
+	 * @param buffered Buffered message containing the call site (null if the message is rendered when it is logged)
+	 */
+	private void renderMessage(Serializable object, String label, FireP4jLogLevel logLevel, BufferedMessage buffered) {
+		// Under the highest load, nothing is output at all
+		int degradation = loadMonitor.level
+		if (degradation == LoadMonitor.off) {
+			return
+		}
+		
+		// The time spent on the message is measured for the load-aware degradation
+		long start = System.nanoTime()
+		try {
+			renderMessage(object, label, logLevel, buffered, degradation)
+		} finally {
+			loadMonitor.record(System.nanoTime() - start)
+		}
+	}
+	
+	/**
+	 * This method renders a message into the HTTP headers with the detail allowed by the degradation level.
+	 * 
+	 * @param object Object to log
+	 * @param label Label of the object
+	 * @param logLevel Output log level
+	 * @param buffered Buffered message containing the call site (null if the message is rendered when it is logged)
+	 * @param degradation Degradation level (@see firep4j.tools.LoadMonitor)
+	 */
+	private void renderMessage(Serializable object, String label, FireP4jLogLevel logLevel, BufferedMessage buffered, int degradation) {
+		// If the message limits of the request or the global rate limit are exceeded, the message is suppressed
+		// (they are only checked here, messages that are collapsed or dropped later do not use them up)
+		if (isLimitReached()) {
+			suppressMessage()
+			return
+		}
+		
+		// If the header budget is used up for the log level, the message is dropped without being serialized
+		int budgetShare = getBudgetShare(logLevel)
+		if (!headerBudget.hasRoom(budgetShare)) {
+			dropMessage(0)
+			return
+		}
+		
+		// If the global memory budget is used up, payloads are not even built or serialized
+		boolean memoryExhausted = isDegradable(logLevel) && globalMemoryBudget.exhausted
+		if (memoryExhausted && !isStringPayload(logLevel)) {
+			globalMemoryBudget.degrade()
+			suppressMessage()
+			return
+		}
+		
+		// Lazy objects are built now (only messages that are actually output pay for them)
+		if (!memoryExhausted && object instanceof LazyObject) {
+			object = ((LazyObject) object).get()
+			if (object instanceof Throwable) {
+				logLevel = FireP4jLogLevel.EXCEPTION
+			}
+		}
+		
+		// Exceptions are identified by a fingerprint of their type and top frames (before the trace is encoded)
+		long fingerprint = 0
+		boolean traced = false
+		if (logLevel == FireP4jLogLevel.EXCEPTION) {
+			Throwable throwable = (Throwable) object
+			fingerprint = exceptionFingerprints.fingerprint(throwable)
+			
+			// A repeat within the request is only counted
+			if (collapseRepeats && collapseRepeat(fingerprint, budgetShare)) {
+				exceptionFingerprints.record(fingerprint, System.nanoTime(), false)
+				return
+			}
+			
+			// The trace of an exception seen recently (by any request) is only output once per trace interval
+			// (it only counts as output once its headers were written)
+			int seen = exceptionFingerprints.record(fingerprint, System.nanoTime(), true)
+			if (seen > 0) {
+				object = "${throwable} (seen ${seen} ${seen == 1 ? 'time' : 'times'} in the last minute, trace omitted)".toString()
+				logLevel = FireP4jLogLevel.ERROR
+			} else {
+				traced = true
+			}
+		}
+		
+		// All the settings are taken from one configuration snapshot (concurrent changes do not affect this output)
+		FireP4jConfig config = (buffered != null ? buffered.config : this.config).degrade(degradation)
+		
+		// The complete header body is written into one buffer
+		StringBuilder headerBody = new StringBuilder(256)
+		
+	  	if (logLevel != FireP4jLogLevel.DUMP) {
+	  		// The header body index is written for non-dump entries (determining file properties, labels, etc)
+	  		writeHeaderBodyIndex(config, headerBody, label, logLevel, buffered)
+	  	} else {
+	  		// The label is written for dump entries
+	  		MessageEncoder.beginDump(headerBody, label)
+	  	}
+		
+		// The payload (the main output) is written
+		// If there is nothing to output for a trace or exception statement, method execution is aborted
+		int payloadStart = headerBody.length()
+		if (memoryExhausted) {
+			globalMemoryBudget.degrade()
+			writeOmittedPayload(headerBody, -1)
+		} else if (!writeHeaderBodyPayload(config, headerBody, label, object, logLevel, buffered)) {
+			return
+		}
+		endHeaderBody(headerBody, logLevel)
+		
+		// A payload that does not fit into the global memory budget is replaced by a summary
+		if (isDegradable(logLevel) && !memoryExhausted && !globalMemoryBudget.hasRoom(headerBody.length())) {
+			globalMemoryBudget.degrade()
+			if (!isStringPayload(logLevel)) {
+				suppressMessage()
+				return
+			}
+			int payloadLength = headerBody.length() - payloadStart - 1
+			headerBody.setLength(payloadStart)
+			writeOmittedPayload(headerBody, payloadLength)
+			endHeaderBody(headerBody, logLevel)
+		}
+		
+		// A repeat of a recent message is only counted (the hash covers the call site and the payload,
+		// exceptions were checked by their fingerprint already)
+		boolean collapsible = collapseRepeats && isCollapsible(logLevel)
+		long hash = fingerprint != 0 ? fingerprint : collapsible ? MessageRepeats.hash(headerBody) : 0
+		if (collapsible && fingerprint == 0 && collapseRepeat(hash, budgetShare)) {
+			return
+		}
+		
+		// If the message does not fit into the header budget for the log level, it is dropped
+		int bytes = 0
+		if (headerBudget.maxBytes >= 0) {
+			bytes = estimateHeaderBytes(config, headerBody)
+			if (!headerBudget.reserve(bytes, budgetShare)) {
+				dropMessage(bytes)
+				return
+			}
+		}
+		
+		// The message is counted against the message limits now that it is output (another thread may have used
+		// them up in the meantime, then the reserved bytes are given back)
+		if (!acquireMessage()) {
+			headerBudget.release(bytes)
+			suppressMessage()
+			return
+		}
+		
+	  	// The header body is rendered in chunks (if it got too big), unless it exceeds the header index limit
+	  	// (messages of all threads are written under the header lock, as long as the response can be written)
+	  	int chunks = renderHeaderChunks(config, headerBody, logLevel)
+	  	if (chunks < 0) {
+	  		suppressMessage()
+	  		return
+	  	}
+		
+		// A message that could not be written anymore (the instance was released or the response committed) is not
+		// remembered
+		if (chunks == 0) {
+			return
+		}
+		
+		// Other requests omit the trace of the exception from now on
+		if (traced) {
+			exceptionFingerprints.markTraced(fingerprint, System.nanoTime())
+		}
+		
+		// The headers are held in memory until the response is sent
+		memoryHold.add(headerBody.length())
+		
+		// The message is remembered for detecting repeats
+		if (collapsible) {
+			messageRepeats.add(hash, describeMessage(object, label))
+		}
+	}
+	
+	/**
+	 * This method ends the header body of a message.
+	 * 
+	 * @param headerBody Header body
+	 * @param logLevel Log level of the message
+	 */
+	private static void endHeaderBody(StringBuilder headerBody, FireP4jLogLevel logLevel) {
+	  	if (logLevel != FireP4jLogLevel.DUMP) {
+	  		MessageEncoder.endMessage(headerBody)
+	  	} else {
+	  		MessageEncoder.endDump(headerBody)
+	  	}
+	}
+	
+	/**
+	 * This method returns whether the payload of messages of the given log level is subject to the memory budget
+	 * (the payload of group messages is always empty).
+	 * 
+	 * @param logLevel Log level
+	 * @return True if the payload may be degraded, false otherwise
+	 */
+	private static boolean isDegradable(FireP4jLogLevel logLevel) {
+		logLevel != FireP4jLogLevel.GROUP_START && logLevel != FireP4jLogLevel.COLLAPSED_GROUP_START &&
+			logLevel != FireP4jLogLevel.GROUP_END
+	}
+	
+	/**
+	 * This method returns whether the payload of messages of the given log level may be replaced by a text
+	 * (tables, traces and exceptions need a structured payload).
+	 * 
+	 * @param logLevel Log level
+	 * @return True if the payload may be a text, false otherwise
+	 */
+	private static boolean isStringPayload(FireP4jLogLevel logLevel) {
+		logLevel != FireP4jLogLevel.TABLE && logLevel != FireP4jLogLevel.TRACE && logLevel != FireP4jLogLevel.EXCEPTION
+	}
+	
+	/**
+	 * This method writes the summary that replaces a payload exceeding the global memory budget.
+	 * 
+	 * @param out String builder to write to
+	 * @param payloadLength Length of the replaced payload (-1 if it was not serialized)
+	 */
+	private static void writeOmittedPayload(StringBuilder out, int payloadLength) {
+		JSONWriter.writeString(out, (payloadLength >= 0 ? "Payload of ${payloadLength} characters" : "Payload") +
+			" omitted: FireP4j memory budget of ${globalMemoryBudget.maxBytes} bytes exceeded")
+	}
+	
+	/**
+	 * This method returns whether messages of the given log level may be collapsed (groups and dumps may not).
+	 * 
+	 * @param logLevel Log level
+	 * @return True if repeated messages of the log level may be collapsed, false otherwise
+	 */
+	private static boolean isCollapsible(FireP4jLogLevel logLevel) {
+		logLevel != FireP4jLogLevel.GROUP_START && logLevel != FireP4jLogLevel.COLLAPSED_GROUP_START &&
+			logLevel != FireP4jLogLevel.GROUP_END && logLevel != FireP4jLogLevel.DUMP
+	}
+	
+	/**
+	 * This method counts the repeat of a recent message and renders the repeat summary.
+	 * The summary is put after the first repeat and is updated with every further repeat.
+	 * 
+	 * @param hash Hash of the header body
+	 * @param budgetShare Share of the header budget the message may use
+	 * @return True if the message was a repeat (and must not be output), false otherwise
+	 */
+	private boolean collapseRepeat(long hash, int budgetShare) {
+		MessageRepeats.Repeat repeat = messageRepeats.repeat(hash)
+		if (repeat == null) {
+			return false
+		}
+		
+		String text = "Message \"${repeat.description}\" repeated ${repeat.count} more " + (repeat.count == 1 ? "time" : "times")
+		
+		// Execution is protected by a lock
+		setHeaderLock.lock()
+		
+		try {
+			// A new summary needs a header index within the limit and room in the header budget
+			if (repeat.summaryIndex == 0) {
+				if (currentLevel > maxLevel) {
+					return true
+				}
+				if (!headerBudget.reserve(WildfireHeaders.getByteLength(text) + chunkOverhead * 4, budgetShare)) {
+					headerBudget.drop(0)
+					return true
+				}
+			}
+			
+			// The summary header is set (replacing the previous summary)
+			repeat.summaryIndex = setSummaryHeader(repeat.summaryIndex, FireP4jLogLevel.INFO, text)
+		} finally {
+			// The lock is removed
+			setHeaderLock.unlock()
+		}
+		true
+	}
+	
+	/**
+	 * This method builds the short description of a message used in the repeat summary.
+	 * 
+	 * @param object Logged object
+	 * @param label Label of the object
+	 * @return Description (the label, the text or the class name of the object)
+	 */
+	private static String describeMessage(Serializable object, String label) {
+		String description = label
+		if (description == null) {
+			description = object instanceof CharSequence || object instanceof Number || object instanceof Boolean ?
+				String.valueOf(object) : object != null ? object.getClass().getSimpleName() : "null"
+		}
+		
+		// Long descriptions are cut
+		description.length() > maxRepeatDescriptionLength ? description.substring(0, maxRepeatDescriptionLength) + "..." : description
+	}
+	
+	/**
+	 * This method returns the share of the header budget (in percent) that messages of the given log level may use.
+	 * 
+	 * @param logLevel Log level
+	 * @return Share of the header budget
+	 */
+	private static int getBudgetShare(FireP4jLogLevel logLevel) {
+		switch (logLevel) {
+			case FireP4jLogLevel.LOG:
+			case FireP4jLogLevel.TABLE:
+			case FireP4jLogLevel.TRACE:
+			case FireP4jLogLevel.DUMP:
+				// Debug output is dropped first
+				return 60
+			case FireP4jLogLevel.INFO:
+				return 80
+			default:
+				// Warnings, errors, exceptions and groups may use the whole budget
+				return 100
+		}
+	}
+	
+	/**
+	 * This method estimates the header bytes needed for rendering the given header body.
+	 * 
+	 * @param config Configuration snapshot containing the chunk size
+	 * @param headerBody Complete header body
+	 * @return Estimated header bytes
+	 */
+	private static int estimateHeaderBytes(FireP4jConfig config, StringBuilder headerBody) {
+		int bytes = WildfireHeaders.getByteLength(headerBody)
+		int chunks = (bytes + config.chunkSize - 1).intdiv(config.chunkSize)
+		
+		bytes + chunks * chunkOverhead
+	}
+	
+	/**
+	 * This method records a dropped message and renders the summary of the dropped messages.
+	 * The summary is put at the position of the first dropped message and is updated with every further dropped message.
+	 * 
+	 * @param bytes Header bytes of the dropped message (0 if it was not serialized)
+	 */
+	private void dropMessage(int bytes) {
+		headerBudget.drop(bytes)
+		
+		// Execution is protected by a lock
+		setHeaderLock.lock()
+		
+		try {
+			// The summary is shorter than the bytes reserved for it
+			dropSummaryIndex = setSummaryHeader(dropSummaryIndex, FireP4jLogLevel.WARN, "Header budget of ${headerBudget.maxBytes} " +
+				"bytes exceeded: ${headerBudget.droppedCount} messages dropped (${headerBudget.droppedBytes} bytes)")
+		} finally {
+			// The lock is removed
+			setHeaderLock.unlock()
+		}
+	}
+	
+	/**
+	 * This method checks whether the message limits of the request or the global rate limit are exceeded
+	 * (without using them up).
+	 * 
+	 * @return True if a message would be suppressed, false otherwise
+	 */
+	private boolean isLimitReached() {
+		// Execution is protected by a lock
+		setHeaderLock.lock()
+		
+		try {
+			if (messageCount >= maxMessages || currentLevel > maxLevel) {
+				return true
+			}
+		} finally {
+			// The lock is removed
+			setHeaderLock.unlock()
+		}
+		
+		!globalRateLimiter.hasPermit()
+	}
+	
+	/**
+	 * This method counts a message of the request that is output and takes a permit of the global rate limit.
+	 * 
+	 * @return True if the message may be output, false if it should be suppressed
+	 */
+	private boolean acquireMessage() {
+		// Execution is protected by a lock
+		setHeaderLock.lock()
+		
+		try {
+			// The limits of the request are checked first (they do not use up the global rate)
+			if (messageCount >= maxMessages || currentLevel > maxLevel) {
+				return false
+			}
+			messageCount++
 		} finally {
-			// The lock is always removed
-			jsonLock.readLock().unlock()
+			// The lock is removed
+			setHeaderLock.unlock()
 		}
 		
-		// Header body is chunked if got too big
-	  	LinkedList<String> parts = chunkHeaderBody(headerBody)
-	  	
-	  	// The different header chunks are rendered
-	  	renderHeaderChunks(parts, headerBody.length(), logLevel)
+		globalRateLimiter.tryAcquire()
+	}
+	
+	/**
+	 * This method records a suppressed message and renders the summary of the suppressed messages.
+	 * The summary is put at the position of the first suppressed message and is updated with every further one.
+	 */
+	private void suppressMessage() {
+		// Execution is protected by a lock
+		setHeaderLock.lock()
+		
+		try {
+			suppressedCount++
+			suppressedSummaryIndex = setSummaryHeader(suppressedSummaryIndex, FireP4jLogLevel.WARN,
+				"Message limits exceeded: ${suppressedCount} messages suppressed")
+		} finally {
+			// The lock is removed
+			setHeaderLock.unlock()
+		}
+	}
+	
+	/**
+	 * This method renders a new summary message (it is not subject to the message limits).
+	 * 
+	 * @param logLevel Log level of the summary
+	 * @param text Summary text
+	 */
+	private void renderSummary(FireP4jLogLevel logLevel, String text) {
+		// Execution is protected by a lock
+		setHeaderLock.lock()
+		
+		try {
+			setSummaryHeader(0, logLevel, text)
+		} finally {
+			// The lock is removed
+			setHeaderLock.unlock()
+		}
+	}
+	
+	/**
+	 * This method sets the header of a summary message (the header lock must be held by the caller).
+	 * A new summary takes the next header index, an existing summary is replaced.
+	 * 
+	 * @param summaryIndex Header index of the summary (0 for a new summary)
+	 * @param logLevel Log level of the summary
+	 * @param text Summary text
+	 * @return Header index of the summary (0 if there is no header index left for a new summary)
+	 */
+	private int setSummaryHeader(int summaryIndex, FireP4jLogLevel logLevel, String text) {
+		// After the instance was released or the response was committed, the response is not written anymore
+		if (!isWritable()) {
+			return summaryIndex
+		}
+		
+	  	// The protocol HTTP headers are set (stating the protocol versions)
+		setInitialHeaders(logLevel)
+		
+		// The summary header index is taken at the first call (the reserved indexes are used if necessary)
+		if (summaryIndex == 0) {
+			if (currentLevel >= maxHeaderIndex) {
+				return 0
+			}
+			summaryIndex = currentLevel
+			increaseCurrentLevel()
+			response.setHeader("X-Wf-1-Index", (currentLevel - 1) as String)
+		}
+		
+		// The summary message is built
+		StringBuilder summary = new StringBuilder(text.length() + 64)
+		MessageEncoder.beginMessage(summary, logLevel.name())
+		MessageEncoder.writeLabel(summary, "FireP4j")
+		MessageEncoder.beginPayload(summary)
+		JSONWriter.writeString(summary, text)
+		MessageEncoder.endMessage(summary)
+		
+		// The summary header is set (replacing the previous summary)
+		response.setHeader(WildfireHeaders.getMessageHeaderName(1, summaryIndex), "${summary.length()}|${summary}|")
+		summaryIndex
 	}
 	
 	/**
@@ -886,348 +2186,235 @@ public class FireP4j {
 	}
 	
 	/**
-	 * This method returns all the entries that are to be rendered in the header body index.
+	 * This method writes the header body index (log level, file properties, label, ...) and starts the payload.
 	 * 
+	 * @param config Configuration snapshot
+	 * @param out String builder to write to
 	 * @param label Label of the output
 	 * @param logLevel Log level that is used
-	 * @return HashMap containing all the header body entries as key value pairs
-	 */
-	private HashMap<String, String> getHeaderBodyTitleEntries(String label, FireP4jLogLevel logLevel) {
-		String fileName = ""
-		int lineNumber = 0
-		
-		// If line numbers and file names should be included
-		def foundFile = false
-		if (includeLineNumbers) {
-			String className = "";
-			int i = 4;
-			def currentElement = null;
-			// For all the stack trace elements
-			for (; i < Thread.currentThread().getStackTrace().length; i++) {
-				// Class name, file name and line numbers are determined for the current stack trace element
-				currentElement = Thread.currentThread().getStackTrace()[i]
-				className = currentElement.getClassName()				
-				lineNumber = currentElement.getLineNumber()
-				fileName = currentElement.getFileName()
-				
-				// If the class name is not excluded by trace path excludes, it is taken
-				if (isValidClassName(className) && lineNumber != -1) {
-					foundFile = true
-					break
-				}
-			}
-		}
-		
-		// The "real" log level is determined (the collapsed group start level is transformed to a "normal" group start level)
+	 * @param buffered Buffered message containing the call site (null if the call site is determined now)
+	 */
+	private void writeHeaderBodyIndex(FireP4jConfig config, StringBuilder out, String label, FireP4jLogLevel logLevel, BufferedMessage buffered) {
+		// The "real" log level is written (the collapsed group start level is transformed to a "normal" group start level)
 		def realLogLevel = logLevel
 		if (logLevel == FireP4jLogLevel.COLLAPSED_GROUP_START) {
 			realLogLevel = FireP4jLogLevel.GROUP_START
 		}
+		MessageEncoder.beginMessage(out, realLogLevel.name())
 		
-		HashMap<String, String> headerTitleEntries = new HashMap<String, String>()
-	  	
-		// The header body indexes are set
-		
-		// log level
-		headerTitleEntries["Type"] = realLogLevel as String
-	  	
-		// group collapse state
-		if (logLevel == FireP4jLogLevel.COLLAPSED_GROUP_START) {
-			headerTitleEntries["Collapsed"] = "true"
+		// Line numbers and file names (if they should be included and the calling stack frame is accepted by the trace filters)
+		if (config.includeLineNumbers) {
+			StackWalker.StackFrame callerFrame = buffered != null ? buffered.callerFrame : findCallerFrame(config)
+			if (callerFrame != null) {
+				MessageEncoder.writeLocation(out, callerFrame.getFileName(), callerFrame.getLineNumber())
+			}
 		}
 		
-		// Line numbers and file names
-	  	if (includeLineNumbers && foundFile) {
-	  		headerTitleEntries["File"] = fileName
-	  		headerTitleEntries["Line"] = lineNumber as String
-	  	}
-	  	
 	  	// Label of the output
 	  	if (label != null && logLevel != FireP4jLogLevel.TRACE && logLevel != FireP4jLogLevel.EXCEPTION) {
-	  		headerTitleEntries["Label"] = label
+	  		MessageEncoder.writeLabel(out, label)
 	  	}
-	  	
-	  	headerTitleEntries		
+		
+		// group collapse state
+		if (logLevel == FireP4jLogLevel.COLLAPSED_GROUP_START) {
+			MessageEncoder.writeCollapsed(out)
+		}
+		
+		MessageEncoder.beginPayload(out)
 	}
 	
 	/**
-	 * This method builds the header body index from a HashMap containing the required values as key value pairs.
+	 * This method determines the stack frame that called FireP4j. The stack is walked lazily, so only the frames up to
+	 * the caller are inspected (instead of capturing the whole stack trace).
 	 * 
-	 * @param entries HashMap containing the required values
-	 * @return Header body index
+	 * @param config Configuration snapshot containing the trace filters
+	 * @return First stack frame outside FireP4j that is accepted by the trace filters (null if there is none)
 	 */
-	private String buildHeaderBodyIndex(HashMap<String, String> entries) {
-		Iterator<String> iterator = entries.keySet().iterator()
-		
-		// The header body index is initialized
-		String headerBodyIndex = "{";	
-		
-		// For each key value pair
-		entries.each { key, value ->
-			// Key and value are JSON encoded
-			key = jsonUtils.serialize(key)
-			value = jsonUtils.serialize(value)	
-			
-			// Number values are converted to "real" numbers
-			if (value.matches(/^"[0-9]+"?/)) {
-				value = value.replace(/"/, "")
+	private StackWalker.StackFrame findCallerFrame(FireP4jConfig config) {
+		stackWalker.walk({ Stream<StackWalker.StackFrame> frames ->
+			frames.filter({ StackWalker.StackFrame frame ->
+				String className = frame.getClassName()
+				
+				// Library and logging framework frames are skipped (so a record forwarded by a logging bridge points
+				// to the application), the first frame the trace filters accept is taken
+				!isLibraryClass(className) && isValidClassName(config, className) && frame.getLineNumber() != -1
+			} as Predicate).findFirst().orElse(null)
+		} as Function)
+	}
+	
+	/**
+	 * This method checks whether a class belongs to the library or to a logging framework (its frames are never
+	 * the caller of a message).
+	 * 
+	 * @param className Class name of the stack frame
+	 * @return True if the class belongs to the library or a logging framework, false otherwise
+	 */
+	private static boolean isLibraryClass(String className) {
+		for (String name : libraryClassNames) {
+			if (className == name || className.startsWith(name + '$')) {
+				return true
 			}
-			
-			// The entry is added to the header body index
-			headerBodyIndex +=  "${key}:${value},"
 		}
-		// The last comma is removed from the header body index
-		headerBodyIndex = headerBodyIndex.substring(0, headerBodyIndex.size() - 1)
-		
-		// The header body index is ended
-		headerBodyIndex += "}"
-		
-		headerBodyIndex
+		for (String packageName : skippedPackages) {
+			if (className.startsWith(packageName)) {
+				return true
+			}
+		}
+		false
+	}
+	
+	/**
+	 * This method captures the trace elements of a buffered trace message. Only the frames that are output are
+	 * converted (the ones the trace filters accept, up to the maximum trace count), so a trace that is dropped
+	 * later costs little.
+	 * 
+	 * @param config Configuration snapshot containing the trace filters and the maximum trace count
+	 * @return Trace elements
+	 */
+	private StackTraceElement[] captureTrace(FireP4jConfig config) {
+		stackWalker.walk({ Stream<StackWalker.StackFrame> frames ->
+			frames.filter({ StackWalker.StackFrame frame ->
+				String className = frame.getClassName()
+				!isLibraryClass(className) && isValidClassName(config, className) && frame.getLineNumber() != -1
+			} as Predicate).limit(config.maxTraceCount).map({ StackWalker.StackFrame frame ->
+				frame.toStackTraceElement()
+			} as Function).toArray({ int size -> new StackTraceElement[size] } as IntFunction)
+		} as Function)
 	}
 	
 	/**
-	 * This method determines the header body payload (main output).
+	 * This method writes the header body payload (main output).
 	 * 
+	 * @param config Configuration snapshot
+	 * @param out String builder to write to
 	 * @param label Label of the object
 	 * @param object Object that should be output
 	 * @param logLevel Log level that is used
-	 * @return Header body payload
+	 * @param buffered Buffered message containing the stack trace (null if the stack trace is determined now)
+	 * @return False if there is nothing to output (for a trace or exception without trace elements), true otherwise
 	 */
-	private String getHeaderBodyPayload(String label, Object object, FireP4jLogLevel logLevel) {
-		String payload = "";
-		
+	private boolean writeHeaderBodyPayload(FireP4jConfig config, StringBuilder out, String label, Object object, FireP4jLogLevel logLevel, BufferedMessage buffered) {
 		if (logLevel == FireP4jLogLevel.LOG ||
 		    logLevel == FireP4jLogLevel.INFO ||
 		    logLevel == FireP4jLogLevel.WARN ||
 		    logLevel == FireP4jLogLevel.ERROR ||
 		    logLevel == FireP4jLogLevel.DUMP) {
 			// For LOG, INFO, WARN, ERROR and DUMP, the object is serialized using JSON utils			
-	  		payload = jsonUtils.serialize(object)
+	  		config.jsonUtils.serialize(object, out)
 	  	} else if (logLevel == FireP4jLogLevel.GROUP_START || logLevel == FireP4jLogLevel.COLLAPSED_GROUP_START || logLevel == FireP4jLogLevel.GROUP_END) {
 	  		// For GROUP log levels, no payload is specified
-	  		payload = "null"
+	  		out.append("null")
 		} else if (logLevel == FireP4jLogLevel.TABLE) {
-			// For the TABLE log level, the given table is serialized
+			// For the TABLE log level, the given table is serialized (directly into the header body)
 	  		Table table = (Table)object	
-	  		payload = table.serialize(jsonUtils)
+	  		table.serialize(config.jsonUtils, out)
 	  	} else if (logLevel == FireP4jLogLevel.TRACE || logLevel == FireP4jLogLevel.EXCEPTION) {
-	  		// For trace and exception log levels, the current trace is determined
-	  		payload = getTrace(label, object, logLevel)
+	  		// For trace and exception log levels, the current trace is written
+	  		return writeTrace(config, out, label, object, logLevel, buffered)
 	  	}
 		
-		payload
+		true
 	}
 	
 	/**
-	 * This method renders the output for exception and trace log levels.
+	 * This method writes the output for exception and trace log levels.
 	 * 
+	 * @param config Configuration snapshot
+	 * @param out String builder to write to
 	 * @param label Label of the output (not used for exception output)
 	 * @param object Exception to output (not used for trace output)
 	 * @param logLevel log level to use
-	 * @return
+	 * @param buffered Buffered message containing the stack trace (null if the stack trace is determined now)
+	 * @return True if any trace element was output, false otherwise
 	 */
-	private String getTrace(String label, Object object, FireP4jLogLevel logLevel) {
-		def stackTrace = null
-		StackTraceElement traceElement = null
-		      
-		String fileName = ""
-		String className = ""
-		String methodName = ""
-		int lineNumber = 0
-		String message = ""
-		String type = ""
-		Throwable raisedThrowable = null
-		
-		// Stack trace and label are determined
+	private boolean writeTrace(FireP4jConfig config, StringBuilder out, String label, Object object, FireP4jLogLevel logLevel, BufferedMessage buffered) {
+		// The trace is encoded using the trace filters of the configuration snapshot
+		TraceEncoder encoder = new TraceEncoder(config.maxTraceCount, config.maxCauseCount,
+			{ String className -> isValidClassName(config, className) })
+		
 		if (logLevel == FireP4jLogLevel.EXCEPTION) {
-			// For an exception output, the exception stack trace and exception message are taken
-			raisedThrowable = (Throwable)object	
-			
-			stackTrace = raisedThrowable.getStackTrace()
-			message = raisedThrowable.getMessage()
+			// For an exception output, the exception stack trace, exception message and causes are taken
+			encoder.encodeException(out, (Throwable)object, 1)
 		} else {
-			// For a trace output, the current stack trace and the label given are taken
-			stackTrace = Thread.currentThread().getStackTrace()
-			message = label
-		}
-		
-		int i = 1
-		int stackTraceCount = 0
-		
-		// The output is initialized
-		String trace = "{"
-		
-		// For all the elements in the stack trace
-		while (i < stackTrace.length && stackTraceCount < maxTraceCount) {
-			// Current file name, class name, method name and line number are determined
-			traceElement = stackTrace[i]			                          
-			fileName = traceElement.getFileName()
-			className = traceElement.getClassName()
-			methodName = traceElement.getMethodName()
-			lineNumber = traceElement.getLineNumber()
-			type = "."
-			i++
-			
-			// If the trace path is excluded for that class, it is not integrated in the output
-			if (!isValidClassName(className) || lineNumber == -1) {
-				continue;
-			}
-			
-			// The element is integrated into the output
-			
-			stackTraceCount++
-			
-			if (stackTraceCount == 1) {
-				// The first stack trace element looks different than the others
-				
-				// For exceptions, the first element is a throw statement (and the class name is refined)
-				if (logLevel == FireP4jLogLevel.EXCEPTION) {
-					className = raisedThrowable.getClass().toString().replace("class ", "").replace("java.lang.", "")
-					type = "throw"
-				}
-				
-				// The output is set
-				trace +=  "\"Class\":\"${className}\","
-				trace += "\"Type\":\"${type}\","
-				trace += "\"Function\":\"${methodName}\","
-				trace += "\"Message\":\"${message}\","
-				trace += "\"File\":\"${fileName}\","
-				trace += "\"Line\":${lineNumber},"
-				trace += "\"Args\":[],"
-				trace += "\"Trace\":["
+			// For a trace output, the current stack trace and the label given are taken (without the element of
+			// the getStackTrace() call, buffered traces were captured without it)
+			if (buffered != null) {
+				encoder.encodeTrace(out, buffered.stackTrace, 0, label)
 			} else {
-				// Commas are added as stack trace separators
-				if (stackTraceCount > 2) {
-					trace += ","
-				}
-				// The output is set
-				trace += "{"		
-				trace += "\"file\":\"${fileName}\","
-				trace += "\"line\":${lineNumber},"
-				trace += "\"function\":\"${methodName}\","
-				trace += "\"class\":\"${className}\","
-				trace += "\"object\": \"\","
-				trace += "\"type\":\".\","
-				trace += "\"args\":[]"
-				trace += "}"
+				encoder.encodeTrace(out, Thread.currentThread().getStackTrace(), 1, label)
 			}
 		}
-		// The stack trace end character is set (if there was a stack trace)
-		if (stackTraceCount > 0) {
-			trace += "]"
-		}
-		
-		// The output is ended
-		trace += "}"
-			
-		trace
-	}
-	
-	/**
-	 * This method creates the header body for a dump output.
-	 * 
-	 * @param label Label of the output
-	 * @param payloadString Payload string
-	 * @return Complete header body
-	 */
-	private String getDumpHeaderBody(String label, String payloadString) {
-		// The label of the output is serialized
-		String labelString = jsonUtils.serialize(label)
-		// The complete header body is determined
-		String headerBody = "{${labelString}:${payloadString}}"
-		
-		headerBody
 	}
 	
-	
 	/**
-	 * This method chunks the complete header body into parts.
+	 * This method renders the header body in chunks. The chunks are copied from the header body buffer directly
+	 * into the header values (no intermediate chunk strings are created).
 	 * 
+	 * @param config Configuration snapshot containing the chunk size
 	 * @param headerBody Complete header body
-	 * @return List of the header chunks
-	 */
-	private LinkedList<String> chunkHeaderBody(String headerBody) {
-	  	LinkedList<String> parts = new LinkedList<String>()		
-	  	// At first, the complete header body remains
-	  	String remainingPart = headerBody
-	  	
-	  	// While there is still something in the remaining header body
-	  	while (remainingPart.length() > 0) {	  		
-	  		if (remainingPart.length() > chunkSize) {
-	  			// If there are more characters in the remaining header body than are allowed
-	  			
-	  			// A new header chunk is added to the chunks and the remaining part is calculated
-	  			parts.add(remainingPart.substring(0, chunkSize))
-	  			remainingPart = remainingPart.substring(chunkSize)
-	  		} else {
-	  			// If there are less characters in the remaining header body than are allowed
-	  			
-	  			// The remaining header body is rendered as one chunk
-	  			parts.add(remainingPart)
-	  			remainingPart = ""
-	  		}
-	  	}
-	  	
-	  	parts
-	}
-	
-	/**
-	 * This method renders every header body chunk.
-	 * 
-	 * @param headerTitle Title of the header body
-	 * @param parts Header body chunks
-	 * @param messageLength Length of the complete header body
 	 * @param logLevel Log level to use
+	 * @return Number of chunks written (0 if the response cannot be written anymore, -1 if the header body would exceed
+	 * the header index limit)
 	 */
-	private void renderHeaderChunks(LinkedList<String> parts, int messageLength, FireP4jLogLevel logLevel) {
+	private int renderHeaderChunks(FireP4jConfig config, StringBuilder headerBody, FireP4jLogLevel logLevel) {
+		// For dump outputs, the header name is different (for the first chunk)
+		int structure = logLevel == FireP4jLogLevel.DUMP ? 2 : 1
+		int messageLength = headerBody.length()
+		
 		// Execution is protected by a lock
 		setHeaderLock.lock()
 		
-	  	String completeHeader = ""
-		
-	  	// The first chunk header title and body is set
-		String headerTitle = buildHeaderTitle(logLevel)
-	  	completeHeader = "${messageLength}|${parts.get(0)}|" + ((parts.size() > 1) ? "\\" : "")
-	  	// The header is added to the HttpServletResponse
-	  	response.setHeader(headerTitle, completeHeader)
-	  	// The current header index is increased
-	  	increaseCurrentLevel()
-
-	  	// For all the remaining chunks
-	  	for (int i = 1; i < parts.size(); i++) {
-		  	// The chunk header title and body is set
-	  		headerTitle = buildHeaderTitle()
-	  		completeHeader = "|${parts.get(i)}|" + ((parts.size() > i + 1) ? "\\" : "")
-	  		// The header is added to the HttpServletResponse
-	  		response.setHeader(headerTitle,  completeHeader)
-	  		// The current header index is increased
-	  		increaseCurrentLevel()
-	  	}
-	  	
-	  	// The latest header index is set
-		response.setHeader("X-Wf-1-Index", (currentLevel - 1) as String)
-		
-		// The lock is removed
-		setHeaderLock.unlock()
+		try {
+			// After the instance was released or the response was committed, the response is not written anymore
+			// (the message is dropped silently)
+			if (!isWritable()) {
+				return 0
+			}
+			
+		  	// The protocol HTTP headers are set (stating the protocol versions) 
+			setInitialHeaders(logLevel)
+			
+			// Near the header index limit, the chunks are counted first (a message has at most one chunk per character)
+			if (currentLevel + messageLength - 1 > maxLevel &&
+					currentLevel + WildfireHeaders.getChunkCount(headerBody, config.chunkSize) - 1 > maxLevel) {
+				return -1
+			}
+			
+			int firstLevel = currentLevel
+			int start = 0
+			while (start < messageLength) {
+				// The chunk is the longest part of the remaining header body that fits into a header
+				int end = WildfireHeaders.getChunkEnd(headerBody, start, config.chunkSize)
+				
+				// The chunk header body is built ("length|chunk|\" for the first, "|chunk|\" for further chunks, the chunk is copied once)
+				String chunk = (start == 0 ? messageLength as String : "") + '|' + headerBody.substring(start, end) + '|' +
+					(end < messageLength ? '\\' : '')
+				
+				// The header is added to the HttpServletResponse
+				response.setHeader(WildfireHeaders.getMessageHeaderName(start == 0 ? structure : 1, currentLevel), chunk)
+				// The current header index is increased
+				increaseCurrentLevel()
+				
+				start = end
+			}
+		  	
+		  	// The latest header index is set
+			response.setHeader("X-Wf-1-Index", (currentLevel - 1) as String)
+			currentLevel - firstLevel
+		} finally {
+			// The lock is removed
+			setHeaderLock.unlock()
+		}
 	}
 	
 	/**
-	 * This method returns the current header title.
+	 * This method checks whether the response headers can still be written (it is called under the header lock).
+	 * Messages of all threads are written as long as the instance was not released and the response is not committed.
 	 * 
-	 * @param level Log level that is used
-	 * @return Header title
+	 * @return True if the response headers can be written, false otherwise
 	 */
-	private String buildHeaderTitle(FireP4jLogLevel level) {
-		def logLevelIndex = 1
-		// For dump outputs, the header title needs to be different
-		if (level == FireP4jLogLevel.DUMP) {
-			logLevelIndex = 2
-		}
-		
-		// The header title is determined
-		String title = "X-Wf-1-${logLevelIndex}-1-${currentLevel}"
-		
-		title
+	private boolean isWritable() {
+		!closed && !response.isCommitted()
 	}
 	
 	/**
@@ -1245,4 +2432,60 @@ public class FireP4j {
 		// The current index is set
 		currentLevel = level
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * This class represents a message that is buffered until the sampling decision is made (tail sampling).
+	 * The object is not serialized before the message is output, only the call site is determined when it is logged.
+	 */
+	private static class BufferedMessage {
+		/**
+		 * Object to log (replaced by the built object when a lazy object is built for the sampling decision)
+		 */
+		Serializable object
+		
+		/**
+		 * Label of the object
+		 */
+		final String label
+		
+		/**
+		 * Output log level (changed to exception level if a lazy object turns out to be an exception)
+		 */
+		FireP4jLogLevel logLevel
+		
+		/**
+		 * Configuration snapshot at the time the message was logged
+		 */
+		final FireP4jConfig config
+		
+		/**
+		 * Calling stack frame (null if there is none or line numbers are not output)
+		 */
+		final StackWalker.StackFrame callerFrame
+		
+		/**
+		 * Trace elements of the logging thread that are output (for traces only)
+		 */
+		final StackTraceElement[] stackTrace
+		
+		/**
+		 * This constructor sets the message values.
+		 * 
+		 * @param object Object to log
+		 * @param label Label of the object
+		 * @param logLevel Output log level
+		 * @param config Configuration snapshot
+		 * @param callerFrame Calling stack frame
+		 * @param stackTrace Trace elements of the logging thread
+		 */
+		BufferedMessage(Serializable object, String label, FireP4jLogLevel logLevel, FireP4jConfig config,
+				StackWalker.StackFrame callerFrame, StackTraceElement[] stackTrace) {
+			this.object = object
+			this.label = label
+			this.logLevel = logLevel
+			this.config = config
+			this.callerFrame = callerFrame
+			this.stackTrace = stackTrace
+		}
+	}
+}
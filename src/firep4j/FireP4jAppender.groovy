@@ -0,0 +1,195 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j
+
+import java.util.function.Supplier
+
+import firep4j.FireP4j.FireP4jLogLevel
+
+/**
+ * This class forwards the records of SLF4J style logging frameworks to the FireP4j instance of the current request
+ * (@see FireP4jContext). It does not depend on a logging framework: a Logback appender simply passes its events
+ * to {@link #doAppend(Object)}, other frameworks call {@link #append(String, String, String, Object[], Throwable)}.<br>
+ * Records below the threshold and records of threads without an active FireP4j instance are ignored before the
+ * message is formatted (the message is only formatted if it is actually output).
+ *
+ * @author Thomas Endres
+ */
+public class FireP4jAppender {
+	/**
+	 * Minimum FireP4j log level of the records that are forwarded
+	 */
+	private volatile FireP4jLogLevel threshold = FireP4jLogLevel.LOG
+
+	/**
+	 * This method sets the minimum level of the records that are forwarded.
+	 *
+	 * @param level Level name (e.g. "DEBUG", "INFO", "WARN" or "ERROR")
+	 */
+	public void setThreshold(String level) {
+		threshold = getLevel(level)
+	}
+
+	/**
+	 * This method returns the minimum level of the records that are forwarded.
+	 *
+	 * @return Name of the minimum FireP4j log level ("LOG", "INFO", "WARN" or "ERROR")
+	 */
+	public String getThreshold() {
+		threshold.name()
+	}
+
+	/**
+	 * This method checks whether records of the given level would be forwarded on the current thread.
+	 *
+	 * @param level Level name
+	 * @return True if the records are forwarded, false otherwise
+	 */
+	public boolean isEnabled(String level) {
+		getLevel(level) >= threshold && FireP4jContext.current().isActive()
+	}
+
+	/**
+	 * This method forwards a Logback logging event (or any event providing the level, the logger name and the
+	 * formatted message the way Logback's <code>ILoggingEvent</code> does).
+	 *
+	 * @param event Logging event
+	 */
+	public void doAppend(Object event) {
+		// Without an active instance, nothing is done
+		FireP4j fireP4j = FireP4jContext.current()
+		if (!fireP4j.isActive()) {
+			return
+		}
+
+		// The level is checked before the message is formatted
+		FireP4jLogLevel level = getLevel(event.getLevel().toString())
+		if (level < threshold) {
+			return
+		}
+
+		// The throwable is only available from Logback's own throwable proxy
+		Object throwableProxy = event.getThrowableProxy()
+		Throwable throwable = throwableProxy != null && throwableProxy.respondsTo("getThrowable") ? throwableProxy.getThrowable() : null
+
+		forward(fireP4j, level, LazyObject.of({ event.getFormattedMessage() } as Supplier), event.getLoggerName(), throwable)
+	}
+
+	/**
+	 * This method forwards a record with an SLF4J style message (the arguments replace the "{}" placeholders).
+	 *
+	 * @param level Level name (e.g. "DEBUG", "INFO", "WARN" or "ERROR")
+	 * @param loggerName Name of the logger (used as label)
+	 * @param message Message pattern
+	 * @param arguments Arguments of the message pattern (may be null)
+	 * @param throwable Exception of the record (may be null)
+	 */
+	public void append(String level, String loggerName, String message, Object[] arguments, Throwable throwable) {
+		// Without an active instance, nothing is done
+		FireP4j fireP4j = FireP4jContext.current()
+		if (!fireP4j.isActive()) {
+			return
+		}
+
+		// The level is checked before the message is formatted
+		FireP4jLogLevel logLevel = getLevel(level)
+		if (logLevel < threshold) {
+			return
+		}
+
+		forward(fireP4j, logLevel, LazyObject.of({ format(message, arguments) } as Supplier), loggerName, throwable)
+	}
+
+	/**
+	 * This method outputs a record with the FireP4j log level matching its level. The exception of the record
+	 * is output as a separate exception message.
+	 *
+	 * @param fireP4j FireP4j instance of the request
+	 * @param level FireP4j log level of the record (LOG, INFO, WARN or ERROR)
+	 * @param message Lazy object formatting the message
+	 * @param label Label of the message (the logger name)
+	 * @param throwable Exception of the record (may be null)
+	 */
+	static void forward(FireP4j fireP4j, FireP4jLogLevel level, LazyObject message, String label, Throwable throwable) {
+		switch (level) {
+			case FireP4jLogLevel.ERROR:
+				fireP4j.error(message, label)
+				break
+			case FireP4jLogLevel.WARN:
+				fireP4j.warn(message, label)
+				break
+			case FireP4jLogLevel.INFO:
+				fireP4j.info(message, label)
+				break
+			default:
+				fireP4j.log(message, label)
+		}
+
+		if (throwable != null) {
+			fireP4j.log(throwable, label)
+		}
+	}
+
+	/**
+	 * This method maps the name of a logging framework level to the FireP4j log level of the records.
+	 *
+	 * @param name Level name (the names of SLF4J, Log4j and java.util.logging are known)
+	 * @return FireP4j log level (unknown names are logged with log level LOG)
+	 */
+	static FireP4jLogLevel getLevel(String name) {
+		switch (name) {
+			case "ERROR":
+			case "FATAL":
+			case "SEVERE":
+				return FireP4jLogLevel.ERROR
+			case "WARN":
+			case "WARNING":
+				return FireP4jLogLevel.WARN
+			case "INFO":
+				return FireP4jLogLevel.INFO
+			default:
+				return FireP4jLogLevel.LOG
+		}
+	}
+
+	/**
+	 * This method replaces the "{}" placeholders of an SLF4J style message with the arguments.
+	 * Placeholders without an argument are kept.
+	 *
+	 * @param message Message pattern
+	 * @param arguments Arguments (may be null)
+	 * @return Formatted message
+	 */
+	static String format(String message, Object[] arguments) {
+		if (message == null || arguments == null || arguments.length == 0) {
+			return message
+		}
+
+		StringBuilder formatted = new StringBuilder(message.length() + 16 * arguments.length)
+		int last = 0
+		int argument = 0
+		int placeholder = message.indexOf("{}")
+
+		// The text between the placeholders is copied in one go
+		while (placeholder != -1 && argument < arguments.length) {
+			formatted.append(message, last, placeholder).append(String.valueOf(arguments[argument++]))
+			last = placeholder + 2
+			placeholder = message.indexOf("{}", last)
+		}
+		formatted.append(message, last, message.length())
+		formatted.toString()
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j
+
+import java.util.ArrayList
+import java.util.Collections
+import java.util.List
+
+import firep4j.profile.CompiledProfile
+import firep4j.tools.Filter
+import firep4j.tools.JSONUtils
+import firep4j.tools.LoadMonitor
+import firep4j.tools.TraceFilterMatcher
+
+/**
+ * This class contains the output settings of a FireP4j instance. It is immutable: log calls read the current
+ * configuration without locking, and every change creates a new configuration that replaces the old one.
+ *
+ * @author Thomas Endres
+ */
+final class FireP4jConfig {
+	/**
+	 * Max depth for debug traces
+	 */
+	private final int maxTraceCount
+
+	/**
+	 * Max number of causes output for an exception
+	 */
+	private final int maxCauseCount
+
+	/**
+	 * Max chunk size (max UTF-8 byte length of a message header)
+	 */
+	private final int chunkSize
+
+	/**
+	 * Flag indicating whether line numbers should be output
+	 */
+	private final boolean includeLineNumbers
+
+	/**
+	 * Filter criteria for trace and class name output (unmodifiable)
+	 */
+	private final List<Filter> traceFilters
+
+	/**
+	 * Matcher compiled from the trace filters
+	 */
+	private final TraceFilterMatcher traceFilterMatcher
+
+	/**
+	 * The JSON utility class instance (it is never changed after the configuration was created)
+	 */
+	private final JSONUtils jsonUtils
+
+	/**
+	 * Configurations with reduced detail derived from this one (by degradation level, created when first needed)
+	 */
+	private final FireP4jConfig[] degradedConfigs = new FireP4jConfig[LoadMonitor.minimal]
+
+	/**
+	 * This method creates the default configuration for the given compiled profile.
+	 * The trace filters, their matcher and the JSON utility object of the profile are shared, not copied.
+	 *
+	 * @param profile Compiled FireP4j profile
+	 * @return Default configuration
+	 */
+	public static FireP4jConfig forProfile(CompiledProfile profile) {
+		new FireP4jConfig(10, 5, 5000, true, profile.traceFilters, profile.traceFilterMatcher, profile.jsonUtils)
+	}
+
+	/**
+	 * This constructor sets all the configuration values.
+	 *
+	 * @param maxTraceCount Maximum trace element count
+	 * @param maxCauseCount Maximum number of causes output for an exception
+	 * @param chunkSize Maximum UTF-8 byte length of a message header
+	 * @param includeLineNumbers True if line numbers and file names should be output, false otherwise
+	 * @param traceFilters Unmodifiable trace filter list
+	 * @param traceFilterMatcher Matcher compiled from the trace filters
+	 * @param jsonUtils JSON utility object (must not be changed afterwards)
+	 */
+	private FireP4jConfig(int maxTraceCount, int maxCauseCount, int chunkSize, boolean includeLineNumbers, List<Filter> traceFilters,
+			TraceFilterMatcher traceFilterMatcher, JSONUtils jsonUtils) {
+		// Class variables are set
+		this.maxTraceCount = maxTraceCount
+		this.maxCauseCount = maxCauseCount
+		this.chunkSize = chunkSize
+		this.includeLineNumbers = includeLineNumbers
+		this.traceFilters = traceFilters
+		this.traceFilterMatcher = traceFilterMatcher
+		this.jsonUtils = jsonUtils
+	}
+
+	/**
+	 * This method returns a configuration with the given maximum trace element count.
+	 *
+	 * @param maxTraceCount Maximum trace element count
+	 * @return Changed configuration
+	 */
+	public FireP4jConfig withMaxTraceCount(int maxTraceCount) {
+		new FireP4jConfig(maxTraceCount, maxCauseCount, chunkSize, includeLineNumbers, traceFilters, traceFilterMatcher, jsonUtils)
+	}
+
+	/**
+	 * This method returns a configuration with the given maximum number of causes output for an exception.
+	 *
+	 * @param maxCauseCount Maximum number of causes
+	 * @return Changed configuration
+	 */
+	public FireP4jConfig withMaxCauseCount(int maxCauseCount) {
+		new FireP4jConfig(maxTraceCount, maxCauseCount, chunkSize, includeLineNumbers, traceFilters, traceFilterMatcher, jsonUtils)
+	}
+
+	/**
+	 * This method returns a configuration with the given maximum chunk size.
+	 *
+	 * @param chunkSize Maximum UTF-8 byte length of a message header
+	 * @return Changed configuration
+	 */
+	public FireP4jConfig withChunkSize(int chunkSize) {
+		new FireP4jConfig(maxTraceCount, maxCauseCount, chunkSize, includeLineNumbers, traceFilters, traceFilterMatcher, jsonUtils)
+	}
+
+	/**
+	 * This method returns a configuration with the given line number flag.
+	 *
+	 * @param includeLineNumbers True if line numbers and file names should be output, false otherwise
+	 * @return Changed configuration
+	 */
+	public FireP4jConfig withIncludeLineNumbers(boolean includeLineNumbers) {
+		new FireP4jConfig(maxTraceCount, maxCauseCount, chunkSize, includeLineNumbers, traceFilters, traceFilterMatcher, jsonUtils)
+	}
+
+	/**
+	 * This method returns a configuration with a changed JSON utility object. The change is applied to a copy,
+	 * so serializations using the current configuration are not affected.
+	 *
+	 * @param change Closure changing the given JSON utility object copy
+	 * @return Changed configuration
+	 */
+	public FireP4jConfig withJSONUtils(Closure change) {
+		JSONUtils utils = new JSONUtils(jsonUtils)
+		change(utils)
+
+		new FireP4jConfig(maxTraceCount, maxCauseCount, chunkSize, includeLineNumbers, traceFilters, traceFilterMatcher, utils)
+	}
+
+	/**
+	 * This method returns a configuration with the detail reduced for the given degradation level: shorter traces
+	 * and a lower serialization depth, and no line numbers from the minimal level on.
+	 * The configuration is derived once per level and reused afterwards.
+	 *
+	 * @param level Degradation level (@see firep4j.tools.LoadMonitor)
+	 * @return Configuration with reduced detail (this configuration for full detail)
+	 */
+	public FireP4jConfig degrade(int level) {
+		if (level <= LoadMonitor.full) {
+			return this
+		}
+
+		// Configurations are only derived once (a race derives an equal configuration twice, which does no harm)
+		int index = Math.min(level, LoadMonitor.minimal) - 1
+		FireP4jConfig degraded = degradedConfigs[index]
+		if (degraded == null) {
+			boolean minimal = level >= LoadMonitor.minimal
+			int maxDepth = limit(jsonUtils.maxDepth, minimal ? 1 : 3)
+			degraded = withMaxTraceCount(limit(maxTraceCount, minimal ? 2 : 5))
+				.withIncludeLineNumbers(includeLineNumbers && !minimal)
+				.withJSONUtils { JSONUtils utils -> utils.setMaxDepth(maxDepth) }
+			degradedConfigs[index] = degraded
+		}
+		degraded
+	}
+
+	/**
+	 * This method limits a setting (-1 meaning unlimited).
+	 *
+	 * @param value Current value
+	 * @param max Maximum value
+	 * @return Limited value
+	 */
+	private static int limit(int value, int max) {
+		value == -1 || value > max ? max : value
+	}
+
+	/**
+	 * This method returns a configuration containing the given trace filter.
+	 *
+	 * @param filterType Filter type (@see firep4j.tools.Filter)
+	 * @param filterValue Package name to be filtered
+	 * @return Changed configuration (or this configuration if the filter was already present)
+	 */
+	public FireP4jConfig withTraceFilter(Filter.Criteria filterType, String filterValue) {
+		// If the filter is already present, nothing changes
+		if (indexOfTraceFilter(filterType, filterValue) != -1) {
+			return this
+		}
+
+		// The new filter is added to a copy of the filter list
+		List<Filter> filters = new ArrayList<Filter>(traceFilters)
+		filters.add(new Filter(type: filterType, value: filterValue))
+
+		withTraceFilters(filters)
+	}
+
+	/**
+	 * This method returns a configuration not containing the given trace filter.
+	 *
+	 * @param filterType Filter type (@see firep4j.tools.Filter)
+	 * @param filterValue Package name to be filtered
+	 * @return Changed configuration (or this configuration if the filter was not present)
+	 */
+	public FireP4jConfig withoutTraceFilter(Filter.Criteria filterType, String filterValue) {
+		// If the filter is not present, nothing changes
+		int index = indexOfTraceFilter(filterType, filterValue)
+		if (index == -1) {
+			return this
+		}
+
+		// The filter is removed from a copy of the filter list
+		List<Filter> filters = new ArrayList<Filter>(traceFilters)
+		filters.remove(index)
+
+		withTraceFilters(filters)
+	}
+
+	/**
+	 * This method returns a configuration containing the given trace filters (the filter matcher is compiled again).
+	 *
+	 * @param filters Trace filters
+	 * @return Changed configuration
+	 */
+	private FireP4jConfig withTraceFilters(List<Filter> filters) {
+		List<Filter> unmodifiableFilters = Collections.unmodifiableList(filters)
+		new FireP4jConfig(maxTraceCount, maxCauseCount, chunkSize, includeLineNumbers, unmodifiableFilters,
+			new TraceFilterMatcher(unmodifiableFilters, CompiledProfile.maxCachedVerdicts), jsonUtils)
+	}
+
+	/**
+	 * This method searches the trace filter list for the given filter.
+	 *
+	 * @param filterType Filter type
+	 * @param filterValue Filter value
+	 * @return Index of the filter, -1 if it is not present
+	 */
+	private int indexOfTraceFilter(Filter.Criteria filterType, String filterValue) {
+		for (int i = 0; i < traceFilters.size(); i++) {
+			Filter filter = traceFilters.get(i)
+			if (filter.type == filterType && filter.value == filterValue) {
+				return i
+			}
+		}
+		-1
+	}
+
+	// Getters
+
+	/**
+	 * This method returns the maximum trace element count.
+	 *
+	 * @return Maximum trace element count
+	 */
+	public int getMaxTraceCount() { maxTraceCount }
+
+	/**
+	 * This method returns the maximum number of causes output for an exception.
+	 *
+	 * @return Maximum number of causes
+	 */
+	public int getMaxCauseCount() { maxCauseCount }
+
+	/**
+	 * This method returns the maximum chunk size.
+	 *
+	 * @return Maximum UTF-8 byte length of a message header
+	 */
+	public int getChunkSize() { chunkSize }
+
+	/**
+	 * This method returns whether line numbers and file names are output.
+	 *
+	 * @return True if line numbers and file names are output, false otherwise
+	 */
+	public boolean isIncludeLineNumbers() { includeLineNumbers }
+
+	/**
+	 * This method returns the trace filters.
+	 *
+	 * @return Unmodifiable trace filter list
+	 */
+	public List<Filter> getTraceFilters() { traceFilters }
+
+	/**
+	 * This method returns the matcher compiled from the trace filters.
+	 *
+	 * @return Trace filter matcher
+	 */
+	public TraceFilterMatcher getTraceFilterMatcher() { traceFilterMatcher }
+
+	/**
+	 * This method returns the JSON utility object. It is shared and must not be changed (@see withJSONUtils).
+	 *
+	 * @return JSON utility object
+	 */
+	public JSONUtils getJsonUtils() { jsonUtils }
+}
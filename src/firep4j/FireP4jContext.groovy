@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
+
+/**
+ * This class carries the FireP4j instance of a request to the code working for that request. The instance is bound
+ * to the request thread for a scope (@see FireP4jFilter), and tasks wrapped by this class take it to executor and
+ * CompletableFuture threads. Threads started within the scope do not inherit it (pooled threads would keep it after
+ * the request ended), their tasks have to be wrapped as well.<br>
+ * Messages logged on other threads are written to the response headers right away, as long as the response is not
+ * committed. Once the instance was released, it is treated as unbound.
+ *
+ * @author Thomas Endres
+ */
+public final class FireP4jContext {
+	/**
+	 * FireP4j instance bound to the current thread
+	 */
+	private static final ThreadLocal<FireP4j> currentInstance = new ThreadLocal<FireP4j>()
+
+	/**
+	 * This constructor is private, the class only has static methods.
+	 */
+	private FireP4jContext() { }
+
+	/**
+	 * This method returns the FireP4j instance bound to the current thread.
+	 *
+	 * @return Bound instance (the disabled instance if none is bound or the bound instance was released)
+	 */
+	public static FireP4j current() {
+		FireP4j instance = currentInstance.get()
+		instance != null && !instance.isReleased() ? instance : DisabledFireP4j.sharedInstance
+	}
+
+	/**
+	 * This method binds the given instance to the current thread until the returned scope is closed.
+	 *
+	 * @param instance FireP4j instance to bind (null to unbind)
+	 * @return Scope restoring the previously bound instance when it is closed
+	 */
+	public static Scope bind(FireP4j instance) {
+		Scope scope = new Scope(currentInstance.get())
+		currentInstance.set(instance)
+		scope
+	}
+
+	/**
+	 * This method wraps a task, so it runs with the instance that is bound now.
+	 *
+	 * @param task Task to wrap
+	 * @return Wrapped task
+	 */
+	public static Runnable wrap(Runnable task) {
+		FireP4j instance = currentInstance.get()
+
+		// An anonymous class is used (a closure would be both a runnable and a callable for executors)
+		new Runnable() {
+			public void run() {
+				Scope scope = bind(instance)
+				try {
+					task.run()
+				} finally {
+					scope.close()
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method wraps a task, so it runs with the instance that is bound now.
+	 *
+	 * @param task Task to wrap
+	 * @return Wrapped task
+	 */
+	public static <T> Callable<T> wrap(Callable<T> task) {
+		FireP4j instance = currentInstance.get()
+
+		// An anonymous class is used (a closure would be both a runnable and a callable for executors)
+		new Callable<T>() {
+			public T call() {
+				Scope scope = bind(instance)
+				try {
+					task.call()
+				} finally {
+					scope.close()
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method wraps an executor, so every task runs with the instance that was bound when it was submitted
+	 * (e.g. for <code>CompletableFuture.supplyAsync(supplier, FireP4jContext.executor(pool))</code>).
+	 *
+	 * @param executor Executor to wrap
+	 * @return Wrapped executor
+	 */
+	public static Executor executor(Executor executor) {
+		return { Runnable task -> executor.execute(wrap(task)) } as Executor
+	}
+
+	/**
+	 * This class represents the scope of a bound instance.
+	 */
+	public static final class Scope implements AutoCloseable {
+		/**
+		 * Instance that was bound before the scope was opened
+		 */
+		private final FireP4j previous
+
+		/**
+		 * This constructor remembers the previously bound instance.
+		 *
+		 * @param previous Instance that was bound before
+		 */
+		private Scope(FireP4j previous) {
+			this.previous = previous
+		}
+
+		/**
+		 * This method restores the previously bound instance.
+		 */
+		public void close() {
+			if (previous != null) {
+				currentInstance.set(previous)
+			} else {
+				currentInstance.remove()
+			}
+		}
+	}
+}
@@ -16,37 +16,138 @@
 package firep4j
 
 import java.lang.Thread.UncaughtExceptionHandler
+import java.lang.ref.WeakReference
+import java.util.Iterator
+import java.util.Map
+import java.util.WeakHashMap
 
 /**
- * This class is used for exception handling in FireP4j.
+ * This class is used for exception handling in FireP4j. A single dispatcher is registered as the uncaught exception
+ * handler of the threads; it logs the exceptions to the FireP4j instance registered for the thread.<br>
+ * Threads and instances are only referenced weakly, and the registrations of an instance are removed when it is
+ * released (@see FireP4j#release()), so pooled container threads do not keep requests reachable.
  */
 public class FireP4jExceptionHandler implements UncaughtExceptionHandler {
 	/**
-	 * Flag indicating whether exceptions should be logged to FireP4j
+	 * Flag for capturing exceptions
 	 */
-	boolean captureExceptions = false
+	public static final int captureExceptions = 1
+	
+	/**
+	 * Flag for capturing errors
+	 */
+	public static final int captureErrors = 2
+	
+	/**
+	 * Flag for capturing assertion errors
+	 */
+	public static final int captureAssertions = 4
+	
 	/**
-	 * Flag indicating whether errors should be logged to FireP4j
+	 * The dispatcher shared by all threads
 	 */
-	boolean captureErrors = false
+	static final FireP4jExceptionHandler dispatcher = new FireP4jExceptionHandler()
+	
 	/**
-	 * Flag indicating whether assertion errors should be logged to FireP4j
+	 * Registrations by thread (access is synchronized on the map)
 	 */
-	boolean captureAssertions = false
+	private static final Map<Thread, Registration> registrations = new WeakHashMap<Thread, Registration>()
 	
 	/**
-	 * The FireP4j instance to log to
+	 * This constructor is private, the dispatcher is shared.
 	 */
-	private FireP4j fireP4j = null
+	private FireP4jExceptionHandler() { }
 	
 	/**
-	 * Dummy constructor setting the FireP4j instance
+	 * This method sets and resets the capture flags of a thread. The dispatcher is installed as the uncaught exception
+	 * handler of the thread when the first flag is set and the previous handler is restored when the last flag is reset.
 	 * 
-	 * @param fireP4j FireP4j instance
+	 * @param thread Thread for which the changes should be made
+	 * @param fireP4j FireP4j instance to log to
+	 * @param set Capture flags to set
+	 * @param reset Capture flags to reset
 	 */
-	public FireP4jExceptionHandler(FireP4j fireP4j) {
-		// Class variables are set
-		this.fireP4j = fireP4j
+	static void update(Thread thread, FireP4j fireP4j, int set, int reset) {
+		synchronized (registrations) {
+			Registration registration = registrations.get(thread)
+			
+			// A registration of another instance (e.g. of a former request on a pooled thread) is replaced
+			if (registration != null && registration.fireP4j.get() !== fireP4j) {
+				if (set == 0) {
+					return
+				}
+				registration = new Registration(fireP4j, registration.previousHandler)
+				registrations.put(thread, registration)
+			} else if (registration == null) {
+				// If there is nothing to register, nothing is done
+				if (set == 0) {
+					return
+				}
+				
+				// The dispatcher is installed (the thread group is the default handler, it is not remembered)
+				UncaughtExceptionHandler previousHandler = thread.getUncaughtExceptionHandler()
+				registration = new Registration(fireP4j, previousHandler == thread.getThreadGroup() ? null : previousHandler)
+				thread.setUncaughtExceptionHandler(dispatcher)
+				registrations.put(thread, registration)
+			}
+			
+			// Handler flags are set or reset
+			registration.captures = (registration.captures | set) & ~reset
+			
+			// If there is nothing to do anymore for the thread, the registration is removed
+			if (registration.captures == 0) {
+				remove(thread, registration)
+				registrations.remove(thread)
+			}
+		}
+	}
+	
+	/**
+	 * This method removes all registrations of the given instance (and the ones of collected instances).
+	 * 
+	 * @param fireP4j Released FireP4j instance
+	 */
+	static void release(FireP4j fireP4j) {
+		synchronized (registrations) {
+			// Usually, no handler was registered at all
+			if (registrations.isEmpty()) {
+				return
+			}
+			
+			Iterator<Map.Entry<Thread, Registration>> iterator = registrations.entrySet().iterator()
+			while (iterator.hasNext()) {
+				Map.Entry<Thread, Registration> entry = iterator.next()
+				FireP4j registered = entry.getValue().fireP4j.get()
+				if (registered == null || registered === fireP4j) {
+					remove(entry.getKey(), entry.getValue())
+					iterator.remove()
+				}
+			}
+		}
+	}
+	
+	/**
+	 * This method returns the number of threads with a registration.
+	 * 
+	 * @return Number of registrations
+	 */
+	static int getRegistrationCount() {
+		synchronized (registrations) {
+			registrations.size()
+		}
+	}
+	
+	/**
+	 * This method restores the handler the thread had before the dispatcher was installed.
+	 * 
+	 * @param thread Thread
+	 * @param registration Registration of the thread
+	 */
+	private static void remove(Thread thread, Registration registration) {
+		// If another handler was installed in the meantime, it is kept
+		if (thread != null && thread.getUncaughtExceptionHandler() == dispatcher) {
+			thread.setUncaughtExceptionHandler(registration.previousHandler)
+		}
 	}
 	
 	/**
@@ -54,39 +155,66 @@ public class FireP4jExceptionHandler implements UncaughtExceptionHandler {
 	 */
 	@Override
 	public void uncaughtException(Thread thread, Throwable throwable) {
-		// According to the exception type, the exceptions are logged
-		// If the throwable should not be logged, it is thrown again
+		Registration registration
+		synchronized (registrations) {
+			registration = registrations.get(thread)
+		}
 		
+		// According to the exception type, the exceptions are logged
+		int capture
 		if (throwable instanceof AssertionError) {
-			// Exceptions
-			if (!captureAssertions) {
-				throw throwable
-			}
-			fireP4j.error(throwable)
+			// Assertion errors
+			capture = captureAssertions
 		} else if (throwable instanceof Error) {
 			// Errors
-			if (!captureErrors) {
-				throw throwable
-			}
-			fireP4j.error(throwable)
+			capture = captureErrors
 		} else if (throwable instanceof Exception) {
-			// Assertion errors
-			if (!captureExceptions) {
-				throw throwable
-			}
-			fireP4j.error(throwable)
+			// Exceptions
+			capture = captureExceptions
 		} else {
 			// Something else
-			throw throwable
+			capture = 0
+		}
+		
+		FireP4j fireP4j = registration?.fireP4j?.get()
+		if (fireP4j != null && (registration.captures & capture) != 0) {
+			fireP4j.error(throwable)
+			return
 		}
+		
+		// If the throwable should not be logged, it is handled the way it would have been without FireP4j
+		UncaughtExceptionHandler handler = registration?.previousHandler ?: thread.getThreadGroup()
+		handler?.uncaughtException(thread, throwable)
 	}
 	
 	/**
-	 * This method returns whether one of the handlers is defined.
-	 * 
-	 * @return Flag indicating whether one of the handlers is defined
+	 * This class represents the registration of a thread.
 	 */
-	public boolean isHandlerDefined() {
-		captureExceptions || captureErrors || captureAssertions
+	private static class Registration {
+		/**
+		 * The FireP4j instance to log to
+		 */
+		final WeakReference<FireP4j> fireP4j
+		
+		/**
+		 * Handler of the thread before the dispatcher was installed (null for the default handling)
+		 */
+		final UncaughtExceptionHandler previousHandler
+		
+		/**
+		 * Capture flags (@see #captureExceptions)
+		 */
+		int captures = 0
+		
+		/**
+		 * This constructor sets the registration values.
+		 * 
+		 * @param fireP4j FireP4j instance to log to
+		 * @param previousHandler Handler of the thread before the dispatcher was installed
+		 */
+		Registration(FireP4j fireP4j, UncaughtExceptionHandler previousHandler) {
+			this.fireP4j = new WeakReference<FireP4j>(fireP4j)
+			this.previousHandler = previousHandler
+		}
 	}
 }
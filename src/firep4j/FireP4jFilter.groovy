@@ -0,0 +1,347 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j
+
+import javax.servlet.Filter
+import javax.servlet.FilterChain
+import javax.servlet.FilterConfig
+import javax.servlet.ServletException
+import javax.servlet.ServletOutputStream
+import javax.servlet.ServletRequest
+import javax.servlet.ServletResponse
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+import javax.servlet.http.HttpServletResponseWrapper
+
+/**
+ * This servlet filter enables tail sampling for all FireP4j requests: messages are buffered during the request and
+ * output only if the request was slow, logged an error or was sampled. The sampling decision is made when the response
+ * is about to be committed (the headers cannot be set afterwards): when the output is flushed, before it exceeds the
+ * response buffer, before an error or a redirect is sent, or when the request ends.<br>
+ * The instance is bound to the request thread while the request is processed (@see FireP4jContext). For asynchronous
+ * requests (servlet 3.0 and above), the decision is made when the request thread returns: the container completes and
+ * commits the response without notifying the filter beforehand, so later errors and the latency of the asynchronous
+ * processing do not count. Messages logged afterwards are output according to the decision as long as the response is
+ * not committed; the instance is released when the asynchronous processing ends.<br>
+ * Init parameters: latencyThreshold (in milliseconds, default 500) and sampleRate (between 0 and 1, default 0).
+ *
+ * @author Thomas Endres
+ */
+public class FireP4jFilter implements Filter {
+	/**
+	 * Latency threshold in milliseconds above which the messages of a request are output
+	 */
+	private long latencyThreshold = 500
+
+	/**
+	 * Rate of requests whose messages are output anyway
+	 */
+	private double sampleRate = 0
+
+	/**
+	 * This method reads the init parameters of the filter.
+	 *
+	 * @param filterConfig Filter configuration
+	 */
+	public void init(FilterConfig filterConfig) throws ServletException {
+		String latencyThreshold = filterConfig.getInitParameter("latencyThreshold")
+		if (latencyThreshold != null) {
+			this.latencyThreshold = Long.parseLong(latencyThreshold.trim())
+		}
+
+		String sampleRate = filterConfig.getInitParameter("sampleRate")
+		if (sampleRate != null) {
+			this.sampleRate = Double.parseDouble(sampleRate.trim())
+		}
+	}
+
+	/**
+	 * This method enables tail sampling for the request and makes the sampling decision when the request ends.
+	 *
+	 * @param request Servlet request
+	 * @param response Servlet response
+	 * @param chain Filter chain
+	 */
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		// Only HTTP requests can be logged
+		if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+			chain.doFilter(request, response)
+			return
+		}
+
+		// For clients without FirePHP, the request is passed on unchanged
+		FireP4j fireP4j = FireP4j.getInstance((HttpServletRequest) request, (HttpServletResponse) response)
+		if (!fireP4j.isActive()) {
+			chain.doFilter(request, response)
+			return
+		}
+
+		fireP4j.setTailSampling(latencyThreshold, sampleRate)
+		FireP4jContext.Scope scope = FireP4jContext.bind(fireP4j)
+		try {
+			// The response is wrapped so the messages are output before it is committed
+			chain.doFilter(request, new SamplingResponse((HttpServletResponse) response, fireP4j))
+		} finally {
+			scope.close()
+			
+			// If the response was not committed yet, the decision is made now (asynchronous requests are completed
+			// by the container, which does not give the filter another chance before the response is committed)
+			fireP4j.flush()
+			
+			// The memory held by the messages is released (they were handed to the container), for asynchronous
+			// requests when the asynchronous processing ends
+			if (!addAsyncListener(request, fireP4j)) {
+				fireP4j.release()
+			}
+		}
+	}
+
+	/**
+	 * This method adds a listener releasing the FireP4j instance when the asynchronous processing of the request ends.
+	 * The servlet 3.0 API is accessed dynamically, as older containers do not provide it.
+	 *
+	 * @param request Servlet request
+	 * @param fireP4j FireP4j instance of the request
+	 * @return True if the request is processed asynchronously, false otherwise
+	 */
+	private static boolean addAsyncListener(ServletRequest request, FireP4j fireP4j) {
+		if (!request.respondsTo("isAsyncStarted") || !request.isAsyncStarted()) {
+			return false
+		}
+
+		// On completion (after a timeout or an error as well), the memory is released
+		Class listenerClass = Class.forName("javax.servlet.AsyncListener", true, request.getClass().getClassLoader())
+		Object listener = [
+			onStartAsync: { event -> },
+			onTimeout: { event -> },
+			onError: { event -> },
+			onComplete: { event -> fireP4j.release() }
+		].asType(listenerClass)
+		request.getAsyncContext().addListener(listener)
+		true
+	}
+
+	/**
+	 * Nothing is to be done when the filter is destroyed.
+	 */
+	public void destroy() { }
+
+	/**
+	 * This response wrapper makes the sampling decision as soon as the response is about to be committed.
+	 * The output stream and the writer are wrapped to notice when the output is flushed or would exceed the
+	 * response buffer.
+	 */
+	private static class SamplingResponse extends HttpServletResponseWrapper {
+		/**
+		 * Maximum number of bytes a character is encoded in (the output is estimated generously)
+		 */
+		private static final int maxBytesPerChar = 3
+
+		/**
+		 * FireP4j instance of the request
+		 */
+		private final FireP4j fireP4j
+
+		/**
+		 * Wrapped output stream (null as long as it was not requested)
+		 */
+		private ServletOutputStream outputStream = null
+
+		/**
+		 * Wrapped writer (null as long as it was not requested)
+		 */
+		private PrintWriter writer = null
+
+		/**
+		 * Number of bytes written so far (estimated for the writer)
+		 */
+		private long writtenBytes = 0
+
+		/**
+		 * Flag indicating whether the sampling decision was made
+		 */
+		private boolean flushed = false
+
+		/**
+		 * This constructor wraps the response.
+		 *
+		 * @param response HTTP servlet response
+		 * @param fireP4j FireP4j instance of the request
+		 */
+		SamplingResponse(HttpServletResponse response, FireP4j fireP4j) {
+			super(response)
+			this.fireP4j = fireP4j
+		}
+
+		/**
+		 * This method makes the sampling decision before the response is committed (only once).
+		 */
+		void commit() {
+			if (!flushed) {
+				flushed = true
+				fireP4j.flush()
+			}
+		}
+
+		/**
+		 * This method is called before output is written. The sampling decision is made before the output
+		 * exceeds the response buffer.
+		 *
+		 * @param bytes Number of bytes about to be written
+		 */
+		void beforeWrite(long bytes) {
+			writtenBytes += bytes
+			if (!flushed && writtenBytes >= getBufferSize()) {
+				commit()
+			}
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (outputStream == null) {
+				outputStream = wrapOutputStream(super.getOutputStream(), this)
+			}
+			outputStream
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				writer = new PrintWriter(new SamplingWriter(super.getWriter(), this))
+			}
+			writer
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			commit()
+			super.flushBuffer()
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			commit()
+			super.sendError(sc)
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			commit()
+			super.sendError(sc, msg)
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			commit()
+			super.sendRedirect(location)
+		}
+	}
+
+	/**
+	 * This method wraps the output stream of the response, so the sampling response is notified before output is
+	 * written or flushed. The wrapper is created at runtime from the output stream class of the container, so the
+	 * methods of newer servlet versions (e.g. isReady() and setWriteListener() of servlet 3.1) are delegated as well.
+	 *
+	 * @param stream Output stream of the response
+	 * @param response Sampling response
+	 * @return Wrapped output stream
+	 */
+	private static ServletOutputStream wrapOutputStream(ServletOutputStream stream, SamplingResponse response) {
+		[
+			write: { Object[] args ->
+				if (args.length == 3) {
+					// Part of a byte array
+					response.beforeWrite((int) args[2])
+					stream.write((byte[]) args[0], (int) args[1], (int) args[2])
+				} else if (args[0] instanceof byte[]) {
+					// Whole byte array
+					response.beforeWrite(((byte[]) args[0]).length)
+					stream.write((byte[]) args[0])
+				} else {
+					// Single byte
+					response.beforeWrite(1)
+					stream.write((int) args[0])
+				}
+			},
+			flush: {
+				response.commit()
+				stream.flush()
+			},
+			close: {
+				response.commit()
+				stream.close()
+			},
+			isReady: { stream.isReady() },
+			setWriteListener: { listener -> stream.setWriteListener(listener) }
+		].asType(ServletOutputStream)
+	}
+
+	/**
+	 * This writer notifies the sampling response before output is written or flushed.
+	 */
+	private static class SamplingWriter extends Writer {
+		/**
+		 * Writer of the response
+		 */
+		private final Writer writer
+
+		/**
+		 * Sampling response
+		 */
+		private final SamplingResponse response
+
+		/**
+		 * This constructor wraps the writer.
+		 *
+		 * @param writer Writer of the response
+		 * @param response Sampling response
+		 */
+		SamplingWriter(Writer writer, SamplingResponse response) {
+			this.writer = writer
+			this.response = response
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			response.beforeWrite(SamplingResponse.maxBytesPerChar)
+			writer.write(c)
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			response.beforeWrite((long) len * SamplingResponse.maxBytesPerChar)
+			writer.write(cbuf, off, len)
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			response.beforeWrite((long) len * SamplingResponse.maxBytesPerChar)
+			writer.write(str, off, len)
+		}
+
+		@Override
+		public void flush() throws IOException {
+			response.commit()
+			writer.flush()
+		}
+
+		@Override
+		public void close() throws IOException {
+			response.commit()
+			writer.close()
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j
+
+import java.util.function.Supplier
+import java.util.logging.Formatter
+import java.util.logging.Handler
+import java.util.logging.Level
+import java.util.logging.LogRecord
+import java.util.logging.SimpleFormatter
+
+import firep4j.FireP4j.FireP4jLogLevel
+
+/**
+ * This java.util.logging handler forwards the log records to the FireP4j instance of the current request
+ * (@see FireP4jContext). SEVERE records are output as errors, WARNING records as warnings, INFO records as infos and
+ * all finer records as logs. The logger name is used as label.<br>
+ * Records below the handler level and records of threads without an active FireP4j instance are ignored before the
+ * message is formatted (the message is only formatted if it is actually output).
+ *
+ * @author Thomas Endres
+ */
+public class FireP4jHandler extends Handler {
+	/**
+	 * This constructor sets the formatter (only its message formatting is used).
+	 */
+	public FireP4jHandler() {
+		setFormatter(new SimpleFormatter())
+	}
+
+	/**
+	 * This method forwards a log record.
+	 *
+	 * @param record Log record
+	 */
+	public void publish(LogRecord record) {
+		// Without an active instance or below the level, nothing is done
+		FireP4j fireP4j = FireP4jContext.current()
+		if (!fireP4j.isActive() || !isLoggable(record)) {
+			return
+		}
+
+		Formatter formatter = getFormatter()
+		FireP4jAppender.forward(fireP4j, getLevel(record.getLevel()), LazyObject.of({ formatter.formatMessage(record) } as Supplier),
+			record.getLoggerName(), record.getThrown())
+	}
+
+	/**
+	 * Nothing is to be done, the messages are written into the response headers.
+	 */
+	public void flush() { }
+
+	/**
+	 * Nothing is to be done, the handler does not hold any resources.
+	 */
+	public void close() { }
+
+	/**
+	 * This method maps a java.util.logging level to the FireP4j log level of the records.
+	 *
+	 * @param level Level of the log record
+	 * @return FireP4j log level (LOG, INFO, WARN or ERROR)
+	 */
+	private static FireP4jLogLevel getLevel(Level level) {
+		int value = level.intValue()
+		if (value >= Level.SEVERE.intValue()) {
+			return FireP4jLogLevel.ERROR
+		} else if (value >= Level.WARNING.intValue()) {
+			return FireP4jLogLevel.WARN
+		} else if (value >= Level.INFO.intValue()) {
+			return FireP4jLogLevel.INFO
+		}
+		FireP4jLogLevel.LOG
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j
+
+import java.util.function.Supplier
+
+/**
+ * This class wraps the supplier of an object that is only built if FireP4j actually outputs it (i.e. after the
+ * enabled, version, sampling and budget checks passed). Closures and suppliers passed to the logging methods are
+ * wrapped automatically (e.g. <code>fireP4j.log(() -> buildDiagnostics())</code> in Java).<br>
+ * The class is a supplier itself, so it is the most specific overload for <code>null</code> arguments (neither the
+ * overloads taking a serializable object nor the ones taking a supplier become ambiguous).
+ *
+ * @author Thomas Endres
+ */
+public final class LazyObject implements Serializable, Supplier<Serializable> {
+	/**
+	 * Serialization ID
+	 */
+	private static final long serialVersionUID = 6209718823441553017L
+
+	/**
+	 * Supplier building the object
+	 */
+	private final transient Supplier<? extends Serializable> supplier
+
+	/**
+	 * This constructor sets the supplier.
+	 *
+	 * @param supplier Supplier building the object
+	 */
+	private LazyObject(Supplier<? extends Serializable> supplier) {
+		this.supplier = supplier
+	}
+
+	/**
+	 * This method wraps the given supplier.
+	 *
+	 * @param supplier Supplier building the object
+	 * @return Lazy object
+	 */
+	public static LazyObject of(Supplier<? extends Serializable> supplier) {
+		// If no supplier is given, an exception is thrown
+		if (supplier == null) {
+			throw new IllegalArgumentException("The supplier must be set!")
+		}
+		new LazyObject(supplier)
+	}
+
+	/**
+	 * This method builds the object.
+	 *
+	 * @return Object built by the supplier
+	 */
+	public Serializable get() {
+		supplier.get()
+	}
+}
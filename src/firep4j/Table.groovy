@@ -16,15 +16,35 @@
 package firep4j;
 
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+import groovy.transform.CompileStatic;
 
 import firep4j.tools.JSONUtils;
+import firep4j.tools.JSONWriter;
 
 /**
- * This class implements the table structure needed for table output.
+ * This class implements the table structure needed for table output.<br>
+ * The values are stored by column: columns of a primitive type keep their values unboxed in arrays that grow in
+ * chunks, so large tables (e.g. query metrics) are neither boxed nor copied when they grow. Typed rows are added
+ * with {@link #newRow()} and the <code>set</code> methods, e.g. <code>table.newRow().set(0, "query").set(1, 12L)</code>.<br>
+ * Tables can also be read from an iterable, a stream or a JDBC result set (@see #of(Iterable, int, String...)).
+ * Their rows are only read when the table is output, up to a row limit.<br>
+ * Large tables of objects can be serialized in parallel blocks of rows (@see #setParallel(boolean)).
  * 
  * @author Thomas Endres
  */
+@CompileStatic
 public class Table implements Serializable {
 	/**
 	 * Serialization ID
@@ -32,9 +52,49 @@ public class Table implements Serializable {
 	private static final long serialVersionUID = -4485564433544914202L;
 	
 	/**
-	 * JSON utility class instance
+	 * Number of bits of the row index within a chunk (chunks hold 1024 rows)
+	 */
+	private static final int chunkShift = 10;
+	
+	/**
+	 * Mask of the row index within a chunk
+	 */
+	private static final int chunkMask = (1 << chunkShift) - 1;
+	
+	/**
+	 * Maximum number of rows beyond the row limit that are counted for the trailer of a table read from a source
+	 */
+	private static final int maxCountedRows = 10000;
+	
+	/**
+	 * Value types of the table columns
 	 */
-	private JSONUtils jsonUtils = null;
+	public enum ColumnType {
+		/**
+		 * Integer values
+		 */
+		INT,
+		/**
+		 * Long integer values
+		 */
+		LONG,
+		/**
+		 * Floating point values
+		 */
+		DOUBLE,
+		/**
+		 * Boolean values
+		 */
+		BOOLEAN,
+		/**
+		 * String values
+		 */
+		STRING,
+		/**
+		 * Any serializable objects (serialized using JSON)
+		 */
+		OBJECT
+	}
 	
 	/**
 	 * Number of columns the table contains
@@ -47,28 +107,129 @@ public class Table implements Serializable {
 	private String[] headers = null;
 	
 	/**
-	 * Content rows of the table
+	 * Content columns of the table
+	 */
+	private Column[] data = null;
+	
+	/**
+	 * Number of content rows of the table
+	 */
+	private int rows = 0;
+	
+	/**
+	 * Source the rows are read from when the table is output (null if the rows were added directly or already read)
+	 */
+	private transient RowSource source = null;
+	
+	/**
+	 * Maximum number of rows read from the source
+	 */
+	private int maxRows = 0;
+	
+	/**
+	 * Flag indicating whether the rows are serialized in parallel blocks
 	 */
-	private LinkedList<Object[]> data = null;
+	private boolean parallel = false;
 	
 	/**
-	 * This constructor instantiates the table structure.
+	 * This constructor instantiates the table structure with columns of any serializable objects.
 	 * 
 	 * @param columns Number of columns the table contains
 	 * @throws IllegalArgumentException
 	 */
 	public Table(int columns)
+		throws IllegalArgumentException {
+		this(objectColumns(columns));
+	}
+	
+	/**
+	 * This constructor instantiates the table structure with typed columns.
+	 * 
+	 * @param columnTypes Value types of the columns
+	 * @throws IllegalArgumentException
+	 */
+	public Table(ColumnType... columnTypes)
 		throws IllegalArgumentException {
 		// Input variables are tested
-		if (columns <= 0) {
+		if (columnTypes == null || columnTypes.length == 0) {
 			throw new IllegalArgumentException("Only numbers greater than 0 are allowed as column counts!");
 		}
 		
+		initColumns(columnTypes);
+	}
+	
+	/**
+	 * This method creates the columns of the table.
+	 * 
+	 * @param columnTypes Value types of the columns
+	 */
+	private void initColumns(ColumnType[] columnTypes) {
 		// Column count is set
-		this.columns = columns;		
+		this.columns = columnTypes.length;
 		setHeaders("");
-		data = new LinkedList<Object[]>();
-
+		
+		// The columns are created according to their types
+		data = new Column[columns];
+		for (int i = 0; i < columns; i++) {
+			data[i] = createColumn(columnTypes[i]);
+		}
+	}
+	
+	/**
+	 * This constructor instantiates a table reading its rows from the given source. The columns are created when the
+	 * rows are read.
+	 * 
+	 * @param source Row source
+	 * @param maxRows Maximum number of rows read from the source
+	 */
+	private Table(RowSource source, int maxRows) {
+		// Input variables are tested
+		if (maxRows < 0) {
+			throw new IllegalArgumentException("The row limit must not be negative!");
+		}
+		this.source = source;
+		this.maxRows = maxRows;
+	}
+	
+	/**
+	 * This method creates a table reading its rows from the given iterable when it is output. A row is an array,
+	 * an iterable of the column values or a single value. Rows beyond the limit are summarized in a trailer row.
+	 * 
+	 * @param rows Rows of the table
+	 * @param maxRows Maximum number of rows that are output
+	 * @param headers Table header strings (determining the column count)
+	 * @return Table
+	 */
+	public static Table of(Iterable<?> rows, int maxRows, String... headers) {
+		return new Table(new IteratorSource(rows, null, headers), maxRows);
+	}
+	
+	/**
+	 * This method creates a table reading its rows from the given stream when it is output (the stream is closed
+	 * afterwards). A row is an array, an iterable of the column values or a single value. Rows beyond the limit
+	 * are summarized in a trailer row. With tail sampling, the rows are read when the table is logged.
+	 * 
+	 * @param rows Rows of the table
+	 * @param maxRows Maximum number of rows that are output
+	 * @param headers Table header strings (determining the column count)
+	 * @return Table
+	 */
+	public static Table of(Stream<?> rows, int maxRows, String... headers) {
+		return new Table(new IteratorSource(null, rows, headers), maxRows);
+	}
+	
+	/**
+	 * This method creates a table reading its rows from the given result set when it is output. The column labels
+	 * are taken as headers. Rows beyond the limit are summarized in a trailer row (the result set is not closed).
+	 * With tail sampling, the rows are read when the table is logged (the result set may be closed before the
+	 * sampling decision is made).
+	 * 
+	 * @param resultSet Result set
+	 * @param maxRows Maximum number of rows that are output
+	 * @return Table
+	 */
+	public static Table of(ResultSet resultSet, int maxRows) {
+		return new Table(new ResultSetSource(resultSet), maxRows);
 	}
 	
 	/**
@@ -105,16 +266,114 @@ public class Table implements Serializable {
 			throw new IllegalArgumentException("The argument count must be smaller than the column count of the table!");
 		}
 		
-		// The new data row is initialized
-		Object[] dataEntry = new Object[columns];
-		
-		// Row entries are set according to the row value objects given
+		// All values are checked against the column types first (a rejected row is not added)
 		for (int i = 0; i < columnEntries.length; i++) {
-			dataEntry[i] = columnEntries[i];
+			if (columnEntries[i] != null && !data[i].accepts(columnEntries[i])) {
+				throw data[i].typeMismatch(columnEntries[i].getClass().getSimpleName());
+			}
 		}
 		
 		// The new row is added to the table
-		data.add(dataEntry);
+		int row = rows++;
+		
+		// Row entries are set according to the row value objects given (missing entries stay null)
+		for (int i = 0; i < columnEntries.length; i++) {
+			if (columnEntries[i] != null) {
+				data[i].setObject(row, columnEntries[i]);
+			}
+		}
+	}
+	
+	/**
+	 * This method adds a new empty row to the table. Its values are set using the <code>set</code> methods.
+	 * 
+	 * @return This table
+	 */
+	public Table newRow() {
+		rows++;
+		this
+	}
+	
+	/**
+	 * This method sets an integer value of the latest row.
+	 * 
+	 * @param column Column index
+	 * @param value Value
+	 * @return This table
+	 */
+	public Table set(int column, int value) {
+		getColumn(column).setInt(getLatestRow(), value);
+		this
+	}
+	
+	/**
+	 * This method sets a long integer value of the latest row.
+	 * 
+	 * @param column Column index
+	 * @param value Value
+	 * @return This table
+	 */
+	public Table set(int column, long value) {
+		getColumn(column).setLong(getLatestRow(), value);
+		this
+	}
+	
+	/**
+	 * This method sets a floating point value of the latest row.
+	 * 
+	 * @param column Column index
+	 * @param value Value
+	 * @return This table
+	 */
+	public Table set(int column, double value) {
+		getColumn(column).setDouble(getLatestRow(), value);
+		this
+	}
+	
+	/**
+	 * This method sets a boolean value of the latest row.
+	 * 
+	 * @param column Column index
+	 * @param value Value
+	 * @return This table
+	 */
+	public Table set(int column, boolean value) {
+		getColumn(column).setBoolean(getLatestRow(), value);
+		this
+	}
+	
+	/**
+	 * This method sets an object value of the latest row (null values are output as null).
+	 * 
+	 * @param column Column index
+	 * @param value Value
+	 * @return This table
+	 */
+	public Table set(int column, Serializable value) {
+		if (value != null) {
+			getColumn(column).setObject(getLatestRow(), value);
+		}
+		this
+	}
+	
+	/**
+	 * This method enables or disables the parallel serialization. The rows are split into blocks of 1024 rows, which
+	 * are serialized concurrently on the common fork/join pool and concatenated in row order (the output is the same
+	 * as the one of the sequential serialization). It pays off for large tables whose cells contain objects.
+	 * 
+	 * @param parallel True if the rows are serialized in parallel blocks, false otherwise
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	/**
+	 * This method returns whether the rows are serialized in parallel blocks.
+	 * 
+	 * @return True if the rows are serialized in parallel blocks, false otherwise
+	 */
+	public boolean isParallel() {
+		return parallel;
 	}
 	
 	/**
@@ -126,52 +385,814 @@ public class Table implements Serializable {
 		return columns;
 	}
 	
+	/**
+	 * This method returns the content row count of the table.
+	 * 
+	 * @return Row count of the table
+	 */
+	public int getRowCount() {
+		return rows;
+	}
+	
+	/**
+	 * This method returns the value type of a column.
+	 * 
+	 * @param column Column index
+	 * @return Value type
+	 */
+	public ColumnType getColumnType(int column) {
+		return getColumn(column).getType();
+	}
+	
 	/**
 	 * This method serializes the table.
 	 * 
 	 * @return The serialized table string
 	 */
 	public String serialize(JSONUtils jsonUtils) {
+		StringBuilder out = new StringBuilder(64 + 16 * columns * (rows + 1));
+		serialize(jsonUtils, out);
+		return out.toString();
+	}
+	
+	/**
+	 * This method serializes the table in one pass, appending it to the given string builder.
+	 * 
+	 * @param jsonUtils JSON utility object (for values of object columns)
+	 * @param out String builder the serialized table is appended to
+	 */
+	public void serialize(JSONUtils jsonUtils, StringBuilder out) {
 		if (jsonUtils == null) {
 			throw new Exception("JSON utility object must be given!")
 		}
-		this.jsonUtils = jsonUtils;
 		
-		String tableString = "";
+		// The rows of a source are read now (when the table is output for the first time)
+		if (source != null) {
+			readSource();
+		}
 		
-		// The header string is built
-		tableString = buildEntries(headers);
+		// The header row is written
+		out.append('[' as char);
+		out.append('[' as char);
+		for (int i = 0; i < columns; i++) {
+			if (i != 0) {
+				out.append(',' as char);
+			}
+			JSONWriter.writeString(out, headers[i]);
+		}
+		out.append(']' as char);
 		
-		// The row strings are built and added to the resulting string		
-		for (int i = 0; i < data.size(); i++) {
-			tableString += "," + buildEntries(data.get(i));
+		// The content rows are written (small tables are always written sequentially)
+		if (parallel && rows > chunkMask + 1) {
+			writeRowsInParallel(jsonUtils, out);
+		} else {
+			writeRows(jsonUtils, out, 0, rows);
+		}
+		out.append(']' as char);
+	}
+	
+	/**
+	 * This method writes the content rows in parallel blocks (each one into its own buffer) and appends the blocks
+	 * in row order.
+	 * 
+	 * @param jsonUtils JSON utility object (copied for every block, it is not thread safe)
+	 * @param out String builder to write to
+	 */
+	private void writeRowsInParallel(JSONUtils jsonUtils, StringBuilder out) {
+		// The blocks are aligned with the column chunks
+		int blockCount = (rows + chunkMask) >>> chunkShift;
+		List<ForkJoinTask<StringBuilder>> blocks = new ArrayList<ForkJoinTask<StringBuilder>>(blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			int start = i << chunkShift;
+			int end = Math.min(start + chunkMask + 1, rows);
+			blocks.add(ForkJoinPool.commonPool().submit({
+				StringBuilder block = new StringBuilder(16 * columns * (end - start));
+				writeRows(new JSONUtils(jsonUtils), block, start, end);
+				block
+			} as Callable<StringBuilder>));
 		}
 		
-		// The table string is put in parentheses and returned
-		tableString = "[" + tableString + "]";	
-		return tableString;
+		// The blocks are concatenated in row order
+		for (ForkJoinTask<StringBuilder> block : blocks) {
+			out.append(block.join());
+		}
 	}
 	
 	/**
-	 * This method builds a row string for the given values.
+	 * This method writes the given content rows (each one preceded by a separator).
 	 * 
-	 * @param values Values
-	 * @return Resulting row string
+	 * @param jsonUtils JSON utility object (for values of object columns)
+	 * @param out String builder to write to
+	 * @param start Index of the first row
+	 * @param end Index after the last row
 	 */
-	private String buildEntries(Object[] values) {
-		String entryString = "";
+	private void writeRows(JSONUtils jsonUtils, StringBuilder out, int start, int end) {
+		for (int row = start; row < end; row++) {
+			out.append(",[");
+			for (int i = 0; i < columns; i++) {
+				if (i != 0) {
+					out.append(',' as char);
+				}
+				data[i].write(out, row, jsonUtils);
+			}
+			out.append(']' as char);
+		}
+	}
+	
+	/**
+	 * This method reads the rows of a source that can only be read once (a stream or a result set) right away.
+	 * It is called when the table is buffered for the sampling decision, as the source may be closed by the time the
+	 * table is output; iterables are still read when the table is output.
+	 */
+	void readOneShotSource() {
+		if (source != null && !source.isReusable()) {
+			readSource();
+		}
+	}
+	
+	/**
+	 * This method reads the rows of the source (up to the row limit) and counts the remaining rows for the trailer.
+	 */
+	private void readSource() {
+		RowSource rowSource = source;
+		source = null;
 		
-		// All the objects are serialized and concatenated
-		for (int i = 0; i < values.length; i++) {
-			if (i != 0) {
-				entryString += ",";
+		try {
+			// The columns are created from the headers of the source
+			String[] sourceHeaders = rowSource.readHeaders();
+			initColumns(objectColumns(sourceHeaders.length));
+			setHeaders(sourceHeaders);
+			
+			// The rows up to the limit are added
+			while (rows < maxRows && rowSource.hasNext()) {
+				addValues(rowSource.next());
+			}
+			
+			// The remaining rows are counted (up to a limit, if the source does not know their number)
+			long remaining = rowSource.getRemaining(rows);
+			if (remaining < 0) {
+				remaining = 0;
+				while (remaining < maxCountedRows && rowSource.hasNext()) {
+					rowSource.skip();
+					remaining++;
+				}
+				if (remaining == maxCountedRows && rowSource.hasNext()) {
+					addValues("... more than ${remaining} more rows".toString());
+					return;
+				}
 			}
-			// Each object is serialized using JSON
-			entryString += jsonUtils.serialize(values[i]);			
+			if (remaining > 0) {
+				addValues("... ${remaining} more ${remaining == 1 ? 'row' : 'rows'}".toString());
+			}
+		} finally {
+			rowSource.close();
+		}
+	}
+	
+	/**
+	 * This method adds a row read from a source. Missing values are null, values beyond the column count are
+	 * ignored and values that are not serializable are output as strings.
+	 * 
+	 * @param entry Row (an array, an iterable of the column values or a single value)
+	 */
+	private void addValues(Object entry) {
+		Object[] values;
+		if (entry instanceof Object[]) {
+			values = (Object[]) entry;
+		} else if (entry instanceof Collection) {
+			values = ((Collection) entry).toArray();
+		} else if (entry instanceof Iterable) {
+			values = ((Iterable) entry).toList().toArray();
+		} else {
+			values = [entry] as Object[];
 		}
 		
-		// The resulting string is put in parentheses and returned
-		entryString = "[" + entryString + "]";		
-		return entryString;
+		// The values are converted and added like the values of a row added directly
+		Serializable[] entries = new Serializable[Math.min(values.length, columns)];
+		for (int i = 0; i < entries.length; i++) {
+			Object value = values[i];
+			if (value != null) {
+				entries[i] = value instanceof Serializable ? (Serializable) value : String.valueOf(value);
+			}
+		}
+		addRow(entries);
+	}
+	
+	/**
+	 * This method returns the column with the given index.
+	 * 
+	 * @param column Column index
+	 * @return Column
+	 */
+	private Column getColumn(int column) {
+		// If the index is out of range, an exception is thrown
+		if (column < 0 || column >= columns) {
+			throw new IllegalArgumentException("The column index must be smaller than the column count of the table!");
+		}
+		return data[column];
+	}
+	
+	/**
+	 * This method returns the index of the latest row.
+	 * 
+	 * @return Row index
+	 */
+	private int getLatestRow() {
+		// If no row was added yet, an exception is thrown
+		if (rows == 0) {
+			throw new IllegalStateException("A row must be added before its values are set!");
+		}
+		return rows - 1;
+	}
+	
+	/**
+	 * This method creates the column types of a table with columns of any serializable objects.
+	 * 
+	 * @param columns Number of columns
+	 * @return Column types
+	 */
+	private static ColumnType[] objectColumns(int columns) {
+		// Input variables are tested
+		if (columns <= 0) {
+			throw new IllegalArgumentException("Only numbers greater than 0 are allowed as column counts!");
+		}
+		
+		ColumnType[] columnTypes = new ColumnType[columns];
+		Arrays.fill(columnTypes, ColumnType.OBJECT);
+		return columnTypes;
+	}
+	
+	/**
+	 * This method creates a column of the given type.
+	 * 
+	 * @param type Value type
+	 * @return Column
+	 */
+	private static Column createColumn(ColumnType type) {
+		switch (type) {
+			case ColumnType.INT:
+				return new IntColumn();
+			case ColumnType.LONG:
+				return new LongColumn();
+			case ColumnType.DOUBLE:
+				return new DoubleColumn();
+			case ColumnType.BOOLEAN:
+				return new BooleanColumn();
+			case ColumnType.STRING:
+				return new StringColumn();
+			default:
+				return new ObjectColumn();
+		}
+	}
+	
+	/**
+	 * This class represents a column. The values are stored in chunks of 1024 rows that are allocated when the
+	 * first value of the chunk is set; rows without a value are output as null.
+	 */
+	private static abstract class Column implements Serializable {
+		/**
+		 * Rows for which a value was set
+		 */
+		protected final BitSet present = new BitSet();
+		
+		/**
+		 * Value chunks (typed arrays, null until a value of the chunk is set)
+		 */
+		protected Object[] chunks = new Object[4];
+		
+		/**
+		 * This method returns the chunk containing the given row (allocating it if necessary) and marks the row
+		 * as having a value.
+		 * 
+		 * @param row Row index
+		 * @return Chunk
+		 */
+		protected Object chunkFor(int row) {
+			int index = row >>> chunkShift;
+			
+			// The chunk array is doubled if necessary
+			if (index >= chunks.length) {
+				chunks = Arrays.copyOf(chunks, Math.max(chunks.length * 2, index + 1));
+			}
+			Object chunk = chunks[index];
+			if (chunk == null) {
+				chunk = newChunk();
+				chunks[index] = chunk;
+			}
+			present.set(row);
+			return chunk;
+		}
+		
+		/**
+		 * This method returns the chunk containing the given row (which has a value).
+		 * 
+		 * @param row Row index
+		 * @return Chunk
+		 */
+		protected Object chunkOf(int row) {
+			return chunks[row >>> chunkShift];
+		}
+		
+		/**
+		 * This method creates an empty chunk.
+		 * 
+		 * @return Typed array of the chunk size
+		 */
+		protected abstract Object newChunk();
+		
+		/**
+		 * This method returns the value type of the column.
+		 * 
+		 * @return Value type
+		 */
+		abstract ColumnType getType();
+		
+		/**
+		 * This method checks whether an object value matches the column type.
+		 * 
+		 * @param value Value (not null)
+		 * @return True if the value can be stored in the column, false otherwise
+		 */
+		abstract boolean accepts(Serializable value);
+		
+		/**
+		 * This method sets an object value (the value must match the column type).
+		 * 
+		 * @param row Row index
+		 * @param value Value (not null)
+		 */
+		abstract void setObject(int row, Serializable value);
+		
+		/**
+		 * This method writes the JSON value of a row.
+		 * 
+		 * @param out String builder to write to
+		 * @param row Row index
+		 * @param jsonUtils JSON utility object
+		 */
+		abstract void write(StringBuilder out, int row, JSONUtils jsonUtils);
+		
+		/**
+		 * This method sets an integer value.
+		 * 
+		 * @param row Row index
+		 * @param value Value
+		 */
+		void setInt(int row, int value) {
+			throw typeMismatch("int");
+		}
+		
+		/**
+		 * This method sets a long integer value.
+		 * 
+		 * @param row Row index
+		 * @param value Value
+		 */
+		void setLong(int row, long value) {
+			throw typeMismatch("long");
+		}
+		
+		/**
+		 * This method sets a floating point value.
+		 * 
+		 * @param row Row index
+		 * @param value Value
+		 */
+		void setDouble(int row, double value) {
+			throw typeMismatch("double");
+		}
+		
+		/**
+		 * This method sets a boolean value.
+		 * 
+		 * @param row Row index
+		 * @param value Value
+		 */
+		void setBoolean(int row, boolean value) {
+			throw typeMismatch("boolean");
+		}
+		
+		/**
+		 * This method creates the exception for a value that does not match the column type.
+		 * 
+		 * @param valueType Type of the value
+		 * @return Exception
+		 */
+		protected IllegalArgumentException typeMismatch(String valueType) {
+			return new IllegalArgumentException("A ${valueType} value cannot be stored in a ${getType()} column!".toString());
+		}
+	}
+	
+	/**
+	 * This class represents a column of integer values.
+	 */
+	private static class IntColumn extends Column {
+		protected Object newChunk() { return new int[chunkMask + 1]; }
+		
+		ColumnType getType() { return ColumnType.INT; }
+		
+		void setInt(int row, int value) {
+			((int[]) chunkFor(row))[row & chunkMask] = value;
+		}
+		
+		boolean accepts(Serializable value) {
+			return value instanceof Integer;
+		}
+		
+		void setObject(int row, Serializable value) {
+			if (!accepts(value)) {
+				throw typeMismatch(value.getClass().getSimpleName());
+			}
+			setInt(row, (Integer) value);
+		}
+		
+		void write(StringBuilder out, int row, JSONUtils jsonUtils) {
+			if (present.get(row)) {
+				out.append(((int[]) chunkOf(row))[row & chunkMask]);
+			} else {
+				out.append("null");
+			}
+		}
+	}
+	
+	/**
+	 * This class represents a column of long integer values (integer values are widened).
+	 */
+	private static class LongColumn extends Column {
+		protected Object newChunk() { return new long[chunkMask + 1]; }
+		
+		ColumnType getType() { return ColumnType.LONG; }
+		
+		void setInt(int row, int value) {
+			setLong(row, value);
+		}
+		
+		void setLong(int row, long value) {
+			((long[]) chunkFor(row))[row & chunkMask] = value;
+		}
+		
+		boolean accepts(Serializable value) {
+			return value instanceof Long || value instanceof Integer;
+		}
+		
+		void setObject(int row, Serializable value) {
+			if (!accepts(value)) {
+				throw typeMismatch(value.getClass().getSimpleName());
+			}
+			setLong(row, ((Number) value).longValue());
+		}
+		
+		void write(StringBuilder out, int row, JSONUtils jsonUtils) {
+			if (present.get(row)) {
+				out.append(((long[]) chunkOf(row))[row & chunkMask]);
+			} else {
+				out.append("null");
+			}
+		}
+	}
+	
+	/**
+	 * This class represents a column of floating point values (integer values are converted).
+	 */
+	private static class DoubleColumn extends Column {
+		protected Object newChunk() { return new double[chunkMask + 1]; }
+		
+		ColumnType getType() { return ColumnType.DOUBLE; }
+		
+		void setInt(int row, int value) {
+			setDouble(row, value);
+		}
+		
+		void setLong(int row, long value) {
+			setDouble(row, value);
+		}
+		
+		void setDouble(int row, double value) {
+			((double[]) chunkFor(row))[row & chunkMask] = value;
+		}
+		
+		boolean accepts(Serializable value) {
+			return value instanceof Double || value instanceof Long || value instanceof Integer;
+		}
+		
+		void setObject(int row, Serializable value) {
+			if (!accepts(value)) {
+				throw typeMismatch(value.getClass().getSimpleName());
+			}
+			setDouble(row, ((Number) value).doubleValue());
+		}
+		
+		void write(StringBuilder out, int row, JSONUtils jsonUtils) {
+			if (present.get(row)) {
+				out.append(((double[]) chunkOf(row))[row & chunkMask]);
+			} else {
+				out.append("null");
+			}
+		}
+	}
+	
+	/**
+	 * This class represents a column of boolean values.
+	 */
+	private static class BooleanColumn extends Column {
+		protected Object newChunk() { return new boolean[chunkMask + 1]; }
+		
+		ColumnType getType() { return ColumnType.BOOLEAN; }
+		
+		void setBoolean(int row, boolean value) {
+			((boolean[]) chunkFor(row))[row & chunkMask] = value;
+		}
+		
+		boolean accepts(Serializable value) {
+			return value instanceof Boolean;
+		}
+		
+		void setObject(int row, Serializable value) {
+			if (!accepts(value)) {
+				throw typeMismatch(value.getClass().getSimpleName());
+			}
+			setBoolean(row, (Boolean) value);
+		}
+		
+		void write(StringBuilder out, int row, JSONUtils jsonUtils) {
+			if (present.get(row)) {
+				out.append(((boolean[]) chunkOf(row))[row & chunkMask]);
+			} else {
+				out.append("null");
+			}
+		}
+	}
+	
+	/**
+	 * This class represents a column of string values.
+	 */
+	private static class StringColumn extends Column {
+		protected Object newChunk() { return new String[chunkMask + 1]; }
+		
+		ColumnType getType() { return ColumnType.STRING; }
+		
+		boolean accepts(Serializable value) {
+			return value instanceof String;
+		}
+		
+		void setObject(int row, Serializable value) {
+			if (!accepts(value)) {
+				throw typeMismatch(value.getClass().getSimpleName());
+			}
+			((String[]) chunkFor(row))[row & chunkMask] = (String) value;
+		}
+		
+		void write(StringBuilder out, int row, JSONUtils jsonUtils) {
+			JSONWriter.writeString(out, present.get(row) ? ((String[]) chunkOf(row))[row & chunkMask] : null);
+		}
+	}
+	
+	/**
+	 * This class represents a column of any serializable objects. Strings, integers, long integers, floating point
+	 * and boolean values are written directly, other objects are serialized using JSON.
+	 */
+	private static class ObjectColumn extends Column {
+		protected Object newChunk() { return new Serializable[chunkMask + 1]; }
+		
+		ColumnType getType() { return ColumnType.OBJECT; }
+		
+		void setInt(int row, int value) {
+			setObject(row, value);
+		}
+		
+		void setLong(int row, long value) {
+			setObject(row, value);
+		}
+		
+		void setDouble(int row, double value) {
+			setObject(row, value);
+		}
+		
+		void setBoolean(int row, boolean value) {
+			setObject(row, value);
+		}
+		
+		boolean accepts(Serializable value) {
+			return true;
+		}
+		
+		void setObject(int row, Serializable value) {
+			((Serializable[]) chunkFor(row))[row & chunkMask] = value;
+		}
+		
+		void write(StringBuilder out, int row, JSONUtils jsonUtils) {
+			Serializable value = present.get(row) ? ((Serializable[]) chunkOf(row))[row & chunkMask] : null;
+			if (value == null) {
+				out.append("null");
+			} else if (value instanceof String) {
+				JSONWriter.writeString(out, (String) value);
+			} else if (value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Boolean) {
+				// Simple values are written the way the JSON serializer writes them
+				out.append(value.toString());
+			} else {
+				// Each other object is serialized using JSON
+				jsonUtils.serialize(value, out);
+			}
+		}
+	}
+	
+	/**
+	 * This class represents a source the rows of a table are read from.
+	 */
+	private static abstract class RowSource {
+		/**
+		 * This method reads the table headers.
+		 * 
+		 * @return Table header strings
+		 */
+		abstract String[] readHeaders();
+		
+		/**
+		 * This method checks whether there is another row.
+		 * 
+		 * @return True if there is another row, false otherwise
+		 */
+		abstract boolean hasNext();
+		
+		/**
+		 * This method reads the next row.
+		 * 
+		 * @return Row (an array, an iterable of the column values or a single value)
+		 */
+		abstract Object next();
+		
+		/**
+		 * This method skips the next row (it is only counted).
+		 */
+		void skip() {
+			next();
+		}
+		
+		/**
+		 * This method returns the number of rows after the ones that were read, if the source knows it.
+		 * 
+		 * @param read Number of rows that were read
+		 * @return Number of remaining rows (-1 if it is unknown)
+		 */
+		long getRemaining(int read) {
+			return -1;
+		}
+		
+		/**
+		 * This method checks whether the rows can still be read later (the source is not consumed or closed by others).
+		 * 
+		 * @return True if the source can be read later, false if it has to be read right away
+		 */
+		boolean isReusable() {
+			return false;
+		}
+		
+		/**
+		 * This method releases the source after the rows were read.
+		 */
+		void close() { }
+	}
+	
+	/**
+	 * This class reads the rows of an iterable or a stream.
+	 */
+	private static class IteratorSource extends RowSource {
+		/**
+		 * Rows of the table (null for a stream)
+		 */
+		private final Iterable<?> iterable;
+		
+		/**
+		 * Rows of the table (null for an iterable)
+		 */
+		private final Stream<?> stream;
+		
+		/**
+		 * Table header strings
+		 */
+		private final String[] headers;
+		
+		/**
+		 * Iterator over the rows (created when the rows are read)
+		 */
+		private Iterator<?> iterator = null;
+		
+		/**
+		 * This constructor sets the rows and the headers.
+		 * 
+		 * @param iterable Rows of the table (null for a stream)
+		 * @param stream Rows of the table (null for an iterable)
+		 * @param headers Table header strings
+		 */
+		IteratorSource(Iterable<?> iterable, Stream<?> stream, String[] headers) {
+			// If no rows or headers are given, an exception is thrown
+			if ((iterable == null && stream == null) || headers == null || headers.length == 0) {
+				throw new IllegalArgumentException("The rows and at least one header must be given!");
+			}
+			this.iterable = iterable;
+			this.stream = stream;
+			this.headers = headers;
+		}
+		
+		boolean isReusable() {
+			return iterable != null;
+		}
+		
+		String[] readHeaders() {
+			iterator = iterable != null ? iterable.iterator() : stream.iterator();
+			return headers;
+		}
+		
+		boolean hasNext() {
+			return iterator.hasNext();
+		}
+		
+		Object next() {
+			return iterator.next();
+		}
+		
+		long getRemaining(int read) {
+			// The size of collections is known
+			return iterable instanceof Collection ? Math.max(((Collection) iterable).size() - read, 0) : -1;
+		}
+		
+		void close() {
+			if (stream != null) {
+				stream.close();
+			}
+		}
+	}
+	
+	/**
+	 * This class reads the rows of a JDBC result set.
+	 */
+	private static class ResultSetSource extends RowSource {
+		/**
+		 * Result set
+		 */
+		private final ResultSet resultSet;
+		
+		/**
+		 * Number of columns of the result set
+		 */
+		private int columnCount = 0;
+		
+		/**
+		 * Flag indicating whether the result set was moved to the next row already (by hasNext())
+		 */
+		private boolean advanced = false;
+		
+		/**
+		 * Flag indicating whether the result set is positioned on a row
+		 */
+		private boolean onRow = false;
+		
+		/**
+		 * This constructor sets the result set.
+		 * 
+		 * @param resultSet Result set
+		 */
+		ResultSetSource(ResultSet resultSet) {
+			// If no result set is given, an exception is thrown
+			if (resultSet == null) {
+				throw new IllegalArgumentException("The result set must be given!");
+			}
+			this.resultSet = resultSet;
+		}
+		
+		String[] readHeaders() {
+			// The column labels are taken from the meta data
+			ResultSetMetaData metaData = resultSet.getMetaData();
+			columnCount = metaData.getColumnCount();
+			String[] headers = new String[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				headers[i] = metaData.getColumnLabel(i + 1);
+			}
+			return headers;
+		}
+		
+		boolean hasNext() {
+			if (!advanced) {
+				onRow = resultSet.next();
+				advanced = true;
+			}
+			return onRow;
+		}
+		
+		void skip() {
+			hasNext();
+			advanced = false;
+		}
+		
+		Object next() {
+			skip();
+			
+			// The values of the current row are read
+			Object[] values = new Object[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				values[i] = resultSet.getObject(i + 1);
+			}
+			return values;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.profile
+
+import java.util.ArrayList
+import java.util.Collections
+import java.util.List
+
+import firep4j.tools.Filter
+import firep4j.tools.JSONUtils
+import firep4j.tools.TraceFilterMatcher
+
+/**
+ * This class contains the settings of a FireP4j profile in compiled form. It is created once per profile
+ * and shared by all FireP4j instances, so it must never be modified after construction.
+ * Instances that change their settings work on copies (copy-on-write).
+ */
+class CompiledProfile {
+	/**
+	 * Maximum number of class name verdicts cached by a trace filter matcher
+	 */
+	public static final int maxCachedVerdicts = 1024
+
+	/**
+	 * The profile the settings were taken from
+	 */
+	private final FireP4jProfile profile
+
+	/**
+	 * Trace filters (duplicates removed, unmodifiable)
+	 */
+	private final List<Filter> traceFilters
+
+	/**
+	 * Matcher compiled from the trace filters
+	 */
+	private final TraceFilterMatcher traceFilterMatcher
+
+	/**
+	 * JSON utility object containing the compiled path filters (must not be modified)
+	 */
+	private final JSONUtils jsonUtils
+
+	/**
+	 * This constructor compiles the settings of the given profile.
+	 *
+	 * @param profile FireP4j profile (null for no settings)
+	 */
+	public CompiledProfile(FireP4jProfile profile) {
+		this.profile = profile
+
+		List<Filter> filters = new ArrayList<Filter>()
+		JSONUtils utils = new JSONUtils()
+
+		if (profile != null) {
+			// Trace filters are taken over (duplicates are only taken once)
+			if (profile.getTraceFilters() != null) {
+				for (Filter filter : profile.getTraceFilters()) {
+					if (!filters.any { it.type == filter.type && it.value == filter.value }) {
+						filters.add(new Filter(type: filter.type, value: filter.value))
+					}
+				}
+			}
+
+			// Path filters are compiled into the JSON utility object
+			if (profile.getPathFilters() != null) {
+				for (String pathFilter : profile.getPathFilters()) {
+					utils.addPathFilter(pathFilter)
+				}
+			}
+		}
+
+		traceFilters = Collections.unmodifiableList(filters)
+		traceFilterMatcher = new TraceFilterMatcher(traceFilters, maxCachedVerdicts)
+		jsonUtils = utils
+	}
+
+	// Getters
+
+	/**
+	 * This method returns the profile the settings were taken from.
+	 *
+	 * @return FireP4j profile
+	 */
+	public FireP4jProfile getProfile() { profile }
+
+	/**
+	 * This method returns the trace filters of the profile.
+	 *
+	 * @return Unmodifiable trace filter list
+	 */
+	public List<Filter> getTraceFilters() { traceFilters }
+
+	/**
+	 * This method returns the matcher compiled from the trace filters of the profile.
+	 *
+	 * @return Trace filter matcher
+	 */
+	public TraceFilterMatcher getTraceFilterMatcher() { traceFilterMatcher }
+
+	/**
+	 * This method returns the JSON utility object containing the path filters of the profile.
+	 * It is shared and must not be modified (@see JSONUtils(JSONUtils) for creating a copy).
+	 *
+	 * @return Shared JSON utility object
+	 */
+	public JSONUtils getJsonUtils() { jsonUtils }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util.Base64
+import java.util.concurrent.ConcurrentHashMap
+
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * This class creates and verifies signed activation tokens. A token looks like <code>subject.expiry.signature</code>:
+ * the subject names the engineer (it must not contain dots), the expiry is given in seconds since the epoch and
+ * the signature is the URL-safe Base64 encoded HMAC-SHA256 of <code>subject.expiry</code>.
+ * Verified tokens are cached until they expire, so a token is only checked cryptographically once.
+ *
+ * @author Thomas Endres
+ */
+class ActivationTokens {
+	/**
+	 * MAC algorithm used for the signatures
+	 */
+	private static final String algorithm = "HmacSHA256"
+
+	/**
+	 * Secret key of the signatures
+	 */
+	private final SecretKeySpec key
+
+	/**
+	 * Maximum number of cached tokens
+	 */
+	private final int maxEntries
+
+	/**
+	 * Verified tokens (token -> expiry in milliseconds)
+	 */
+	private final ConcurrentHashMap<String, Long> entries = new ConcurrentHashMap<String, Long>()
+
+	/**
+	 * MAC instance of every thread (MAC instances are not thread-safe, but expensive to create)
+	 */
+	private final ThreadLocal<Mac> macs
+
+	/**
+	 * This constructor initializes the token verification.
+	 *
+	 * @param secret Secret key of the signatures
+	 * @param maxEntries Maximum number of cached tokens
+	 */
+	public ActivationTokens(byte[] secret, int maxEntries) {
+		// If no secret is given, an exception is thrown
+		if (secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("The activation secret must be set!")
+		}
+
+		// Class variables are set
+		this.key = new SecretKeySpec(secret.clone(), algorithm)
+		this.maxEntries = maxEntries
+		this.macs = ThreadLocal.withInitial {
+			Mac mac = Mac.getInstance(algorithm)
+			mac.init(key)
+			mac
+		}
+	}
+
+	/**
+	 * This method creates a token.
+	 *
+	 * @param subject Subject of the token (e.g. the name of the engineer, without dots)
+	 * @param expiry Expiry in seconds since the epoch
+	 * @return Signed token
+	 */
+	public String create(String subject, long expiry) {
+		// If the subject contains a dot, an exception is thrown
+		if (subject == null || subject.indexOf('.') >= 0) {
+			throw new IllegalArgumentException("The subject must be set and must not contain dots!")
+		}
+
+		String payload = subject + "." + expiry
+		payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload))
+	}
+
+	/**
+	 * This method checks whether the given token is signed correctly and not expired.
+	 *
+	 * @param token Token (may be null)
+	 * @param now Current time in milliseconds since the epoch
+	 * @return True if the token is valid, false otherwise
+	 */
+	public boolean verify(String token, long now) {
+		if (token == null) {
+			return false
+		}
+
+		// A token that was verified before is only checked for its expiry
+		Long expiry = entries.get(token)
+		if (expiry != null) {
+			if (now < expiry) {
+				return true
+			}
+			entries.remove(token)
+			return false
+		}
+
+		// The token is parsed (the expiry is checked before the signature, which is the expensive part)
+		int signatureStart = token.lastIndexOf('.')
+		int expiryStart = signatureStart > 0 ? token.lastIndexOf('.', signatureStart - 1) : -1
+		if (expiryStart < 0) {
+			return false
+		}
+		long expiryMillis
+		try {
+			expiryMillis = Long.parseLong(token.substring(expiryStart + 1, signatureStart)) * 1000L
+		} catch (NumberFormatException e) {
+			return false
+		}
+		if (now >= expiryMillis) {
+			return false
+		}
+
+		// The signature is compared in constant time
+		byte[] signature
+		try {
+			signature = Base64.getUrlDecoder().decode(token.substring(signatureStart + 1))
+		} catch (IllegalArgumentException e) {
+			return false
+		}
+		if (!MessageDigest.isEqual(signature, sign(token.substring(0, signatureStart)))) {
+			return false
+		}
+
+		// The cache is bounded: if it is full, it is simply started over (only valid tokens are cached)
+		if (entries.size() >= maxEntries) {
+			entries.clear()
+		}
+		entries.put(token, expiryMillis)
+		true
+	}
+
+	/**
+	 * This method computes the signature of a payload.
+	 *
+	 * @param payload Token payload (subject and expiry)
+	 * @return Signature
+	 */
+	private byte[] sign(String payload) {
+		macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8))
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+/**
+ * This class keeps track of the exceptions seen recently by all requests. Exceptions are identified by a fingerprint
+ * of their type and their top stack frames (the message is not included, it often contains request specific values).
+ * Once the trace of an exception was output, further occurrences are only counted until the trace interval passed.
+ * The recent fingerprints are kept in a bounded map (the least recently seen fingerprint is evicted first).
+ *
+ * @author Thomas Endres
+ */
+class ExceptionFingerprints {
+	/**
+	 * Length of the counting window in nanoseconds (one minute)
+	 */
+	public static final long window = 60000000000L
+
+	/**
+	 * Number of top stack frames included in the fingerprint
+	 */
+	private final int topFrames
+
+	/**
+	 * Interval in nanoseconds after which the full trace of a known exception is output again (0 to always output it)
+	 */
+	private volatile long traceInterval
+
+	/**
+	 * Recently seen exceptions by fingerprint (in access order, bounded)
+	 */
+	private final LinkedHashMap<Long, Sighting> sightings
+
+	/**
+	 * This constructor initializes the fingerprint tracking.
+	 *
+	 * @param topFrames Number of top stack frames included in the fingerprint
+	 * @param maxFingerprints Maximum number of fingerprints that are kept
+	 * @param traceInterval Interval in nanoseconds after which the full trace is output again
+	 */
+	public ExceptionFingerprints(int topFrames, int maxFingerprints, long traceInterval) {
+		this.topFrames = topFrames
+		this.traceInterval = traceInterval
+
+		// The least recently seen fingerprint is evicted once the map is full
+		this.sightings = new LinkedHashMap<Long, Sighting>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Long, Sighting> eldest) {
+				size() > maxFingerprints
+			}
+		}
+	}
+
+	/**
+	 * This method computes the fingerprint of an exception (64 bit FNV-1a over the class name and the top frames).
+	 *
+	 * @param throwable Exception
+	 * @return Fingerprint
+	 */
+	public long fingerprint(Throwable throwable) {
+		// FNV offset basis (0xcbf29ce484222325 as a signed value)
+		long hash = addText(-3750763034362895579L, throwable.getClass().getName())
+
+		StackTraceElement[] stackTrace = throwable.getStackTrace()
+		int count = Math.min(stackTrace.length, topFrames)
+		for (int i = 0; i < count; i++) {
+			hash = addText(hash, stackTrace[i].getClassName())
+			hash = addText(hash, stackTrace[i].getMethodName())
+			hash = (hash ^ stackTrace[i].getLineNumber()) * 0x100000001b3L
+		}
+		hash
+	}
+
+	/**
+	 * This method records an occurrence of an exception and decides whether its full trace is output. The trace only
+	 * counts as output once it was written (@see #markTraced(long, long)).
+	 *
+	 * @param fingerprint Fingerprint of the exception
+	 * @param now Current time in nanoseconds
+	 * @param traceAllowed False if the occurrence is only counted (it is not output at all)
+	 * @return 0 if the full trace is output, otherwise the number of occurrences in the current window
+	 */
+	public synchronized int record(long fingerprint, long now, boolean traceAllowed) {
+		Sighting sighting = sightings.get(fingerprint)
+		if (sighting == null) {
+			sighting = new Sighting(now)
+			sightings.put(fingerprint, sighting)
+		}
+
+		// The counting window is started over after a minute
+		if (now - sighting.windowStart >= window) {
+			sighting.windowStart = now
+			sighting.count = 0
+		}
+		sighting.count++
+
+		// The full trace is output until it was written for the first time and then once per trace interval
+		if (traceAllowed && (!sighting.traced || now - sighting.lastTrace >= traceInterval)) {
+			return 0
+		}
+		sighting.count
+	}
+
+	/**
+	 * This method records that the full trace of an exception was written.
+	 *
+	 * @param fingerprint Fingerprint of the exception
+	 * @param now Current time in nanoseconds
+	 */
+	public synchronized void markTraced(long fingerprint, long now) {
+		Sighting sighting = sightings.get(fingerprint)
+		if (sighting != null) {
+			sighting.traced = true
+			sighting.lastTrace = now
+		}
+	}
+
+	/**
+	 * This method sets the interval after which the full trace of a known exception is output again.
+	 *
+	 * @param traceInterval Interval in nanoseconds (0 to always output the full trace)
+	 */
+	public void setTraceInterval(long traceInterval) {
+		this.traceInterval = traceInterval
+	}
+
+	/**
+	 * This method returns the interval after which the full trace of a known exception is output again.
+	 *
+	 * @return Interval in nanoseconds
+	 */
+	public long getTraceInterval() {
+		traceInterval
+	}
+
+	/**
+	 * This method returns the number of fingerprints that are kept.
+	 *
+	 * @return Number of fingerprints
+	 */
+	public synchronized int size() {
+		sightings.size()
+	}
+
+	/**
+	 * This method adds the characters of a text to an FNV-1a hash.
+	 *
+	 * @param hash Hash so far
+	 * @param text Text to add
+	 * @return New hash
+	 */
+	private static long addText(long hash, String text) {
+		int length = text.length()
+		for (int i = 0; i < length; i++) {
+			hash ^= (long) text.charAt(i)
+			hash *= 0x100000001b3L
+		}
+		hash
+	}
+
+	/**
+	 * This class represents the recent occurrences of an exception.
+	 */
+	private static class Sighting {
+		/**
+		 * Start of the current counting window in nanoseconds
+		 */
+		long windowStart
+
+		/**
+		 * Number of occurrences in the current counting window
+		 */
+		int count = 0
+
+		/**
+		 * Flag indicating whether the full trace was output yet
+		 */
+		boolean traced = false
+
+		/**
+		 * Time the full trace was output last in nanoseconds
+		 */
+		long lastTrace = 0
+
+		/**
+		 * This constructor starts the counting window.
+		 *
+		 * @param now Current time in nanoseconds
+		 */
+		Sighting(long now) {
+			this.windowStart = now
+		}
+	}
+}
@@ -13,7 +13,7 @@
  * implied. See the License for the specific language governing
  * permissions and limitations under the License.
  */
-package firep4j.tools
+package firep4j.tools
 
 /**
  * This class represents a simple filter that contains different containment filter types.
@@ -40,7 +40,11 @@ class Filter implements Serializable {
 		/**
 		 * A filter where the expression equals the given value
 		 */
-		EQUALS
+		EQUALS,
+		/**
+		 * A filter where the expression matches the given regular expression (as a whole)
+		 */
+		REGEX
 	}
 	
 	/**
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+/**
+ * This class keeps track of the header bytes emitted for one response. Messages may only use a share of the budget
+ * depending on their priority, so low-priority messages are dropped first when the budget runs out.
+ * A part of the budget is reserved for the summary of the dropped messages.
+ *
+ * @author Thomas Endres
+ */
+class HeaderBudget {
+	/**
+	 * Bytes reserved for the summary message
+	 */
+	public static final int reservedBytes = 512
+
+	/**
+	 * Maximum number of header bytes (-1 for an unlimited budget)
+	 */
+	private int maxBytes
+
+	/**
+	 * Number of header bytes used so far
+	 */
+	private int usedBytes = 0
+
+	/**
+	 * Number of messages dropped so far
+	 */
+	private int droppedCount = 0
+
+	/**
+	 * Number of bytes of the dropped messages (only of the messages that were serialized before being dropped)
+	 */
+	private int droppedBytes = 0
+
+	/**
+	 * This constructor initializes the budget.
+	 *
+	 * @param maxBytes Maximum number of header bytes (-1 for an unlimited budget)
+	 */
+	public HeaderBudget(int maxBytes) {
+		this.maxBytes = maxBytes
+	}
+
+	/**
+	 * This method checks whether a message of the given priority can still be sent (before it is serialized).
+	 *
+	 * @param share Share of the budget (in percent) messages of this priority may use
+	 * @return True if the message may be sent, false if it should be dropped
+	 */
+	public synchronized boolean hasRoom(int share) {
+		maxBytes < 0 || usedBytes < getLimit(share)
+	}
+
+	/**
+	 * This method reserves the given number of bytes for a message (if they fit into the share of the budget).
+	 *
+	 * @param bytes Header bytes of the message
+	 * @param share Share of the budget (in percent) messages of this priority may use
+	 * @return True if the bytes were reserved, false if the message should be dropped
+	 */
+	public synchronized boolean reserve(int bytes, int share) {
+		if (maxBytes >= 0 && usedBytes + bytes > getLimit(share)) {
+			return false
+		}
+		usedBytes += bytes
+		true
+	}
+
+	/**
+	 * This method gives back bytes that were reserved for a message that is not output after all.
+	 *
+	 * @param bytes Header bytes of the message
+	 */
+	public synchronized void release(int bytes) {
+		usedBytes -= bytes
+	}
+
+	/**
+	 * This method records a dropped message.
+	 *
+	 * @param bytes Header bytes of the message (0 if it was dropped before being serialized)
+	 */
+	public synchronized void drop(int bytes) {
+		droppedCount++
+		droppedBytes += bytes
+	}
+
+	/**
+	 * This method returns the number of header bytes messages of the given priority may use.
+	 *
+	 * @param share Share of the budget (in percent)
+	 * @return Byte limit
+	 */
+	private int getLimit(int share) {
+		((long) Math.max(maxBytes - reservedBytes, 0) * share).intdiv(100) as int
+	}
+
+	/**
+	 * This method sets the maximum number of header bytes.
+	 *
+	 * @param maxBytes Maximum number of header bytes (-1 for an unlimited budget)
+	 */
+	public synchronized void setMaxBytes(int maxBytes) {
+		this.maxBytes = maxBytes
+	}
+
+	// Getters
+
+	/**
+	 * This method returns the maximum number of header bytes.
+	 *
+	 * @return Maximum number of header bytes (-1 for an unlimited budget)
+	 */
+	public synchronized int getMaxBytes() { maxBytes }
+
+	/**
+	 * This method returns the number of header bytes used so far.
+	 *
+	 * @return Used header bytes
+	 */
+	public synchronized int getUsedBytes() { usedBytes }
+
+	/**
+	 * This method returns the number of messages dropped so far.
+	 *
+	 * @return Number of dropped messages
+	 */
+	public synchronized int getDroppedCount() { droppedCount }
+
+	/**
+	 * This method returns the number of bytes of the dropped messages.
+	 *
+	 * @return Bytes of the dropped messages
+	 */
+	public synchronized int getDroppedBytes() { droppedBytes }
+}
@@ -13,7 +13,7 @@
  * implied. See the License for the specific language governing
  * permissions and limitations under the License.
  */
-package firep4j.tools
+package firep4j.tools
 
 
 import flexjson.*
@@ -38,6 +38,16 @@ public class JSONUtils {
 		LinkedList<String> filters = new LinkedList<String>()
 	}
 	
+	/**
+	 * This constructor creates an independent copy of the given JSON utility object (including filters and max depth).
+	 * 
+	 * @param jsonUtils JSON utility object to copy
+	 */
+	public JSONUtils(JSONUtils jsonUtils) {
+		// The visitor class is copied
+		visitor = jsonUtils.visitor.copy()
+	}
+	
 	/**
 	 * This method serializes the given object using JSON (and the FlexJSON library).
 	 * 
@@ -57,6 +67,24 @@ public class JSONUtils {
 		objectString
 	}
 	
+	/**
+	 * This method serializes the given object using JSON and appends it to the given string builder.
+	 * 
+	 * @param object Object to be serialized
+	 * @param out String builder the serialized value is appended to
+	 */
+	public void serialize(Object object, StringBuilder out) {
+		int length = out.length()
+		
+		// The object is serialized
+		JSONSerializer.serialize(visitor, object, out)
+		
+		// The empty string is put in parentheses
+		if (out.length() == length) {
+			out.append("\"\"")
+		}
+	}
+	
 	/**
 	 * This method sets the max depth for JSON serialization (-1 for infinite depth).
 	 * 
@@ -71,6 +99,15 @@ public class JSONUtils {
 		visitor.setMaxDepth(maxDepth)
 	}
 	
+	/**
+	 * This method returns the max depth for JSON serialization (-1 for infinite depth).
+	 * 
+	 * @return Maximum depth
+	 */
+	public int getMaxDepth() {
+		visitor.getMaxDepth()
+	}
+	
 	/**
 	 * This method sets an object filter.
 	 * 
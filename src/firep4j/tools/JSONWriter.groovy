@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+import flexjson.visitors.ObjectVisitor
+import groovy.transform.CompileStatic
+
+/**
+ * This class writes JSON values directly into a string builder (without serializing them through a visitor).
+ * Strings are escaped the same way the FlexJSON visitors escape them.
+ *
+ * @author Thomas Endres
+ */
+@CompileStatic
+class JSONWriter {
+	/**
+	 * This method writes a JSON string value (or null).
+	 *
+	 * @param out String builder to write to
+	 * @param value String value (may be null)
+	 */
+	public static void writeString(StringBuilder out, String value) {
+		if (value == null) {
+			out.append("null")
+			return
+		}
+
+		// The string is enclosed in quotes
+		out.append('"' as char)
+		int last = 0
+		int length = value.length()
+
+		// For all the characters in the string
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i)
+			String escaped = null
+
+			// Special characters are encoded (", \, whitespace and line change characters)
+			if (c == ('"' as char)) {
+				escaped = "\\\""
+			} else if (c == ('\\' as char)) {
+				escaped = "\\\\"
+			} else if (c == ('\b' as char)) {
+				escaped = "\\b"
+			} else if (c == ('\f' as char)) {
+				escaped = "\\f"
+			} else if (c == ('\n' as char)) {
+				escaped = "\\n"
+			} else if (c == ('\r' as char)) {
+				escaped = "\\r"
+			} else if (c == ('\t' as char)) {
+				escaped = "\\t"
+			} else if (Character.isISOControl(c)) {
+				// Any other control character is unicode encoded
+				out.append(value, last, i)
+				writeUnicode(out, c)
+				last = i + 1
+				continue
+			} else {
+				continue
+			}
+
+			// The characters before the special character are copied in one go
+			out.append(value, last, i).append(escaped)
+			last = i + 1
+		}
+
+		// The remaining characters are added and the string is ended
+		out.append(value, last, length)
+		out.append('"' as char)
+	}
+
+	/**
+	 * This method writes a unicode encoded character.
+	 *
+	 * @param out String builder to write to
+	 * @param c Character to encode
+	 */
+	private static void writeUnicode(StringBuilder out, char c) {
+		out.append("\\u")
+		int n = (int) c
+		for (int i = 0; i < 4; i++) {
+			out.append(ObjectVisitor.HEX[(n & 0xf000) >> 12])
+			n <<= 4
+		}
+	}
+}
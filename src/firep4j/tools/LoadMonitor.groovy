@@ -0,0 +1,218 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+import java.lang.management.ManagementFactory
+import java.lang.management.OperatingSystemMXBean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * This class decides how much detail FireP4j may output under the current load. The pressure is the highest of
+ * the moving average of FireP4j's own time per message (relative to its limit) and the system load per processor
+ * (relative to its limit). The degradation level rises as soon as the pressure does, but it is only lowered one
+ * level at a time once the pressure dropped clearly below the threshold of the level (so it does not flap).
+ *
+ * @author Thomas Endres
+ */
+class LoadMonitor {
+	/**
+	 * Degradation level: full detail
+	 */
+	public static final int full = 0
+
+	/**
+	 * Degradation level: reduced depth and trace length
+	 */
+	public static final int reduced = 1
+
+	/**
+	 * Degradation level: minimal depth and trace length, no line numbers
+	 */
+	public static final int minimal = 2
+
+	/**
+	 * Degradation level: no output at all
+	 */
+	public static final int off = 3
+
+	/**
+	 * Pressure at which the levels are reached (by level)
+	 */
+	private static final double[] thresholds = [0, 1, 2, 4] as double[]
+
+	/**
+	 * Share of the threshold the pressure must drop below before a level is left
+	 */
+	private static final double restoreShare = 0.75
+
+	/**
+	 * Weight of a new sample in the moving average (as a shift: 1/8)
+	 */
+	private static final int averageShift = 3
+
+	/**
+	 * Time between two evaluations of the pressure in nanoseconds
+	 */
+	private final long evaluationInterval
+
+	/**
+	 * Operating system bean providing the system load
+	 */
+	private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean()
+
+	/**
+	 * Time of the next evaluation in nanoseconds
+	 */
+	private final AtomicLong nextEvaluation = new AtomicLong(System.nanoTime())
+
+	/**
+	 * Maximum average time per message in nanoseconds (-1 if the time is not taken into account)
+	 */
+	private volatile long maxMessageTime = -1
+
+	/**
+	 * Maximum system load per processor (-1 if the system load is not taken into account)
+	 */
+	private volatile double maxSystemLoad = -1
+
+	/**
+	 * Moving average of the time per message in nanoseconds (updated without locking, a lost sample does not matter)
+	 */
+	private volatile long averageTime = 0
+
+	/**
+	 * Current degradation level
+	 */
+	private volatile int level = full
+
+	/**
+	 * This constructor initializes the monitor.
+	 *
+	 * @param evaluationInterval Time between two evaluations of the pressure in nanoseconds
+	 */
+	public LoadMonitor(long evaluationInterval) {
+		this.evaluationInterval = evaluationInterval
+	}
+
+	/**
+	 * This method sets the limits (the monitor is disabled if both limits are -1).
+	 *
+	 * @param maxMessageTime Maximum average time per message in nanoseconds (-1 to ignore the time)
+	 * @param maxSystemLoad Maximum system load per processor (-1 to ignore the system load)
+	 */
+	public void setLimits(long maxMessageTime, double maxSystemLoad) {
+		this.maxMessageTime = maxMessageTime
+		this.maxSystemLoad = maxSystemLoad
+		if (!isEnabled()) {
+			level = full
+		}
+	}
+
+	/**
+	 * This method returns whether the monitor is enabled.
+	 *
+	 * @return True if any limit is set, false otherwise
+	 */
+	public boolean isEnabled() {
+		maxMessageTime > 0 || maxSystemLoad > 0
+	}
+
+	/**
+	 * This method records the time FireP4j spent on a message.
+	 *
+	 * @param time Time in nanoseconds
+	 */
+	public void record(long time) {
+		if (isEnabled()) {
+			long average = averageTime
+			averageTime = average + ((time - average) >> averageShift)
+		}
+	}
+
+	/**
+	 * This method returns the current degradation level (the pressure is evaluated if it is due).
+	 *
+	 * @return Degradation level (full, reduced, minimal or off)
+	 */
+	public int getLevel() {
+		if (!isEnabled()) {
+			return full
+		}
+
+		// Only one thread evaluates the pressure per interval
+		long now = System.nanoTime()
+		long next = nextEvaluation.get()
+		if (now - next >= 0 && nextEvaluation.compareAndSet(next, now + evaluationInterval)) {
+			evaluate()
+		}
+		level
+	}
+
+	/**
+	 * This method evaluates the pressure and adjusts the degradation level.
+	 */
+	private void evaluate() {
+		double pressure = getPressure()
+
+		// The level rises at once, but it is only lowered one level at a time
+		int target = off
+		while (target > full && pressure < thresholds[target]) {
+			target--
+		}
+		if (target > level) {
+			level = target
+		} else if (target < level && pressure < thresholds[level] * restoreShare) {
+			level--
+		}
+
+		// Without output there are no samples, so the average of the own time decays
+		if (level == off) {
+			averageTime = averageTime >> 1
+		}
+	}
+
+	/**
+	 * This method determines the current pressure.
+	 *
+	 * @return Pressure (1 means a limit is reached)
+	 */
+	public double getPressure() {
+		double pressure = 0
+
+		if (maxMessageTime > 0) {
+			pressure = averageTime / (double) maxMessageTime
+		}
+
+		// The system load is not available on every platform (it is negative then)
+		if (maxSystemLoad > 0) {
+			double load = operatingSystem.getSystemLoadAverage()
+			if (load >= 0) {
+				pressure = Math.max(pressure, load / operatingSystem.getAvailableProcessors() / maxSystemLoad)
+			}
+		}
+
+		pressure
+	}
+
+	/**
+	 * This method returns the moving average of the time per message.
+	 *
+	 * @return Average time in nanoseconds
+	 */
+	public long getAverageTime() {
+		averageTime
+	}
+}
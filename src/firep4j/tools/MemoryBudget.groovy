@@ -0,0 +1,190 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * This class accounts the memory held by the messages of all the requests in flight. Every response holds its
+ * share in a hold, which is released when the response was sent (or when the FireP4j instance is collected).
+ * The ceiling is a soft one: it decides whether new payloads are output in full, it never blocks.
+ *
+ * @author Thomas Endres
+ */
+class MemoryBudget {
+	/**
+	 * Maximum number of bytes (-1 for an unlimited budget)
+	 */
+	private volatile long maxBytes
+
+	/**
+	 * Number of bytes held by the messages in flight
+	 */
+	private final AtomicLong usedBytes = new AtomicLong()
+
+	/**
+	 * Number of payloads that were degraded or rejected because the budget was exceeded
+	 */
+	private final AtomicLong degradedCount = new AtomicLong()
+
+	/**
+	 * This constructor initializes the budget.
+	 *
+	 * @param maxBytes Maximum number of bytes (-1 for an unlimited budget)
+	 */
+	public MemoryBudget(long maxBytes) {
+		this.maxBytes = maxBytes
+	}
+
+	/**
+	 * This method checks whether the budget is used up.
+	 *
+	 * @return True if no further bytes fit into the budget, false otherwise
+	 */
+	public boolean isExhausted() {
+		long maxBytes = this.maxBytes
+		maxBytes >= 0 && usedBytes.get() >= maxBytes
+	}
+
+	/**
+	 * This method checks whether the given number of bytes still fits into the budget.
+	 *
+	 * @param bytes Number of bytes
+	 * @return True if the bytes fit, false otherwise
+	 */
+	public boolean hasRoom(long bytes) {
+		long maxBytes = this.maxBytes
+		maxBytes < 0 || usedBytes.get() + bytes <= maxBytes
+	}
+
+	/**
+	 * This method records a degraded or rejected payload.
+	 */
+	public void degrade() {
+		degradedCount.incrementAndGet()
+	}
+
+	/**
+	 * This method changes the number of bytes held by the messages in flight.
+	 *
+	 * @param bytes Number of bytes added (negative if bytes are released)
+	 */
+	private void addUsedBytes(long bytes) {
+		usedBytes.addAndGet(bytes)
+	}
+
+	/**
+	 * This method creates a new hold (for one response).
+	 *
+	 * @return Hold
+	 */
+	public Hold newHold() {
+		new Hold(this)
+	}
+
+	/**
+	 * This method sets the maximum number of bytes.
+	 *
+	 * @param maxBytes Maximum number of bytes (-1 for an unlimited budget)
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes
+	}
+
+	// Getters
+
+	/**
+	 * This method returns the maximum number of bytes.
+	 *
+	 * @return Maximum number of bytes (-1 for an unlimited budget)
+	 */
+	public long getMaxBytes() { maxBytes }
+
+	/**
+	 * This method returns the number of bytes held by the messages in flight.
+	 *
+	 * @return Used bytes
+	 */
+	public long getUsedBytes() { usedBytes.get() }
+
+	/**
+	 * This method returns the number of payloads that were degraded or rejected.
+	 *
+	 * @return Number of degraded payloads
+	 */
+	public long getDegradedCount() { degradedCount.get() }
+
+	/**
+	 * This class represents the bytes held by one response. It is a runnable, so it can be registered as the cleaning
+	 * action of the FireP4j instance (it must not refer to the instance itself).
+	 */
+	public static class Hold implements Runnable {
+		/**
+		 * Budget the bytes are accounted in
+		 */
+		private final MemoryBudget budget
+
+		/**
+		 * Number of bytes held by the response
+		 */
+		private final AtomicLong bytes = new AtomicLong()
+
+		/**
+		 * This constructor sets the budget.
+		 *
+		 * @param budget Budget the bytes are accounted in
+		 */
+		Hold(MemoryBudget budget) {
+			this.budget = budget
+		}
+
+		/**
+		 * This method adds bytes held by the response.
+		 *
+		 * @param bytes Number of bytes
+		 */
+		public void add(long bytes) {
+			this.bytes.addAndGet(bytes)
+			budget.addUsedBytes(bytes)
+		}
+
+		/**
+		 * This method removes bytes that are not held by the response anymore.
+		 *
+		 * @param bytes Number of bytes
+		 */
+		public void remove(long bytes) {
+			add(-bytes)
+		}
+
+		/**
+		 * This method releases all the bytes held by the response.
+		 */
+		public void run() {
+			long released = bytes.getAndSet(0)
+			if (released != 0) {
+				budget.addUsedBytes(-released)
+			}
+		}
+
+		/**
+		 * This method returns the number of bytes held by the response.
+		 *
+		 * @return Held bytes
+		 */
+		public long getBytes() { bytes.get() }
+	}
+}
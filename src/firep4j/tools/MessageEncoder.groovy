@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+/**
+ * This class writes the framing of Wildfire messages directly into a string builder.<br>
+ * Console messages look like <code>[{"Type":"LOG","File":"Test.java","Line":12,"Label":"label"},payload]</code>,
+ * dump messages look like <code>{"label":payload}</code>. The payload is written in between by the caller.
+ *
+ * @author Thomas Endres
+ */
+class MessageEncoder {
+	/**
+	 * This method starts a console message and its index object.
+	 *
+	 * @param out String builder to write to
+	 * @param type Message type (log level)
+	 */
+	public static void beginMessage(StringBuilder out, String type) {
+		out.append('[{"Type":')
+		JSONWriter.writeString(out, type)
+	}
+
+	/**
+	 * This method writes the location of the message into the index object.
+	 *
+	 * @param out String builder to write to
+	 * @param file File name
+	 * @param line Line number
+	 */
+	public static void writeLocation(StringBuilder out, String file, int line) {
+		out.append(',"File":')
+		JSONWriter.writeString(out, file)
+		out.append(',"Line":').append(line)
+	}
+
+	/**
+	 * This method writes the label of the message into the index object.
+	 *
+	 * @param out String builder to write to
+	 * @param label Label
+	 */
+	public static void writeLabel(StringBuilder out, String label) {
+		out.append(',"Label":')
+		JSONWriter.writeString(out, label)
+	}
+
+	/**
+	 * This method marks a group start message as collapsed.
+	 *
+	 * @param out String builder to write to
+	 */
+	public static void writeCollapsed(StringBuilder out) {
+		// FirePHP expects the flag as a string
+		out.append(',"Collapsed":"true"')
+	}
+
+	/**
+	 * This method ends the index object, the payload is written next.
+	 *
+	 * @param out String builder to write to
+	 */
+	public static void beginPayload(StringBuilder out) {
+		out.append("},")
+	}
+
+	/**
+	 * This method ends a console message.
+	 *
+	 * @param out String builder to write to
+	 */
+	public static void endMessage(StringBuilder out) {
+		out.append(']' as char)
+	}
+
+	/**
+	 * This method starts a dump message, the payload is written next.
+	 *
+	 * @param out String builder to write to
+	 * @param label Label of the dumped value
+	 */
+	public static void beginDump(StringBuilder out, String label) {
+		out.append('{' as char)
+		JSONWriter.writeString(out, label)
+		out.append(':' as char)
+	}
+
+	/**
+	 * This method ends a dump message.
+	 *
+	 * @param out String builder to write to
+	 */
+	public static void endDump(StringBuilder out) {
+		out.append('}' as char)
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+/**
+ * This class keeps track of the recent messages of one response to detect repeats (e.g. of a log statement in a loop).
+ * Messages are identified by a hash of their encoded header body, which contains the call site and the payload,
+ * so a repeat is detected without serializing or comparing the message twice.
+ *
+ * @author Thomas Endres
+ */
+class MessageRepeats {
+	/**
+	 * Number of recent messages that are checked for repeats
+	 */
+	private final int window
+
+	/**
+	 * Recent messages by the hash of their header body (in the order they were output)
+	 */
+	private final LinkedHashMap<Long, Repeat> recent = new LinkedHashMap<Long, Repeat>()
+
+	/**
+	 * This constructor initializes the repeat detection.
+	 *
+	 * @param window Number of recent messages that are checked for repeats
+	 */
+	public MessageRepeats(int window) {
+		this.window = window
+	}
+
+	/**
+	 * This method computes the hash of an encoded header body (64 bit FNV-1a over the characters).
+	 *
+	 * @param headerBody Encoded header body
+	 * @return Hash of the header body
+	 */
+	public static long hash(CharSequence headerBody) {
+		// FNV offset basis (0xcbf29ce484222325 as a signed value)
+		long hash = -3750763034362895579L
+		int length = headerBody.length()
+		for (int i = 0; i < length; i++) {
+			hash ^= (long) headerBody.charAt(i)
+			hash *= 0x100000001b3L
+		}
+		hash
+	}
+
+	/**
+	 * This method checks whether a message repeats a recent one and counts the repeat.
+	 *
+	 * @param hash Hash of the header body
+	 * @return The repeated message (with the increased repeat count), null if the message is new
+	 */
+	public synchronized Repeat repeat(long hash) {
+		Repeat repeat = recent.get(hash)
+		if (repeat != null) {
+			repeat.count++
+		}
+		repeat
+	}
+
+	/**
+	 * This method records a message that was output (the oldest message is forgotten if the window is full).
+	 *
+	 * @param hash Hash of the header body
+	 * @param description Short description of the message used in the repeat summary
+	 */
+	public synchronized void add(long hash, String description) {
+		if (recent.size() >= window && !recent.containsKey(hash)) {
+			recent.remove(recent.keySet().iterator().next())
+		}
+		recent.put(hash, new Repeat(description))
+	}
+
+	/**
+	 * This class represents a recent message and the number of times it was repeated.
+	 */
+	public static class Repeat {
+		/**
+		 * Short description of the message
+		 */
+		public final String description
+
+		/**
+		 * Number of repeats (not counting the message itself)
+		 */
+		public int count = 0
+
+		/**
+		 * Header index of the repeat summary (0 if no summary was output yet)
+		 */
+		public int summaryIndex = 0
+
+		/**
+		 * This constructor sets the description of the message.
+		 *
+		 * @param description Short description of the message
+		 */
+		Repeat(String description) {
+			this.description = description
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+/**
+ * This class implements a token bucket rate limiter that is shared by all threads. The rate is split over several
+ * stripes (selected by the thread id), so concurrent requests rarely contend for the same bucket. Only if the stripe
+ * of a thread is empty, the other stripes are tried.
+ * Every stripe holds up to one second of its share of the rate (the remainder of the split is spread over the first
+ * stripes, so the stripes together hand out the whole rate).
+ *
+ * @author Thomas Endres
+ */
+class RateLimiter {
+	/**
+	 * Maximum number of stripes (a power of two)
+	 */
+	private static final int maxStripeCount = 16
+
+	/**
+	 * Nanoseconds per second
+	 */
+	private static final long nanosPerSecond = 1000000000L
+
+	/**
+	 * Token units per permit (tokens are counted in nano permits, so refilling needs no division)
+	 */
+	private static final long unitsPerPermit = nanosPerSecond
+
+	/**
+	 * Stripes of the bucket
+	 */
+	private final Stripe[] stripes = new Stripe[maxStripeCount]
+
+	/**
+	 * Current settings (replaced as a whole when the rate changes)
+	 */
+	private volatile Settings settings
+
+	/**
+	 * This constructor initializes the rate limiter.
+	 *
+	 * @param permitsPerSecond Permits per second (-1 for an unlimited rate)
+	 */
+	public RateLimiter(int permitsPerSecond) {
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe(i)
+		}
+		setPermitsPerSecond(permitsPerSecond)
+	}
+
+	/**
+	 * This method sets the rate.
+	 *
+	 * @param permitsPerSecond Permits per second (-1 for an unlimited rate)
+	 */
+	public void setPermitsPerSecond(int permitsPerSecond) {
+		// Small rates are not split over more stripes than there are permits (every stripe needs a whole permit)
+		int stripeCount = 1
+		while (stripeCount < maxStripeCount && stripeCount * 2 <= permitsPerSecond) {
+			stripeCount *= 2
+		}
+		settings = new Settings(permitsPerSecond, stripeCount)
+	}
+
+	/**
+	 * This method returns the rate.
+	 *
+	 * @return Permits per second (-1 for an unlimited rate)
+	 */
+	public int getPermitsPerSecond() {
+		settings.permitsPerSecond
+	}
+
+	/**
+	 * This method takes a permit if one is available.
+	 *
+	 * @return True if a permit was taken, false if the rate is exceeded
+	 */
+	public boolean tryAcquire() {
+		Settings settings = this.settings
+		if (settings.permitsPerSecond < 0) {
+			return true
+		}
+
+		// The stripe of the current thread is tried first, then the other stripes (so one thread may use the whole rate)
+		int home = (int) (Thread.currentThread().getId() & (settings.stripeCount - 1))
+		long now = System.nanoTime()
+		for (int i = 0; i < settings.stripeCount; i++) {
+			if (stripes[(home + i) & (settings.stripeCount - 1)].tryAcquire(settings, now)) {
+				return true
+			}
+		}
+		false
+	}
+
+	/**
+	 * This method checks whether a permit is available without taking it.
+	 *
+	 * @return True if a permit is available, false if the rate is exceeded
+	 */
+	public boolean hasPermit() {
+		Settings settings = this.settings
+		if (settings.permitsPerSecond < 0) {
+			return true
+		}
+
+		// Any stripe with a permit will do
+		long now = System.nanoTime()
+		for (int i = 0; i < settings.stripeCount; i++) {
+			if (stripes[i].hasPermit(settings, now)) {
+				return true
+			}
+		}
+		false
+	}
+
+	/**
+	 * This class contains the settings derived from the rate.
+	 */
+	private static class Settings {
+		/**
+		 * Permits per second (-1 for an unlimited rate)
+		 */
+		final int permitsPerSecond
+
+		/**
+		 * Number of stripes in use
+		 */
+		final int stripeCount
+
+		/**
+		 * Permits per second of every stripe (without the remainder of the split)
+		 */
+		final long stripePermits
+
+		/**
+		 * Number of stripes getting one more permit per second (the remainder of the split)
+		 */
+		final int extraPermitStripes
+
+		/**
+		 * This constructor derives the settings.
+		 *
+		 * @param permitsPerSecond Permits per second (-1 for an unlimited rate)
+		 * @param stripeCount Number of stripes in use
+		 */
+		Settings(int permitsPerSecond, int stripeCount) {
+			this.permitsPerSecond = permitsPerSecond
+			this.stripeCount = stripeCount
+			this.stripePermits = permitsPerSecond < 0 ? 0 : ((long) permitsPerSecond).intdiv(stripeCount) as long
+			this.extraPermitStripes = permitsPerSecond < 0 ? 0 : permitsPerSecond % stripeCount
+		}
+
+		/**
+		 * This method returns the permits per second of a stripe.
+		 *
+		 * @param index Index of the stripe
+		 * @return Permits per second of the stripe
+		 */
+		long getPermits(int index) {
+			index < extraPermitStripes ? stripePermits + 1 : stripePermits
+		}
+	}
+
+	/**
+	 * This class represents one stripe of the bucket.
+	 */
+	private static class Stripe {
+		/**
+		 * Index of the stripe
+		 */
+		private final int index
+
+		/**
+		 * Tokens in the stripe (in nano permits)
+		 */
+		private long tokens = -1
+
+		/**
+		 * Time of the last refill (in nanoseconds)
+		 */
+		private long lastRefill = 0
+
+		/**
+		 * This constructor sets the index of the stripe.
+		 *
+		 * @param index Index of the stripe
+		 */
+		Stripe(int index) {
+			this.index = index
+		}
+
+		/**
+		 * This method refills the stripe and takes a permit if one is available.
+		 *
+		 * @param settings Current settings
+		 * @param now Current time in nanoseconds
+		 * @return True if a permit was taken, false otherwise
+		 */
+		synchronized boolean tryAcquire(Settings settings, long now) {
+			refill(settings, now)
+			if (tokens < unitsPerPermit) {
+				return false
+			}
+			tokens -= unitsPerPermit
+			true
+		}
+
+		/**
+		 * This method refills the stripe and checks whether a permit is available (without taking it).
+		 *
+		 * @param settings Current settings
+		 * @param now Current time in nanoseconds
+		 * @return True if a permit is available, false otherwise
+		 */
+		synchronized boolean hasPermit(Settings settings, long now) {
+			refill(settings, now)
+			tokens >= unitsPerPermit
+		}
+
+		/**
+		 * This method adds the tokens for the time elapsed since the last refill (the caller holds the lock).
+		 *
+		 * @param settings Current settings
+		 * @param now Current time in nanoseconds
+		 */
+		private void refill(Settings settings, long now) {
+			long permits = settings.getPermits(index)
+			long capacity = permits * unitsPerPermit
+
+			// A new stripe starts full, otherwise the tokens for the elapsed time are added (up to the capacity)
+			if (tokens < 0) {
+				tokens = capacity
+			} else {
+				long elapsed = Math.min(now - lastRefill, nanosPerSecond)
+				tokens = Math.min(tokens + elapsed * permits, capacity)
+			}
+			lastRefill = now
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * This class encodes stack traces and exceptions in the FirePHP trace format. The output is written directly into
+ * the given string builder. The encoded trace elements are cached (they recur in every trace of a hot code path).
+ * Exception causes are appended as "Caused by" elements followed by the trace elements of the cause.
+ *
+ * @author Thomas Endres
+ */
+class TraceEncoder {
+	/**
+	 * Maximum number of cached trace element fragments
+	 */
+	private static final int maxCachedFragments = 2048
+
+	/**
+	 * Cached JSON fragments of the trace elements (shared by all encoders)
+	 */
+	private static final ConcurrentHashMap<StackTraceElement, String> fragments = new ConcurrentHashMap<StackTraceElement, String>()
+
+	/**
+	 * Maximum trace element count (per exception or cause)
+	 */
+	private final int maxTraceCount
+
+	/**
+	 * Maximum number of causes that are output for an exception
+	 */
+	private final int maxCauseCount
+
+	/**
+	 * Closure deciding whether a class should be output (gets the class name, returns true if it is output)
+	 */
+	private final Closure classFilter
+
+	/**
+	 * This constructor sets the encoder settings.
+	 *
+	 * @param maxTraceCount Maximum trace element count (per exception or cause)
+	 * @param maxCauseCount Maximum number of causes that are output for an exception
+	 * @param classFilter Closure deciding whether a class should be output
+	 */
+	public TraceEncoder(int maxTraceCount, int maxCauseCount, Closure classFilter) {
+		// Class variables are set
+		this.maxTraceCount = maxTraceCount
+		this.maxCauseCount = maxCauseCount
+		this.classFilter = classFilter
+	}
+
+	/**
+	 * This method encodes a stack trace (e.g. the one of the current thread).
+	 *
+	 * @param out String builder to write to
+	 * @param stackTrace Stack trace elements
+	 * @param start Index of the first element that may be output
+	 * @param message Message of the trace
+	 * @return True if any trace element was output, false otherwise (then "{}" was written)
+	 */
+	public boolean encodeTrace(StringBuilder out, StackTraceElement[] stackTrace, int start, String message) {
+		encode(out, stackTrace, start, message, null)
+	}
+
+	/**
+	 * This method encodes an exception including its causes.
+	 *
+	 * @param out String builder to write to
+	 * @param throwable Exception to encode
+	 * @param start Index of the first element of the exception stack trace that may be output
+	 * @return True if any trace element was output, false otherwise (then "{}" was written)
+	 */
+	public boolean encodeException(StringBuilder out, Throwable throwable, int start) {
+		encode(out, throwable.getStackTrace(), start, throwable.getMessage(), throwable)
+	}
+
+	/**
+	 * This method encodes the trace object.
+	 *
+	 * @param out String builder to write to
+	 * @param stackTrace Stack trace elements
+	 * @param start Index of the first element that may be output
+	 * @param message Message of the trace
+	 * @param throwable Exception to encode (null for a plain trace)
+	 * @return True if any trace element was output, false otherwise
+	 */
+	private boolean encode(StringBuilder out, StackTraceElement[] stackTrace, int start, String message, Throwable throwable) {
+		out.append('{' as char)
+
+		// The first element that is output describes the trace itself
+		int i = nextElement(stackTrace, start)
+		if (i == -1) {
+			out.append('}' as char)
+			return false
+		}
+		StackTraceElement first = stackTrace[i]
+
+		// For exceptions, the first element is a throw statement (and the class name is the exception class name)
+		out.append('"Class":')
+		JSONWriter.writeString(out, throwable != null ? shortClassName(throwable) : first.getClassName())
+		out.append(',"Type":"').append(throwable != null ? "throw" : ".").append('","Function":')
+		JSONWriter.writeString(out, first.getMethodName())
+		out.append(',"Message":')
+		JSONWriter.writeString(out, message)
+		out.append(',"File":')
+		JSONWriter.writeString(out, first.getFileName())
+		out.append(',"Line":').append(first.getLineNumber())
+		out.append(',"Args":[],"Trace":[')
+
+		// The other elements are output as trace elements
+		boolean separate = writeElements(out, stackTrace, i + 1, maxTraceCount - 1, false)
+
+		// The causes are output after the exception trace (a cause that was already output ends the chain)
+		if (throwable != null) {
+			Throwable cause = throwable.getCause()
+			for (int causeCount = 0; cause != null && cause != throwable && causeCount < maxCauseCount; causeCount++) {
+				separate = writeCause(out, cause, separate)
+				throwable = cause
+				cause = cause.getCause()
+			}
+		}
+
+		out.append("]}")
+		true
+	}
+
+	/**
+	 * This method writes the "Caused by" element and the trace elements of a cause.
+	 *
+	 * @param out String builder to write to
+	 * @param cause Cause to write
+	 * @param separate True if a separator must be written before the first element
+	 * @return True if any element was written (so the next element must be separated)
+	 */
+	private boolean writeCause(StringBuilder out, Throwable cause, boolean separate) {
+		StackTraceElement[] stackTrace = cause.getStackTrace()
+		int i = nextElement(stackTrace, 0)
+
+		if (separate) {
+			out.append(',' as char)
+		}
+
+		// The cause element names the cause and the location it was thrown at
+		out.append('{"file":')
+		JSONWriter.writeString(out, i != -1 ? stackTrace[i].getFileName() : null)
+		out.append(',"line":').append(i != -1 ? stackTrace[i].getLineNumber() : 0)
+		out.append(',"function":')
+		JSONWriter.writeString(out, i != -1 ? stackTrace[i].getMethodName() : "")
+		out.append(',"class":')
+		JSONWriter.writeString(out, "Caused by: " + shortClassName(cause) + (cause.getMessage() != null ? ": " + cause.getMessage() : ""))
+		out.append(',"object": "","type":" ","args":[]}')
+
+		// The further elements of the cause are written
+		if (i != -1) {
+			writeElements(out, stackTrace, i + 1, maxTraceCount - 1, true)
+		}
+		true
+	}
+
+	/**
+	 * This method writes the trace elements that are output (up to the given count).
+	 *
+	 * @param out String builder to write to
+	 * @param stackTrace Stack trace elements
+	 * @param start Index of the first element that may be output
+	 * @param count Maximum number of elements to write
+	 * @param separate True if a separator must be written before the first element
+	 * @return True if any element was written before or by this method (so the next element must be separated)
+	 */
+	private boolean writeElements(StringBuilder out, StackTraceElement[] stackTrace, int start, int count, boolean separate) {
+		int i = start
+		for (int written = 0; written < count; written++) {
+			// The search stops as soon as the element count is reached
+			i = nextElement(stackTrace, i)
+			if (i == -1) {
+				break
+			}
+
+			if (separate) {
+				out.append(',' as char)
+			}
+			out.append(getFragment(stackTrace[i++]))
+			separate = true
+		}
+		separate
+	}
+
+	/**
+	 * This method determines the next trace element that is output.
+	 *
+	 * @param stackTrace Stack trace elements
+	 * @param start Index to start searching at
+	 * @return Index of the next element that is output, -1 if there is none
+	 */
+	private int nextElement(StackTraceElement[] stackTrace, int start) {
+		for (int i = start; i < stackTrace.length; i++) {
+			// Elements of filtered classes and elements without line numbers are not output
+			if (stackTrace[i].getLineNumber() != -1 && classFilter.call(stackTrace[i].getClassName())) {
+				return i
+			}
+		}
+		-1
+	}
+
+	/**
+	 * This method returns the JSON fragment of a trace element (from the cache if it was encoded before).
+	 *
+	 * @param element Trace element
+	 * @return JSON fragment
+	 */
+	private static String getFragment(StackTraceElement element) {
+		String fragment = fragments.get(element)
+		if (fragment == null) {
+			StringBuilder builder = new StringBuilder(128)
+			builder.append('{"file":')
+			JSONWriter.writeString(builder, element.getFileName())
+			builder.append(',"line":').append(element.getLineNumber())
+			builder.append(',"function":')
+			JSONWriter.writeString(builder, element.getMethodName())
+			builder.append(',"class":')
+			JSONWriter.writeString(builder, element.getClassName())
+			builder.append(',"object": "","type":".","args":[]}')
+			fragment = builder.toString()
+
+			// The cache is bounded: if it is full, it is simply started over
+			if (fragments.size() >= maxCachedFragments) {
+				fragments.clear()
+			}
+			fragments.put(element, fragment)
+		}
+		fragment
+	}
+
+	/**
+	 * This method returns the class name of an exception (without the "java.lang." package).
+	 *
+	 * @param throwable Exception
+	 * @return Class name
+	 */
+	private static String shortClassName(Throwable throwable) {
+		throwable.getClass().getName().replace("java.lang.", "")
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+import java.util.ArrayList
+import java.util.HashMap
+import java.util.HashSet
+import java.util.LinkedList
+import java.util.List
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Pattern
+
+/**
+ * This class checks class names against a list of trace filters. The filters are compiled once, so a class name
+ * is scanned at most once per filter criterion (instead of once per filter):<br>
+ * - STARTS_WITH: prefix trie<br>
+ * - CONTAINS: Aho-Corasick automaton<br>
+ * - ENDS_WITH: suffix trie<br>
+ * - EQUALS: hash set<br>
+ * - REGEX: precompiled patterns (the whole class name must match)<br>
+ * The verdicts are cached per class name, so after warm-up a check is a single hash lookup.
+ *
+ * @author Thomas Endres
+ */
+class TraceFilterMatcher {
+	/**
+	 * Root of the prefix trie (STARTS_WITH filters)
+	 */
+	private final Node prefixes = new Node()
+
+	/**
+	 * Root of the Aho-Corasick automaton (CONTAINS filters)
+	 */
+	private final Node infixes = new Node()
+
+	/**
+	 * Root of the suffix trie containing the reversed values (ENDS_WITH filters)
+	 */
+	private final Node suffixes = new Node()
+
+	/**
+	 * Values of the EQUALS filters
+	 */
+	private final HashSet<String> values = new HashSet<String>()
+
+	/**
+	 * Compiled patterns of the REGEX filters
+	 */
+	private final List<Pattern> patterns = new ArrayList<Pattern>()
+
+	/**
+	 * Maximum number of cached verdicts
+	 */
+	private final int maxEntries
+
+	/**
+	 * Cached verdicts (class name -> filtered)
+	 */
+	private final ConcurrentHashMap<String, Boolean> verdicts = new ConcurrentHashMap<String, Boolean>()
+
+	/**
+	 * This constructor compiles the given trace filters.
+	 *
+	 * @param filters Trace filters
+	 * @param maxEntries Maximum number of cached verdicts
+	 */
+	public TraceFilterMatcher(List<Filter> filters, int maxEntries) {
+		this.maxEntries = maxEntries
+
+		// Every filter is added to the structure of its criterion
+		for (Filter filter : filters) {
+			if (filter.type == Filter.Criteria.STARTS_WITH) {
+				prefixes.add(filter.value, false)
+			} else if (filter.type == Filter.Criteria.CONTAINS) {
+				infixes.add(filter.value, false)
+			} else if (filter.type == Filter.Criteria.ENDS_WITH) {
+				suffixes.add(filter.value, true)
+			} else if (filter.type == Filter.Criteria.EQUALS) {
+				values.add(filter.value)
+			} else if (filter.type == Filter.Criteria.REGEX) {
+				patterns.add(Pattern.compile(filter.value))
+			}
+		}
+
+		// The failure links of the automaton are built after all the values were added
+		infixes.buildFailureLinks()
+	}
+
+	/**
+	 * This method checks whether the given class name is matched by any of the filters.
+	 *
+	 * @param className Class name (in package notation)
+	 * @return True if the class name is filtered, false otherwise
+	 */
+	public boolean matches(String className) {
+		Boolean filtered = verdicts.get(className)
+		if (filtered == null) {
+			filtered = check(className)
+
+			// The cache is bounded: if it is full, it is simply started over
+			if (verdicts.size() >= maxEntries) {
+				verdicts.clear()
+			}
+			verdicts.put(className, filtered)
+		}
+
+		filtered
+	}
+
+	/**
+	 * This method checks the given class name against the compiled filters (without using the cache).
+	 *
+	 * @param className Class name (in package notation)
+	 * @return True if the class name is filtered, false otherwise
+	 */
+	private boolean check(String className) {
+		if (values.contains(className)) {
+			return true
+		}
+
+		// Prefixes are looked up walking the class name from the start
+		Node node = prefixes
+		for (int i = 0; node != null && !node.terminal && i < className.length(); i++) {
+			node = node.children.get(className.charAt(i))
+		}
+		if (node != null && node.terminal) {
+			return true
+		}
+
+		// Suffixes are looked up walking the class name from the end
+		node = suffixes
+		for (int i = className.length() - 1; node != null && !node.terminal && i >= 0; i--) {
+			node = node.children.get(className.charAt(i))
+		}
+		if (node != null && node.terminal) {
+			return true
+		}
+
+		// The automaton is run over the class name once for all contained values
+		node = infixes
+		for (int i = 0; !node.terminal && i < className.length(); i++) {
+			node = node.next(className.charAt(i))
+		}
+		if (node.terminal) {
+			return true
+		}
+
+		for (Pattern pattern : patterns) {
+			if (pattern.matcher(className).matches()) {
+				return true
+			}
+		}
+
+		false
+	}
+
+	/**
+	 * This class represents a node of a trie (or of the Aho-Corasick automaton).
+	 */
+	private static class Node {
+		/**
+		 * Child nodes by character
+		 */
+		final HashMap<Character, Node> children = new HashMap<Character, Node>()
+
+		/**
+		 * Failure link (automaton only: node of the longest proper suffix that is also a prefix)
+		 */
+		Node failure = null
+
+		/**
+		 * Flag indicating whether a value ends here (for the automaton: whether any value ends here)
+		 */
+		boolean terminal = false
+
+		/**
+		 * This method adds a value to the trie below this node.
+		 *
+		 * @param value Value to add
+		 * @param reversed True if the value should be added from the end (suffix trie), false otherwise
+		 */
+		void add(String value, boolean reversed) {
+			Node node = this
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(reversed ? value.length() - 1 - i : i)
+				Node child = node.children.get(c)
+				if (child == null) {
+					child = new Node()
+					node.children.put(c, child)
+				}
+				node = child
+			}
+			node.terminal = true
+		}
+
+		/**
+		 * This method builds the failure links of the automaton (this node being the root) in breadth-first order.
+		 */
+		void buildFailureLinks() {
+			LinkedList<Node> queue = new LinkedList<Node>()
+			for (Node child : children.values()) {
+				child.failure = this
+				queue.add(child)
+			}
+
+			while (!queue.isEmpty()) {
+				Node node = queue.removeFirst()
+				for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+					Node child = entry.value
+
+					// The failure link points to the longest suffix that can be continued with the same character
+					Node failure = node.failure
+					while (failure != null && !failure.children.containsKey(entry.key)) {
+						failure = failure.failure
+					}
+					child.failure = failure == null ? this : failure.children.get(entry.key)
+
+					// A node is terminal if any value ends with its suffix
+					child.terminal = child.terminal || child.failure.terminal
+					queue.add(child)
+				}
+			}
+		}
+
+		/**
+		 * This method returns the automaton state following this one for the given character.
+		 *
+		 * @param c Next character
+		 * @return Next automaton state
+		 */
+		Node next(char c) {
+			Node node = this
+			while (true) {
+				Node child = node.children.get(c)
+				if (child != null) {
+					return child
+				}
+				// The root has no failure link: characters not starting any value stay at the root
+				if (node.failure == null) {
+					return node
+				}
+				node = node.failure
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+/**
+ * This class decides whether a user agent belongs to a supported FirePHP client.
+ * The decisions are cached, so after warm-up the check is a single hash lookup.
+ *
+ * @author Thomas Endres
+ */
+class UserAgentCache {
+	/**
+	 * Pattern for finding the FirePHP version within the user agent
+	 */
+	private static final Pattern versionPattern = Pattern.compile(/\sFirePHP\/([\.|\d]*)\s?/)
+
+	/**
+	 * Minimum FirePHP version that is supported
+	 */
+	private final Version minVersion
+
+	/**
+	 * Maximum number of cached user agents
+	 */
+	private final int maxEntries
+
+	/**
+	 * Cached decisions (user agent -> supported)
+	 */
+	private final ConcurrentHashMap<String, Boolean> entries
+
+	/**
+	 * This constructor initializes the cache.
+	 *
+	 * @param minVersion Minimum FirePHP version that is supported
+	 * @param maxEntries Maximum number of cached user agents
+	 */
+	public UserAgentCache(String minVersion, int maxEntries) {
+		// Class variables are set
+		this.minVersion = Version.parse(minVersion)
+		this.maxEntries = maxEntries
+		this.entries = new ConcurrentHashMap<String, Boolean>()
+	}
+
+	/**
+	 * This method checks if the given user agent contains a supported FirePHP version.
+	 *
+	 * @param userAgent User agent header value (may be null)
+	 * @return True if the FirePHP version is supported, false otherwise
+	 */
+	public boolean isSupported(String userAgent) {
+		// User agents without a FirePHP token are rejected without touching the cache (they are the vast majority)
+		if (userAgent == null || userAgent.indexOf("FirePHP/") < 0) {
+			return false
+		}
+
+		Boolean supported = entries.get(userAgent)
+		if (supported == null) {
+			supported = checkVersion(userAgent)
+
+			// The cache is bounded: if it is full (e.g. because of forged user agents), it is simply started over
+			if (entries.size() >= maxEntries) {
+				entries.clear()
+			}
+			entries.put(userAgent, supported)
+		}
+
+		supported
+	}
+
+	/**
+	 * This method returns the number of cached user agents.
+	 *
+	 * @return Number of cached user agents
+	 */
+	public int size() {
+		entries.size()
+	}
+
+	/**
+	 * This method determines the FirePHP version of the user agent and compares it with the minimum version.
+	 *
+	 * @param userAgent User agent header value
+	 * @return True if the FirePHP version is supported, false otherwise
+	 */
+	private boolean checkVersion(String userAgent) {
+		// The version number is determined
+		Matcher matcher = versionPattern.matcher(userAgent)
+		if (!matcher.find()) {
+			return false
+		}
+
+		// The version number is compared with the required version number
+		Version.parse(matcher.group(1)).compareTo(minVersion) >= 0
+	}
+}
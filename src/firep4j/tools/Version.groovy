@@ -0,0 +1,319 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+/**
+ * This class represents a parsed version string. The version entries are mapped to integers once, so
+ * versions can be compared and sorted cheaply. The ordering is the same as the one of Versioner.compareVersions
+ * (similar to the PHP version_compare function).<br>
+ * Entry values (strings are case-sensitive):<br>
+ * - "pl" or "p": Integer.MAX_VALUE<br>
+ * - Any number: the number itself<br>
+ * - "RC" or "rc": -1<br>
+ * - "beta" or "b": -2<br>
+ * - "alpha" or "a": -3<br>
+ * - "dev": -4<br>
+ * - Any other string value: -5
+ *
+ * @see http://php.net/manual/de/function.version-compare.php
+ * @author Thomas Endres
+ */
+class Version implements Comparable<Version> {
+	/**
+	 * Character classes used while scanning a version string
+	 */
+	private static final int SKIPPED = 0, DOT = 1, DIGIT = 2, ALPHA = 3
+
+	/**
+	 * Entry values for the special string entries
+	 */
+	private static final int DEV = -4, ALPHA_VERSION = -3, BETA = -2, RC = -1, PL = Integer.MAX_VALUE, OTHER = -5
+
+	/**
+	 * Maximum length of a string entry that is encoded (all special string entries are shorter)
+	 */
+	private static final int maxEncodedLength = 5
+
+	/**
+	 * Encoded special string entries
+	 */
+	private static final long devCode = encode("dev"), alphaCode = encode("alpha"), aCode = encode("a"),
+		betaCode = encode("beta"), bCode = encode("b"), upperRcCode = encode("RC"), rcCode = encode("rc"),
+		plCode = encode("pl"), pCode = encode("p")
+
+	/**
+	 * The version string that was parsed
+	 */
+	private final String version
+
+	/**
+	 * The integer values of all the version entries
+	 */
+	private final int[] entries
+
+	/**
+	 * This method parses a version string.
+	 *
+	 * @param version Version string
+	 * @return Parsed version
+	 */
+	public static Version parse(String version) {
+		// If the version string is null, an exception is thrown
+		if (version == null) {
+			throw new IllegalArgumentException("The version string must be set!")
+		}
+
+		// The string is scanned once (every character ends at most one entry, the end of the string ends the last one)
+		int[] entries = new int[version.length() + 1]
+		int count = scan(version, entries)
+
+		new Version(version, count < entries.length ? Arrays.copyOf(entries, count) : entries)
+	}
+
+	/**
+	 * This constructor sets the version values.
+	 *
+	 * @param version Version string
+	 * @param entries Integer values of the version entries
+	 */
+	private Version(String version, int[] entries) {
+		this.version = version
+		this.entries = entries
+	}
+
+	/**
+	 * This method compares two versions (entries that do not exist correspond to "0").
+	 *
+	 * @param other Version to compare with
+	 * @return 1 if this version is newer, -1 if the other version is newer, 0 if they have the same version number
+	 */
+	@Override
+	public int compareTo(Version other) {
+		int length = Math.max(entries.length, other.entries.length)
+
+		// For all the version entries
+		for (int i = 0; i < length; i++) {
+			int value1 = i < entries.length ? entries[i] : 0
+			int value2 = i < other.entries.length ? other.entries[i] : 0
+
+			// If the values differ, the difference sign is returned
+			if (value1 != value2) {
+				return value1 > value2 ? 1 : -1
+			}
+		}
+
+		0
+	}
+
+	/**
+	 * This method checks whether the given version has the same version number (so "4.2" equals "4.2.0").
+	 *
+	 * @param o Object to check
+	 * @return True if the versions are equal, false otherwise
+	 */
+	@Override
+	public boolean equals(Object o) {
+		(o instanceof Version) && compareTo((Version) o) == 0
+	}
+
+	/**
+	 * This method returns a hash code consistent with equals (trailing zero entries are ignored).
+	 *
+	 * @return Hash code
+	 */
+	@Override
+	public int hashCode() {
+		int length = entries.length
+		while (length > 0 && entries[length - 1] == 0) {
+			length--
+		}
+
+		int hash = 1
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + entries[i]
+		}
+		hash
+	}
+
+	/**
+	 * This method returns the version string that was parsed.
+	 *
+	 * @return Version string
+	 */
+	@Override
+	public String toString() {
+		version
+	}
+
+	/**
+	 * This method scans a version string and determines its entries without building intermediate strings.
+	 * "-", "+", "_" and " " separate entries like dots, a new entry is started between numbers and alpha strings,
+	 * empty entries (like in "4..2" or at the beginning or the end of the string) are "0" entries.
+	 *
+	 * @param version Version string
+	 * @param entries Array the entry values are written to (at least one element longer than the version string)
+	 * @return Number of entries
+	 */
+	private static int scan(String version, int[] entries) {
+		int count = 0
+		boolean lastIsDot = true
+		boolean scanned = false
+		int lastClass = SKIPPED
+
+		// Value of the current entry (number or encoded string)
+		long number = 0
+		long code = 0
+		int codeLength = 0
+
+		// For all the characters in the version string
+		for (int i = 0; i < version.length(); i++) {
+			char c = version.charAt(i)
+			int currentClass = classify(c)
+
+			// Characters other than alphanumeric characters and separators are skipped
+			if (currentClass == SKIPPED) {
+				continue
+			}
+			scanned = true
+
+			if (currentClass == DOT) {
+				// A dot ends the current entry (an empty entry is a "0")
+				count = addEntry(entries, count, lastIsDot ? DIGIT : lastClass, lastIsDot ? 0 : number, code, codeLength)
+				lastIsDot = true
+			} else {
+				// Between numbers and alpha strings, a new entry is started
+				if (!lastIsDot && currentClass != lastClass) {
+					count = addEntry(entries, count, lastClass, number, code, codeLength)
+					lastIsDot = true
+				}
+				// A new entry is started
+				if (lastIsDot) {
+					number = 0
+					code = 0
+					codeLength = 0
+				}
+
+				// The character is added to the current entry
+				if (currentClass == DIGIT) {
+					number = Math.min(number * 10 + (c - ('0' as char)), (long) Integer.MAX_VALUE - 1)
+				} else {
+					if (codeLength < maxEncodedLength) {
+						code = (code << 7) | (c as int)
+					}
+					codeLength++
+				}
+
+				lastIsDot = false
+				lastClass = currentClass
+			}
+		}
+
+		if (!lastIsDot) {
+			// The last entry is ended
+			count = addEntry(entries, count, lastClass, number, code, codeLength)
+		} else if (scanned) {
+			// A dot at the end of the string is a "0" entry
+			count = addEntry(entries, count, DIGIT, 0, 0, 0)
+		} else {
+			// An empty version string consists of one empty string entry
+			count = addEntry(entries, count, ALPHA, 0, 0, 0)
+		}
+
+		count
+	}
+
+	/**
+	 * This method adds an entry value to the entry array.
+	 *
+	 * @param entries Entry array
+	 * @param count Number of entries added before
+	 * @param entryClass Entry type (DIGIT or ALPHA)
+	 * @param number Number value of the entry
+	 * @param code Encoded string value of the entry
+	 * @param codeLength Length of the string value of the entry
+	 * @return New number of entries
+	 */
+	private static int addEntry(int[] entries, int count, int entryClass, long number, long code, int codeLength) {
+		entries[count] = entryClass == DIGIT ? (int) number : mapStringEntry(code, codeLength)
+		count + 1
+	}
+
+	/**
+	 * This method maps an encoded string entry to its integer value.
+	 *
+	 * @param code Encoded string value
+	 * @param codeLength Length of the string value
+	 * @return Integer value of the entry
+	 */
+	private static int mapStringEntry(long code, int codeLength) {
+		if (codeLength > maxEncodedLength) {
+			return OTHER
+		}
+
+		if (code == devCode) {
+			// Dev version
+			DEV
+		} else if (code == alphaCode || code == aCode) {
+			// Alpha test
+			ALPHA_VERSION
+		} else if (code == betaCode || code == bCode) {
+			// Beta test
+			BETA
+		} else if (code == upperRcCode || code == rcCode) {
+			// Release candidate
+			RC
+		} else if (code == plCode || code == pCode) {
+			// Post release
+			PL
+		} else {
+			// Other
+			OTHER
+		}
+	}
+
+	/**
+	 * This method encodes a string entry the same way the scanner does.
+	 *
+	 * @param entry String entry
+	 * @return Encoded string entry
+	 */
+	private static long encode(String entry) {
+		long code = 0
+		for (int i = 0; i < entry.length(); i++) {
+			code = (code << 7) | (entry.charAt(i) as int)
+		}
+		code
+	}
+
+	/**
+	 * This method determines the character class of a version string character.
+	 * "-", "+", "_" and " " are treated like dots, characters other than alphanumeric characters are skipped.
+	 *
+	 * @param c Character
+	 * @return Character class
+	 */
+	private static int classify(char c) {
+		if (c >= ('0' as char) && c <= ('9' as char)) {
+			DIGIT
+		} else if ((c >= ('a' as char) && c <= ('z' as char)) || (c >= ('A' as char) && c <= ('Z' as char))) {
+			ALPHA
+		} else if (c == ('.' as char) || c == ('-' as char) || c == ('+' as char) || c == ('_' as char) || c == (' ' as char)) {
+			DOT
+		} else {
+			SKIPPED
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j.tools
+
+/**
+ * This class contains helpers for rendering Wildfire message headers: a precomputed table of the header names
+ * and the splitting of messages into chunks of a limited UTF-8 byte length.
+ *
+ * @author Thomas Endres
+ */
+class WildfireHeaders {
+	/**
+	 * Number of message indexes for which the header names are precomputed
+	 */
+	private static final int precomputedNames = 1024
+
+	/**
+	 * Precomputed header names by structure (1: console, 2: dump) and message index
+	 */
+	private static final String[][] names = computeNames()
+
+	/**
+	 * This method returns the header name of a message chunk.
+	 *
+	 * @param structure Structure index (1 for console messages, 2 for dump messages)
+	 * @param index Message index (starting with 1)
+	 * @return Header name
+	 */
+	public static String getMessageHeaderName(int structure, int index) {
+		if (index < precomputedNames) {
+			return names[structure - 1][index]
+		}
+
+		// Names with a high index are rarely needed, so they are not precomputed
+		"X-Wf-1-" + structure + "-1-" + index
+	}
+
+	/**
+	 * This method determines the end of the chunk starting at the given index. The chunk is the longest part that
+	 * does not exceed the given UTF-8 byte length (a surrogate pair is never split).
+	 *
+	 * @param body Complete message body
+	 * @param start Start index of the chunk
+	 * @param maxBytes Maximum UTF-8 byte length of the chunk
+	 * @return End index of the chunk (exclusive, at least one character after the start)
+	 */
+	public static int getChunkEnd(CharSequence body, int start, int maxBytes) {
+		int length = body.length()
+		int bytes = 0
+		int end = start
+
+		while (end < length) {
+			char c = body.charAt(end)
+			int characterCount = 1
+			int characterBytes
+
+			// The UTF-8 byte length of the character (or surrogate pair) is determined
+			if (c < 0x80) {
+				characterBytes = 1
+			} else if (c < 0x800) {
+				characterBytes = 2
+			} else if (Character.isHighSurrogate(c) && end + 1 < length && Character.isLowSurrogate(body.charAt(end + 1))) {
+				characterBytes = 4
+				characterCount = 2
+			} else {
+				characterBytes = 3
+			}
+
+			// The chunk ends before the character that does not fit anymore (but contains at least one character)
+			if (bytes + characterBytes > maxBytes && end > start) {
+				break
+			}
+			bytes += characterBytes
+			end += characterCount
+		}
+
+		end
+	}
+
+	/**
+	 * This method determines the number of chunks the given message body is split into.
+	 *
+	 * @param body Complete message body
+	 * @param maxBytes Maximum UTF-8 byte length of a chunk
+	 * @return Number of chunks
+	 */
+	public static int getChunkCount(CharSequence body, int maxBytes) {
+		int count = 0
+		for (int start = 0; start < body.length(); start = getChunkEnd(body, start, maxBytes)) {
+			count++
+		}
+		count
+	}
+
+	/**
+	 * This method determines the UTF-8 byte length of the given text.
+	 *
+	 * @param text Text
+	 * @return UTF-8 byte length
+	 */
+	public static int getByteLength(CharSequence text) {
+		int length = text.length()
+		int bytes = 0
+
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i)
+			if (c < 0x80) {
+				bytes += 1
+			} else if (c < 0x800) {
+				bytes += 2
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+				// A surrogate pair is one four byte character
+				bytes += 4
+				i++
+			} else {
+				bytes += 3
+			}
+		}
+
+		bytes
+	}
+
+	/**
+	 * This method computes the table of the header names.
+	 *
+	 * @return Header names by structure and message index
+	 */
+	private static String[][] computeNames() {
+		String[][] table = new String[2][precomputedNames]
+		for (int structure = 1; structure <= 2; structure++) {
+			for (int index = 1; index < precomputedNames; index++) {
+				table[structure - 1][index] = "X-Wf-1-" + structure + "-1-" + index
+			}
+		}
+		table
+	}
+}
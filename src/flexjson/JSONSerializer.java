@@ -76,4 +76,15 @@ public class JSONSerializer {
     public static String serialize(ObjectVisitor visitor, Object target, boolean prettyPrint) {
         return visitor.clone().visit(target, prettyPrint);
     }
+    
+    /**
+     * This method performs a serialization of the target instance and appends the JSON to the given string builder.
+     *
+     * @param visitor Visitor object according to which the object is serialized
+     * @param target Object to serialize to JSON
+     * @param out String builder the JSON is appended to
+     */
+    public static void serialize(ObjectVisitor visitor, Object target, StringBuilder out) {
+        visitor.clone().visit(target, false, out);
+    }
 }
@@ -37,6 +37,21 @@ public class ObjectFilters {
 		filters = new HashMap<String, ArrayList<String>>();
 	}
 	
+	/**
+	 * This constructor creates an independent copy of the given object filters.
+	 * 
+	 * @param objectFilters Object filters to copy
+	 */
+	public ObjectFilters(ObjectFilters objectFilters) {
+		// Class variables are set
+		filters = new HashMap<String, ArrayList<String>>();
+		
+		// Every field name list is copied
+		for (String className : objectFilters.filters.keySet()) {
+			filters.put(className, new ArrayList<String>(objectFilters.filters.get(className)));
+		}
+	}
+	
 	/**
 	 * This method adds an object filter to the object filter list.
 	 * 
@@ -35,6 +35,11 @@ public class PathExpression {
 	 */
     String[] expression;
     
+    /**
+     * Compiled patterns for the path expression entries (null for "*" entries)
+     */
+    Pattern[] patterns;
+    
     /**
      * Flag indicating whether the path expression uses a wild card
      */
@@ -58,6 +63,47 @@ public class PathExpression {
         // A wildcard exists if there is an asterisk in it
         wildcard = expr.indexOf('*') >= 0;
         this.included = included;
+        
+        // The expression entries are compiled once (instead of on every match)
+        patterns = new Pattern[expression.length];
+        for (int i = 0; i < expression.length; i++) {
+        	patterns[i] = compileEntry(expression[i]);
+        }
+    }
+    
+    /**
+     * This method compiles one path expression entry to a pattern. Every "*" within the entry is matched to wildcard characters.
+     * 
+     * @param entry Path expression entry
+     * @return Compiled pattern or null if the entry is a single "*"
+     */
+    private static Pattern compileEntry(String entry) {
+        // The expression is split at "*" characters
+        String[] expressionParts = entry.split("\\*");
+        boolean isLastCharacterAsterisk = entry.length() > 0 && entry.charAt(entry.length() - 1) == '*';
+        
+        String currentExpression = "";
+        if (expressionParts.length == 0) {
+        	// If there was no "*", the expression itself is used and quoted
+        	currentExpression = Pattern.quote(entry);
+        } else {
+        	// For all the expression parts
+            for(int i = 0; i < expressionParts.length; i++) {
+            	// The quoted substring is added to the complete expression
+            	currentExpression += Pattern.quote(expressionParts[i]);
+            	
+            	// If there was a "*" before the split, wildcard characters are added to the expression
+            	if (i != expressionParts.length - 1 || isLastCharacterAsterisk) {
+            		currentExpression += "(.)*";
+            	}                	
+            }  
+        }
+        
+        // A single "*" matches whole path entries and is not compiled
+        if (currentExpression.equals("\\Q*\\E")) {
+        	return null;
+        }
+        return Pattern.compile(currentExpression);
     }
 
     /**
@@ -94,43 +140,10 @@ public class PathExpression {
         while( pathCurrentIndex < path.length() ) {
             String current = path.getPath().get(pathCurrentIndex);
             
-            // If there is an expression left
-            String currentExpression = "";
-            if (exprCurrentIndex < expression.length) {
-	            currentExpression = expression[exprCurrentIndex];            
-	
-	            // Every "*" within the expression is matched to wildcard characters
-	            
-	            // The expression is split at "*" characters
-	            String[] expressionParts = currentExpression.split("\\*");
-	            boolean isLastCharacterAsterisk = currentExpression.charAt(currentExpression.length() - 1) == '*';
-	            
-	            if (expressionParts.length == 0) {
-	            	// If there was no "*", the expression itself is used and quoted
-	            	currentExpression = Pattern.quote(currentExpression);
-	            } else {
-	            	// For all the expression parts
-	            	currentExpression = "";
-	                for(int i = 0; i < expressionParts.length; i++) {
-	                	// The current substring is quoted
-	                	expressionParts[i] = Pattern.quote(expressionParts[i]);
-	                	
-	                	// The quoted substring is added to the complete expression
-	                	currentExpression += expressionParts[i];
-	                	
-	                	// If there was a "*" before the split, wildcard characters are added to the expression
-	                	if (i != expressionParts.length - 1 || isLastCharacterAsterisk) {
-	                		currentExpression += "(.)*";
-	                	}                	
-	                }  
-	            }
-            }
-            
-
-            if(exprCurrentIndex < expression.length && currentExpression.equals("\\Q*\\E") ) {
+            if(exprCurrentIndex < expression.length && patterns[exprCurrentIndex] == null) {
                 // If the path is matched by a "*", the next path entry is used
                 exprCurrentIndex++;
-            } else if(exprCurrentIndex < expression.length && current.matches(currentExpression)) {
+            } else if(exprCurrentIndex < expression.length && patterns[exprCurrentIndex].matcher(current).matches()) {
                 // If the path is matched by a "*", the next path and expression entries are used
                 pathCurrentIndex++;
                 exprCurrentIndex++;
@@ -108,6 +108,16 @@ public class CustomVisitor extends BasicIncludesVisitor {
 		return new CustomVisitor(pathExpressions, objectFilters, maxDepth);
 	}
 	
+	/**
+	 * This method creates an independent copy of the visitor object. In contrast to clone, the path expressions
+	 * and object filters are copied, so the copy can be modified without affecting the original visitor.
+	 * 
+	 * @return Independent visitor copy
+	 */
+	public CustomVisitor copy() {
+		return new CustomVisitor(new ArrayList<PathExpression>(pathExpressions), new ObjectFilters(objectFilters), maxDepth);
+	}
+	
 	/**
 	 * This method adds an object filter to the object filter list.
 	 * 
@@ -133,6 +143,15 @@ public class CustomVisitor extends BasicIncludesVisitor {
 	public void setMaxDepth(int maxDepth) {
 		this.maxDepth = maxDepth;
 	}
+	
+	/**
+	 * This method returns the max serialization depth (-1 for infinite depth).
+	 * 
+	 * @return Max serialization depth
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
     
 	/**
 	 * This method checks whether the given property should be included in the JSON string.
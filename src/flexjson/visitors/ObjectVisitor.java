@@ -105,6 +105,23 @@ public abstract class ObjectVisitor {
         return builder.toString();
     }
 
+    /**
+     * This method visits an object and appends the resulting JSON script to the given string builder (instead of
+     * building a separate string). It is an entry point for object serialization.
+     * 
+     * @param target Object to serialize
+     * @param prettyPrint Flag indicating whether the JSON string should be formatted nicely
+     * @param out String builder the JSON string is appended to
+     */
+    public void visit(Object target, boolean prettyPrint, StringBuilder out) {
+    	// Class variables are set
+        this.prettyPrint = prettyPrint;
+        this.builder = out;
+    	
+        // The JSON string is appended
+        json(target);
+    }
+
     /**
      * This method visits an object and returns the resulting JSON script. It is an entry point for object serialization.
      * It adds a root name to the value
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package firep4j
+
+import javax.servlet.FilterChain
+import javax.servlet.FilterConfig
+import javax.servlet.ServletRequest
+import javax.servlet.ServletResponse
+import javax.servlet.http.HttpServletResponse
+import java.util.function.Supplier
+
+import servlet.http.HttpServletRequestMock
+import servlet.http.HttpServletResponseMock
+import groovy.util.GroovyTestCase
+
+/**
+ * This class tests the FireP4j servlet filter.
+ * 
+ * @author Thomas Endres
+ */
+class FireP4jFilterTests extends GroovyTestCase {
+	/**
+	 * User agent of a FirePHP client
+	 */
+	private static final String userAgent = "Mozilla/5.0 (Windows; U; Windows NT 6.1; de; rv:1.9.2.3) Gecko/20100401 Firefox/3.6.3 FirePHP/0.4"
+	
+	/**
+	 * This method sets up test variables.
+	 */
+	protected void setUp() {
+        super.setUp()
+    }
+
+    /**
+     * This method tears down a test after performing it
+     */
+    protected void tearDown() {
+        super.tearDown()
+    }
+    
+    /**
+     * This method tests that the sampling decision is made when the request ends, even if the writer was requested
+     * at its start.
+     */
+    void testDecisionAtRequestEnd() {
+    	CommittingResponse response = new CommittingResponse(8192)
+    	
+    	// The servlet requests the writer first and fails after some output
+    	runFilter(response) { ServletRequest request, ServletResponse wrappedResponse ->
+    		PrintWriter writer = wrappedResponse.getWriter()
+    		writer.print("<html>")
+    		FireP4j.current().log("first message")
+    		FireP4j.current().error("late error")
+    		writer.print("</html>")
+    	}
+    	
+    	// The error caused all the messages to be output
+    	assertEquals("message count", "2", response.getHeader("X-Wf-1-Index").toString())
+    	assertTrue("first message", response.getHeader("X-Wf-1-1-1-1").toString().contains('"first message"]'))
+    	assertTrue("late error", response.getHeader("X-Wf-1-1-1-2").toString().contains('"late error"]'))
+    	assertEquals("body", "<html></html>", response.body.toString())
+    }
+    
+    /**
+     * This method tests that the sampling decision is made before the output exceeds the response buffer or is flushed.
+     */
+    void testDecisionBeforeCommit() {
+    	CommittingResponse fullResponse = new CommittingResponse(16)
+    	CommittingResponse flushedResponse = new CommittingResponse(8192)
+    	
+    	// The first servlet fills the response buffer, the second one flushes it
+    	runFilter(fullResponse, "1") { ServletRequest request, ServletResponse wrappedResponse ->
+    		FireP4j.current().log("sampled message")
+    		wrappedResponse.getWriter().print("x" * 100)
+    	}
+    	runFilter(flushedResponse, "0") { ServletRequest request, ServletResponse wrappedResponse ->
+    		FireP4j.current().log("quiet message")
+    		wrappedResponse.getOutputStream().write("body".getBytes("UTF-8"))
+    		wrappedResponse.getOutputStream().flush()
+    		FireP4j.current().error("error after the commit")
+    	}
+    	
+    	// The messages were output before the response was committed
+    	assertTrue("committed", fullResponse.committed)
+    	assertTrue("output before the commit", fullResponse.getHeader("X-Wf-1-1-1-1").toString().contains('"sampled message"]'))
+    	
+    	// The decision was made when the output was flushed (the later error did not change it)
+    	assertTrue("flushed", flushedResponse.committed)
+    	assertNull("nothing output", flushedResponse.getHeader("X-Wf-1-Index"))
+    }
+    
+    /**
+     * This method tests that the wrapped output stream notices all writes and delegates the methods of newer
+     * servlet versions to the output stream of the container.
+     */
+    void testOutputStream() {
+    	CommittingResponse response = new CommittingResponse(8)
+    	List<Boolean> ready = []
+    	
+    	runFilter(response, "1") { ServletRequest request, ServletResponse wrappedResponse ->
+    		javax.servlet.ServletOutputStream stream = wrappedResponse.getOutputStream()
+    		FireP4j.current().log("sampled message")
+    		ready << stream.isReady()
+    		stream.write("ab".getBytes("UTF-8"))
+    		stream.write("xcdx".getBytes("UTF-8"), 1, 2)
+    		stream.print("efghij")
+    		ready << stream.isReady()
+    	}
+    	
+    	// The decision was made before the output exceeded the buffer
+    	assertEquals("body", "abcdefghij", response.body.toString())
+    	assertTrue("output before the commit", response.getHeader("X-Wf-1-1-1-1").toString().contains('"sampled message"]'))
+    	assertEquals("delegated isReady", [true, false], ready)
+    }
+    
+    /**
+     * This method tests that a failing lazy object is output as a failure instead of breaking the response.
+     */
+    void testFailingMessage() {
+    	CommittingResponse response = new CommittingResponse(8192)
+    	
+    	try {
+    		runFilter(response) { ServletRequest request, ServletResponse wrappedResponse ->
+    			FireP4j.current().error(LazyObject.of({ throw new IllegalStateException("supplier failed") } as Supplier))
+    			FireP4j.current().log("later message")
+    		}
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error escaped from the filter: " + e.getMessage()
+    	}
+    	
+    	// The failure is output and the following message is not affected
+    	assertTrue("failure output", response.getHeader("X-Wf-1-1-1-1").toString().contains("Message could not be output: java.lang.IllegalStateException: supplier failed"))
+    	assertTrue("later message", response.getHeader("X-Wf-1-1-1-2").toString().contains('"later message"]'))
+    }
+    
+    /**
+     * This method passes a request of a FirePHP client through the filter.
+     * 
+     * @param response Response of the request
+     * @param sampleRate Sample rate of the filter (null for the default)
+     * @param servlet Closure processing the request
+     */
+    private void runFilter(HttpServletResponse response, String sampleRate = null, Closure servlet) {
+    	HttpServletRequestMock request = new HttpServletRequestMock()
+    	request.setHeader("User-Agent", userAgent)
+    	
+    	FireP4jFilter filter = new FireP4jFilter()
+    	filter.init([getInitParameter: { String name -> name == "sampleRate" ? sampleRate : null }] as FilterConfig)
+    	filter.doFilter(request, response, servlet as FilterChain)
+    }
+    
+    /**
+     * This class simulates the response of a container: it is committed when the output exceeds the buffer or is
+     * flushed, afterwards headers are ignored.
+     */
+    private static class CommittingResponse extends HttpServletResponseMock {
+    	/**
+    	 * Size of the response buffer
+    	 */
+    	final int bufferSize
+    	
+    	/**
+    	 * Output written so far
+    	 */
+    	final StringBuilder body = new StringBuilder()
+    	
+    	/**
+    	 * Flag indicating whether the response was committed
+    	 */
+    	boolean committed = false
+    	
+    	/**
+    	 * This constructor sets the buffer size.
+    	 * 
+    	 * @param bufferSize Size of the response buffer
+    	 */
+    	CommittingResponse(int bufferSize) {
+    		this.bufferSize = bufferSize
+    	}
+    	
+    	/**
+    	 * This method adds output (committing the response if it exceeds the buffer).
+    	 * 
+    	 * @param text Output
+    	 */
+    	void addOutput(String text) {
+    		body.append(text)
+    		if (body.length() > bufferSize) {
+    			committed = true
+    		}
+    	}
+    	
+    	@Override
+    	public void setHeader(String name, String value) {
+    		if (!committed) {
+    			super.setHeader(name, value)
+    		}
+    	}
+    	
+    	@Override
+    	public int getBufferSize() { bufferSize }
+    	
+    	@Override
+    	public boolean isCommitted() { committed }
+    	
+    	@Override
+    	public void flushBuffer() {
+    		committed = true
+    	}
+    	
+    	@Override
+    	public PrintWriter getWriter() {
+    		new PrintWriter(new Writer() {
+    			public void write(char[] cbuf, int off, int len) { addOutput(new String(cbuf, off, len)) }
+    			public void flush() { committed = true }
+    			public void close() { committed = true }
+    		})
+    	}
+    	
+    	@Override
+    	public javax.servlet.ServletOutputStream getOutputStream() {
+    		new javax.servlet.ServletOutputStream() {
+    			public void write(int b) { addOutput(String.valueOf((char) b)) }
+    			public void flush() { committed = true }
+    			public boolean isReady() { !committed }
+    		}
+    	}
+    }
+}
@@ -20,6 +20,9 @@ import firep4j.FireP4j;
 import firep4j.Table;
 
 import java.lang.reflect.*
+import java.util.concurrent.*
+import java.util.concurrent.atomic.*
+import java.util.function.Supplier
 import java.util.regex.*
 
 import servlet.http.HttpServletRequestMock
@@ -424,6 +427,36 @@ class FireP4jTests extends GroovyTestCase {
     	assertMessageIndexHeader(1)
 	}
     
+    /**
+     * This method tests exception output including the causes (and JSON escaping of the messages).
+     */
+    void testExceptionCauses() {
+    	try {
+    		// Only one cause is output
+	    	fireP4j.setOptions(100, -1, false)
+	    	fireP4j.maxCauseCount = 1
+    		try {
+    			// An intentional exception with two causes is thrown
+    			throw new RuntimeException("outer \"exception\"",
+    				new IllegalStateException("first cause", new IOException("second cause")))
+    		} catch (Exception e) {
+            	// The exception is caught and logged
+    			fireP4j.log(e)
+    		}
+    	} catch (Exception e) {
+    		// Fail on error
+			fail "error writing to fireP4j: " + e.getMessage()
+		} finally {
+			fireP4j.maxCauseCount = 5
+		}
+    	
+		// The message header is retrieved
+		String messageHeader = mockResponse.getHeader("X-Wf-1-1-1-1").toString()
+		assertTrue("escaped exception message on header ${messageHeader}", messageHeader.contains('"Message":"outer \\"exception\\""'))
+		assertTrue("first cause on header ${messageHeader}", messageHeader.contains('"class":"Caused by: IllegalStateException: first cause"'))
+		assertFalse("second cause on header ${messageHeader}", messageHeader.contains("second cause"))
+	}
+    
     /**
      * This method tests variable dumps to the Firebug server tab.
      */
@@ -623,6 +656,41 @@ class FireP4jTests extends GroovyTestCase {
 		assertMessageIndexHeader(2)
     }
     
+    /**
+     * This method tests that messages are split by UTF-8 byte length (without splitting surrogate pairs).
+     */
+    void testChunkSize() {
+    	// A message containing multi-byte characters (and a surrogate pair) is created
+    	String message = "\u00e4\u20ac\ud83d\ude00x" * 20
+    	
+        try {
+        	// Log output with small chunks
+        	fireP4j.chunkSize = 10
+    		fireP4j.log(message)
+    	} catch (Exception e) {
+    		// Fail on error
+			fail "error writing to fireP4j: " + e.getMessage()
+		} finally {
+			fireP4j.chunkSize = 5000
+		}
+    	
+    	// All the chunks are retrieved and checked
+    	StringBuilder body = new StringBuilder()
+    	int index = 1
+    	String header = null
+    	while ((header = mockResponse.getHeader("X-Wf-1-1-1-${index}")?.toString()) != null) {
+    		String chunk = header.substring(header.indexOf('|') + 1, header.lastIndexOf('|'))
+    		assertTrue("chunk byte length on header ${header}", chunk.getBytes("UTF-8").length <= 10)
+    		assertFalse("split surrogate pair on header ${header}", Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)))
+    		body.append(chunk)
+    		index++
+    	}
+    	
+    	// The chunks form the complete message
+    	assertTrue("complete message", body.toString().contains("\"${message}\""))
+    	assertMessageIndexHeader(index - 1)
+    }
+    
     /**
      * This method tests output of a message without a title.
      * (File properties are set, the title is not set)
@@ -946,6 +1014,7 @@ class FireP4jTests extends GroovyTestCase {
     	// A local FireP4j instance is created using different HTTP object mocks
     	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
     	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
 		FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
 		
     	// The instance number of the new instance is retrieved
@@ -963,6 +1032,827 @@ class FireP4jTests extends GroovyTestCase {
 		assertTrue("local instances stay the same", localCount1 == localCount2)
     }
     
+    /**
+     * This method tests that changing the settings of one instance does not affect the shared profile settings.
+     * (File properties are not set, the title is not set)
+     */
+    void testSharedProfileSettings() {
+    	def dog = createDog()
+    	
+    	// Two FireP4j instances are created for different requests
+    	HttpServletRequestMock localMockRequest1 = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse1 = new HttpServletResponseMock()
+    	HttpServletRequestMock localMockRequest2 = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse2 = new HttpServletResponseMock()
+    	localMockRequest1.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	localMockRequest2.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j1 = FireP4j.getInstance(localMockRequest1, localMockResponse1)
+    	FireP4j localFireP4j2 = FireP4j.getInstance(localMockRequest2, localMockResponse2)
+    	
+    	try {
+    		// Only the first instance filters the dog name and all the trace classes
+    		localFireP4j1.setOptions(100, -1, false)
+    		localFireP4j2.setOptions(100, -1, false)
+    		localFireP4j1.addObjectFilter("firep4j.objects.Dog", "name")
+    		localFireP4j1.addTraceFilter(Filter.Criteria.STARTS_WITH, "")
+    		
+    		// Both instances output the same object and trace
+    		localFireP4j1.log(dog)
+    		localFireP4j2.log(dog)
+    		localFireP4j1.trace("trace")
+    		localFireP4j2.trace("trace")
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	}
+    	
+    	// The settings of the first instance must not leak into the second one
+    	String messageHeader1 = localMockResponse1.getHeader("X-Wf-1-1-1-1").toString()
+    	String messageHeader2 = localMockResponse2.getHeader("X-Wf-1-1-1-1").toString()
+    	assertFalse("filtered field on header ${messageHeader1}", messageHeader1.contains("private:name"))
+    	assertTrue("unfiltered field on header ${messageHeader2}", messageHeader2.contains("private:name"))
+    	assertNull("filtered trace", localMockResponse1.getHeader("X-Wf-1-1-1-2"))
+    	assertNotNull("unfiltered trace", localMockResponse2.getHeader("X-Wf-1-1-1-2"))
+    }
+    
+    /**
+     * This method tests the compiled trace filters of all the filter criteria.
+     */
+    void testTraceFilterMatcher() {
+    	TraceFilterMatcher matcher = new TraceFilterMatcher([
+    		new Filter(type: Filter.Criteria.STARTS_WITH, value: "java."),
+    		new Filter(type: Filter.Criteria.STARTS_WITH, value: "javax.servlet"),
+    		new Filter(type: Filter.Criteria.CONTAINS, value: "Proxy"),
+    		new Filter(type: Filter.Criteria.CONTAINS, value: '$$Enhancer'),
+    		new Filter(type: Filter.Criteria.ENDS_WITH, value: "_Accessor"),
+    		new Filter(type: Filter.Criteria.EQUALS, value: "org.test.Main"),
+    		new Filter(type: Filter.Criteria.REGEX, value: '.*\\$_closure[0-9]+'),
+    	], 2)
+    	
+    	// Every criterion filters its class names
+    	assertTrue("prefix", matcher.matches("java.lang.Thread"))
+    	assertTrue("longer prefix", matcher.matches("javax.servlet.http.HttpServlet"))
+    	assertTrue("contained value", matcher.matches("com.sun.ProxyGenerator"))
+    	assertTrue("overlapping contained value", matcher.matches('org.test.Service$$$Enhancer1'))
+    	assertTrue("suffix", matcher.matches("org.test.Bean_Accessor"))
+    	assertTrue("equal value", matcher.matches("org.test.Main"))
+    	assertTrue("regular expression", matcher.matches('org.test.Script$_closure12'))
+    	
+    	// Other class names are not filtered (also when the verdicts are cached)
+    	for (int i = 0; i < 2; i++) {
+	    	assertFalse("similar prefix", matcher.matches("javax.swing.JFrame"))
+	    	assertFalse("partly contained value", matcher.matches("org.test.Prox"))
+	    	assertFalse("suffix in the middle", matcher.matches("org.test.Bean_AccessorImpl"))
+	    	assertFalse("longer equal value", matcher.matches("org.test.MainTest"))
+	    	assertFalse("partial regular expression", matcher.matches('org.test.Script$_closure1a'))
+    	}
+    }
+    
+    /**
+     * This method tests that option changes are published as a whole and are visible through the getters.
+     */
+    void testOptions() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, new HttpServletResponseMock())
+    	
+    	// Default options are set
+    	assertEquals("default max trace count", 10, localFireP4j.maxTraceCount)
+    	assertTrue("default line numbers", localFireP4j.includeLineNumbers)
+    	
+    	// All the options are changed at once
+    	localFireP4j.setOptions(20, 3, false)
+    	assertEquals("changed max trace count", 20, localFireP4j.maxTraceCount)
+    	assertEquals("changed max depth", 3, localFireP4j.maxDepth)
+    	assertFalse("changed line numbers", localFireP4j.includeLineNumbers)
+    	
+    	// Invalid values are ignored
+    	localFireP4j.setOptions(0, 0, true)
+    	assertEquals("unchanged max trace count", 20, localFireP4j.maxTraceCount)
+    	assertEquals("unchanged max depth", 3, localFireP4j.maxDepth)
+    	assertTrue("changed line numbers", localFireP4j.includeLineNumbers)
+    }
+    
+    /**
+     * This method tests that low-priority messages are dropped first when the header budget is used up.
+     */
+    void testHeaderBudget() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	
+    	try {
+    		// Many log messages are output, followed by an error
+    		localFireP4j.headerBudget = 4000
+    		for (int i = 0; i < 50; i++) {
+    			localFireP4j.log("log message ${i}" + ("x" * 100))
+    		}
+    		localFireP4j.error("error message")
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	}
+    	
+    	// All the message headers are retrieved
+    	List<String> headers = []
+    	int lastIndex = localMockResponse.getHeader("X-Wf-1-Index").toString() as int
+    	for (int i = 1; i <= lastIndex; i++) {
+    		headers << localMockResponse.getHeader("X-Wf-1-1-1-${i}").toString()
+    	}
+    	
+    	// Log messages were dropped, the error message was output (and the summary reports the dropped messages)
+    	assertTrue("dropped log messages", headers.findAll { it.contains("log message") }.size() < 50)
+    	assertTrue("error message output", headers.last().contains("error message"))
+    	String summary = headers.find { it.contains("Header budget of 4000 bytes exceeded") }
+    	assertNotNull("drop summary", summary)
+    	int logCount = headers.findAll { it.contains("log message") }.size()
+    	assertTrue("dropped message count on summary ${summary}", summary.contains("${50 - logCount} messages dropped"))
+    	assertTrue("header bytes within budget", headers.sum { it.getBytes("UTF-8").length + 20 } <= 4000)
+    }
+    
+    /**
+     * This method tests that lazily built objects are only built if they are output.
+     */
+    void testLazyLogging() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	int builtCount = 0
+    	
+    	try {
+    		// Lazy objects are built for an enabled instance
+    		localFireP4j.log({ builtCount++; "lazy message" }, "lazy label")
+    		localFireP4j.table("lazy table") { builtCount++; Table table = new Table(2); table.addRow("a", "b"); table }
+    		localFireP4j.log(null, "null message")
+    		localFireP4j.info({ builtCount++; "supplied message" } as Supplier)
+    		String missing = null
+    		localFireP4j.warn(missing, "null variable")
+    		
+    		// Neither a disabled instance nor the disabled shared instance builds lazy objects
+    		localFireP4j.enabled = false
+    		localFireP4j.warn({ builtCount++; "not built" })
+    		FireP4j disabledFireP4j = FireP4j.getInstance(new HttpServletRequestMock(), new HttpServletResponseMock())
+    		disabledFireP4j.error({ builtCount++; "not built" })
+    		disabledFireP4j.dump("not built", LazyObject.of { builtCount++; "not built" })
+    		disabledFireP4j.warn({ builtCount++; "not built" } as Supplier)
+    		DisabledFireP4j.sharedInstance.log({ builtCount++; "not built" } as Supplier)
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	}
+    	
+    	// Only the objects that were output were built
+    	assertEquals("built objects", 3, builtCount)
+    	assertEquals("output messages", "5", localMockResponse.getHeader("X-Wf-1-Index").toString())
+    	assertTrue("lazy message output", localMockResponse.getHeader("X-Wf-1-1-1-1").toString().contains('"lazy message"'))
+    	assertTrue("lazy table output", localMockResponse.getHeader("X-Wf-1-1-1-2").toString().contains('[["",""],["a","b"]]'))
+    	assertTrue("supplied message output", localMockResponse.getHeader("X-Wf-1-1-1-4").toString().contains('"supplied message"'))
+    	assertTrue("null variable output", localMockResponse.getHeader("X-Wf-1-1-1-5").toString().contains('"Label":"null variable"},null]'))
+    }
+    
+    /**
+     * This method tests that repeated messages of a loop are collapsed into a repeat count.
+     */
+    void testCollapseRepeats() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	
+    	try {
+    		// Two messages are logged alternately in a loop, the second one changes after a while
+    		for (int i = 0; i < 5; i++) {
+    			localFireP4j.log("repeated message")
+    			localFireP4j.log("changing message " + (i < 3 ? "a" : "b"))
+    		}
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	}
+    	
+    	// All the message headers are retrieved
+    	List<String> headers = []
+    	int lastIndex = localMockResponse.getHeader("X-Wf-1-Index").toString() as int
+    	for (int i = 1; i <= lastIndex; i++) {
+    		headers << localMockResponse.getHeader("X-Wf-1-1-1-${i}").toString()
+    	}
+    	
+    	// Every distinct message is output once, followed by the summary of its repeats
+    	assertEquals("message count", 6, headers.size())
+    	assertEquals("repeated message output once", 1, headers.findAll { it.contains('"repeated message"]') }.size())
+    	assertTrue("repeat summary", headers[2].contains('Message \\"repeated message\\" repeated 4 more times'))
+    	assertTrue("changing message repeats", headers[3].contains('Message \\"changing message a\\" repeated 2 more times'))
+    	assertTrue("changed message", headers[4].contains('"changing message b"]'))
+    	assertTrue("changed message repeat", headers[5].contains('repeated 1 more time"'))
+    }
+    
+    /**
+     * This method tests that messages above the request limit and the global rate limit are suppressed.
+     */
+    void testMessageLimits() {
+    	List<HttpServletResponseMock> responses = [new HttpServletResponseMock(), new HttpServletResponseMock()]
+    	List<FireP4j> instances = responses.collect { HttpServletResponseMock localMockResponse ->
+    		HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    		localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    		FireP4j.getInstance(localMockRequest, localMockResponse)
+    	}
+    	
+    	try {
+    		// The first request may output three messages
+    		instances[0].maxMessages = 3
+    		for (int i = 0; i < 5; i++) {
+    			instances[0].log("limited message ${i}")
+    		}
+    		
+    		// The second request is limited by the global rate
+    		FireP4j.globalRateLimit = 2
+    		for (int i = 0; i < 5; i++) {
+    			instances[1].log("rate limited message ${i}")
+    		}
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	} finally {
+    		FireP4j.globalRateLimit = -1
+    	}
+    	
+    	// The first request output three messages and the summary of the two suppressed ones
+    	assertEquals("message count", "4", responses[0].getHeader("X-Wf-1-Index").toString())
+    	assertTrue("last message", responses[0].getHeader("X-Wf-1-1-1-3").toString().contains("limited message 2"))
+    	assertTrue("suppressed summary", responses[0].getHeader("X-Wf-1-1-1-4").toString().contains("2 messages suppressed"))
+    	assertEquals("suppressed count", 2, instances[0].suppressedCount)
+    	
+    	// The second request output two messages (the permits of one second) and the summary
+    	assertEquals("rate limited count", 3, instances[1].suppressedCount)
+    	assertTrue("rate limited summary", responses[1].getHeader("X-Wf-1-1-1-3").toString().contains("3 messages suppressed"))
+    }
+    
+    /**
+     * This method tests that the stripes of the rate limiter hand out the whole rate (also if the rate is not
+     * divisible by the number of stripes).
+     */
+    void testRateLimiterPermits() {
+    	[3, 10, 31, 100].each { int rate ->
+    		RateLimiter rateLimiter = new RateLimiter(rate)
+    		int permits = 0
+    		for (int i = 0; i < rate + 50; i++) {
+    			if (rateLimiter.tryAcquire()) {
+    				permits++
+    			}
+    		}
+    		assertEquals("permits for a rate of ${rate}".toString(), rate, permits)
+    	}
+    }
+    
+    /**
+     * This method tests that collapsed repeats do not use up the message limits.
+     */
+    void testLimitsAfterCollapse() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	
+    	try {
+    		// The request may output two messages
+    		localFireP4j.maxMessages = 2
+    		for (int i = 0; i < 5; i++) {
+    			localFireP4j.log("repeated message")
+    		}
+    		localFireP4j.log("other message")
+    		localFireP4j.log("suppressed message")
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	}
+    	
+    	// The message, the repeat summary and the other message were output, only the last message was suppressed
+    	assertEquals("message count", "4", localMockResponse.getHeader("X-Wf-1-Index").toString())
+    	assertTrue("repeat summary", localMockResponse.getHeader("X-Wf-1-1-1-2").toString().contains("repeated 4 more times"))
+    	assertTrue("other message", localMockResponse.getHeader("X-Wf-1-1-1-3").toString().contains('"other message"]'))
+    	assertTrue("suppressed summary", localMockResponse.getHeader("X-Wf-1-1-1-4").toString().contains("1 messages suppressed"))
+    	assertEquals("suppressed count", 1, localFireP4j.suppressedCount)
+    }
+    
+    /**
+     * This method tests that payloads are degraded once the global memory budget is used up.
+     */
+    void testMemoryBudget() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	long degradedCount = FireP4j.globalDegradedCount
+    	int builtCount = 0
+    	
+    	try {
+    		// With an empty budget, payloads are neither built nor serialized
+    		FireP4j.globalMemoryBudget = 0
+    		localFireP4j.group("group")
+    		localFireP4j.dump("dump", LazyObject.of { builtCount++; "x" * 1000 })
+    		localFireP4j.log("message")
+    		localFireP4j.table("table") { builtCount++; new Table(1) }
+    		localFireP4j.groupEnd()
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	} finally {
+    		FireP4j.globalMemoryBudget = -1
+    		localFireP4j.release()
+    	}
+    	
+    	// The payloads were replaced by summaries, the table was suppressed and the groups were output
+    	assertEquals("nothing built", 0, builtCount)
+    	assertTrue("dump summary", localMockResponse.getHeader("X-Wf-1-2-1-2").toString().contains('{"dump":"Payload omitted: FireP4j memory budget of 0 bytes exceeded"}'))
+    	assertTrue("log summary", localMockResponse.getHeader("X-Wf-1-1-1-3").toString().contains('"Payload omitted'))
+    	assertTrue("table suppressed", localMockResponse.getHeader("X-Wf-1-1-1-4").toString().contains("1 messages suppressed"))
+    	assertTrue("group end", localMockResponse.getHeader("X-Wf-1-1-1-5").toString().contains("GROUP_END"))
+    	assertEquals("degraded count", degradedCount + 3, FireP4j.globalDegradedCount)
+    }
+    
+    /**
+     * This method tests that buffered messages are accounted in the global memory budget until the sampling decision.
+     */
+    void testBufferedMemory() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	localFireP4j.setTailSampling(60000, 0)
+    	long usage = FireP4j.globalMemoryUsage
+    	
+    	try {
+    		// The buffered message is accounted
+    		localFireP4j.log("x" * 1000)
+    		assertTrue("buffered message accounted", FireP4j.globalMemoryUsage >= usage + 2000)
+    		
+    		// A message that does not fit into the budget any more is dropped
+    		FireP4j.globalMemoryBudget = FireP4j.globalMemoryUsage + 300
+    		localFireP4j.log("y" * 1000)
+    		localFireP4j.error("error message")
+    		localFireP4j.flush()
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	} finally {
+    		FireP4j.globalMemoryBudget = -1
+    	}
+    	
+    	// The buffered messages were output and the dropped one summarized
+    	assertTrue("first message", localMockResponse.getHeader("X-Wf-1-1-1-1").toString().contains('"xxx'))
+    	assertTrue("error message", localMockResponse.getHeader("X-Wf-1-1-1-2").toString().contains('"error message"]'))
+    	assertTrue("dropped message", localMockResponse.getHeader("X-Wf-1-1-1-3").toString().contains("1 messages dropped"))
+    	
+    	// Once released, the instance does not hold any memory
+    	localFireP4j.release()
+    	assertEquals("memory released", usage, FireP4j.globalMemoryUsage)
+    }
+    
+    /**
+     * This method tests that the load monitor degrades the detail under load and restores it afterwards.
+     */
+    void testLoadDegradation() {
+    	// The pressure is evaluated on every call
+    	LoadMonitor monitor = new LoadMonitor(0)
+    	assertEquals("disabled monitor", LoadMonitor.full, monitor.level)
+    	monitor.setLimits(1000, -1)
+    	
+    	// Slow messages raise the level at once
+    	monitor.record(10000)
+    	assertEquals("reduced detail", LoadMonitor.reduced, monitor.level)
+    	(1..4).each { monitor.record(1000000) }
+    	assertEquals("no output", LoadMonitor.off, monitor.level)
+    	
+    	// Fast messages lower the pressure again and the detail is restored one level at a time
+    	List<Integer> levels = []
+    	for (int i = 0; i < 100 && monitor.level != LoadMonitor.full; i++) {
+    		levels << monitor.level
+    		monitor.record(0)
+    	}
+    	assertEquals("restored", LoadMonitor.full, monitor.level)
+    	assertEquals("one level at a time", [LoadMonitor.off, LoadMonitor.minimal, LoadMonitor.reduced], levels.unique())
+    	
+    	// The degraded configurations limit the detail (and are reused)
+    	FireP4jConfig config = FireP4jConfig.forProfile(new CompiledProfile(new GroovyProfile()))
+    	FireP4jConfig minimal = config.degrade(LoadMonitor.minimal)
+    	assertSame("full detail", config, config.degrade(LoadMonitor.full))
+    	assertSame("reused configuration", minimal, config.degrade(LoadMonitor.minimal))
+    	assertEquals("reduced trace count", 5, config.degrade(LoadMonitor.reduced).maxTraceCount)
+    	assertEquals("reduced depth", 3, config.degrade(LoadMonitor.reduced).jsonUtils.maxDepth)
+    	assertTrue("line numbers kept", config.degrade(LoadMonitor.reduced).includeLineNumbers)
+    	assertEquals("minimal trace count", 2, minimal.maxTraceCount)
+    	assertEquals("minimal depth", 1, minimal.jsonUtils.maxDepth)
+    	assertFalse("no line numbers", minimal.includeLineNumbers)
+    }
+    
+    /**
+     * This method tests that FireP4j is only enabled for requests with a valid activation token if a secret is set.
+     */
+    void testActivationToken() {
+    	long now = System.currentTimeMillis().intdiv(1000) as long
+    	Closure<FireP4j> request = { String token ->
+    		HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    		localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    		if (token != null) {
+    			localMockRequest.setHeader(FireP4j.activationHeader, token)
+    		}
+    		FireP4j.getInstance(localMockRequest, new HttpServletResponseMock())
+    	}
+    	
+    	try {
+    		FireP4j.activationSecret = "secret".getBytes("UTF-8")
+    		String token = FireP4j.createActivationToken("engineer", now + 60)
+    		
+    		// Only the valid token enables FireP4j (twice, the second time from the cache)
+    		assertTrue("valid token", request.call(token).active)
+    		assertTrue("cached token", request.call(token).active)
+    		assertFalse("missing token", request.call(null).active)
+    		assertFalse("expired token", request.call(FireP4j.createActivationToken("engineer", now - 1)).active)
+    		assertFalse("forged subject", request.call(token.replace("engineer", "intruder")).active)
+    		assertFalse("malformed token", request.call("engineer.soon.xyz").active)
+    		
+    		// Tokens of another secret are rejected
+    		FireP4j.activationSecret = "other secret".getBytes("UTF-8")
+    		assertFalse("other secret", request.call(token).active)
+    	} finally {
+    		FireP4j.activationSecret = null
+    	}
+    	
+    	// Without a secret, no token is required
+    	assertTrue("no secret", request.call(null).active)
+    }
+    
+    /**
+     * This method tests that messages of executor threads reach the instance of the request in the order they were logged.
+     */
+    void testContextPropagation() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	ExecutorService pool = Executors.newSingleThreadExecutor()
+    	
+    	try {
+    		FireP4jContext.Scope scope = FireP4jContext.bind(localFireP4j)
+    		try {
+    			localFireP4j.log("first message")
+    			
+    			// The task logs through the instance bound to the request thread
+    			Callable<FireP4j> task = FireP4jContext.wrap(new Callable<FireP4j>() {
+    				public FireP4j call() {
+    					FireP4j.current().log("async message")
+    					FireP4j.current()
+    				}
+    			})
+    			assertSame("bound instance in the task", localFireP4j, pool.submit(task).get())
+    			
+    			// Threads started within the scope do not inherit the instance
+    			FireP4j inherited = null
+    			Thread thread = new Thread({ inherited = FireP4j.current() } as Runnable)
+    			thread.start()
+    			thread.join()
+    			assertSame("not inherited", DisabledFireP4j.sharedInstance, inherited)
+    			
+    			// A worker logging last (nothing is logged or flushed by the request thread afterwards)
+    			pool.submit(FireP4jContext.wrap(new Runnable() {
+    				public void run() {
+    					FireP4j.current().log("last message")
+    				}
+    			})).get()
+    		} finally {
+    			scope.close()
+    		}
+    	} finally {
+    		pool.shutdown()
+    	}
+    	assertSame("no instance bound", DisabledFireP4j.sharedInstance, FireP4j.current())
+    	
+    	// The messages of the workers are written right away, in the order they were logged
+    	assertEquals("written messages", "3", localMockResponse.getHeader("X-Wf-1-Index").toString())
+    	List<String> headers = (1..3).collect { localMockResponse.getHeader("X-Wf-1-1-1-${it}").toString() }
+    	assertTrue("first message", headers[0].contains('"first message"]'))
+    	assertTrue("async message", headers[1].contains('"async message"]'))
+    	assertTrue("last message", headers[2].contains('"last message"]'))
+    	
+    	// A released instance is treated as unbound, and late messages are not written anymore
+    	localFireP4j.release()
+    	FireP4jContext.Scope scope = FireP4jContext.bind(localFireP4j)
+    	try {
+    		assertSame("released instance", DisabledFireP4j.sharedInstance, FireP4j.current())
+    	} finally {
+    		scope.close()
+    	}
+    	localFireP4j.log("late message")
+    	assertEquals("late message not written", "3", localMockResponse.getHeader("X-Wf-1-Index").toString())
+    }
+    
+    /**
+     * This method tests that the file and line of a message point at the call site in the application, for direct
+     * calls as well as for calls from a closure and through a logging bridge.
+     */
+    void testCallerLocation() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	List<Integer> lines = []
+    	
+    	// The line of every call is taken on the same line as the call
+    	localFireP4j.log("direct call"); lines << lineOf(new Throwable())
+    	[1].each { localFireP4j.info("closure call"); lines << lineOf(new Throwable()) }
+    	FireP4jContext.Scope scope = FireP4jContext.bind(localFireP4j)
+    	try {
+    		new FireP4jAppender().append("WARN", "bridge", "bridge call", null, null); lines << lineOf(new Throwable())
+    	} finally {
+    		scope.close()
+    	}
+    	
+    	// Every message points at its call site
+    	assertEquals("message count", "3", localMockResponse.getHeader("X-Wf-1-Index").toString())
+    	(1..3).each { println localMockResponse.getHeader("X-Wf-1-1-1-${it}") }
+    	(1..3).each { int index ->
+    		String header = localMockResponse.getHeader("X-Wf-1-1-1-${index}").toString()
+    		assertTrue("file of call ${index}".toString(), header.contains('"File":"FireP4jTests.groovy"'))
+    		assertTrue("line of call ${index}".toString(), header.contains("\"Line\":${lines[index - 1]},".toString()) ||
+    			header.contains("\"Line\":${lines[index - 1]}}".toString()))
+    	}
+    }
+    
+    /**
+     * This method returns the line of this test class in which the given throwable was created.
+     * 
+     * @param throwable Throwable created at the line
+     * @return Line number
+     */
+    private static int lineOf(Throwable throwable) {
+    	throwable.getStackTrace().find { StackTraceElement element -> element.getFileName() == "FireP4jTests.groovy" }.getLineNumber()
+    }
+    
+    /**
+     * This method tests that java.util.logging and SLF4J style records are forwarded to the instance of the request.
+     */
+    void testLoggingBridges() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	
+    	// The formatted messages are counted
+    	AtomicInteger formatCount = new AtomicInteger()
+    	FireP4jHandler handler = new FireP4jHandler()
+    	handler.setLevel(java.util.logging.Level.INFO)
+    	handler.setFormatter(new java.util.logging.SimpleFormatter() {
+    		public String formatMessage(java.util.logging.LogRecord record) {
+    			formatCount.incrementAndGet()
+    			super.formatMessage(record)
+    		}
+    	})
+    	java.util.logging.Logger logger = java.util.logging.Logger.getLogger("firep4j.bridge")
+    	logger.setUseParentHandlers(false)
+    	logger.setLevel(java.util.logging.Level.ALL)
+    	logger.addHandler(handler)
+    	FireP4jAppender appender = new FireP4jAppender()
+    	appender.setThreshold("INFO")
+    	assertEquals("threshold", "INFO", appender.getThreshold())
+    	
+    	try {
+    		// Without a bound instance, nothing is formatted
+    		logger.warning("unbound warning")
+    		assertEquals("nothing formatted", 0, formatCount.get())
+    		
+    		FireP4jContext.Scope scope = FireP4jContext.bind(localFireP4j)
+    		try {
+    			logger.fine("fine record")
+    			logger.log(java.util.logging.Level.WARNING, "careful with {0}", "bridges")
+    			appender.append("DEBUG", "slf4j.logger", "debug {}", ["record"] as Object[], null)
+    			appender.append("ERROR", "slf4j.logger", "failed {} of {}", [3, 5] as Object[], null)
+    		} finally {
+    			scope.close()
+    		}
+    	} finally {
+    		logger.removeHandler(handler)
+    	}
+    	
+    	// Only the records above the thresholds are formatted and output with the matching log level
+    	assertEquals("formatted records", 1, formatCount.get())
+    	assertEquals("message count", "2", localMockResponse.getHeader("X-Wf-1-Index").toString())
+    	String warning = localMockResponse.getHeader("X-Wf-1-1-1-1").toString()
+    	String error = localMockResponse.getHeader("X-Wf-1-1-1-2").toString()
+    	assertTrue("warning level", warning.contains('"Type":"WARN"') && warning.contains('"Label":"firep4j.bridge"'))
+    	assertTrue("warning message", warning.contains('"careful with bridges"]'))
+    	assertTrue("error level", error.contains('"Type":"ERROR"') && error.contains('"failed 3 of 5"]'))
+    	
+    	// The location is the application calling the logging framework (not the bridge)
+    	assertTrue("warning location", warning.contains('"File":"FireP4jTests.groovy"'))
+    	assertTrue("error location", error.contains('"File":"FireP4jTests.groovy"'))
+    }
+    
+    /**
+     * This method tests that uncaught exceptions of registered threads are dispatched to the instance of the request
+     * and that the registrations are removed when the instance is released.
+     */
+    void testExceptionHandlerRegistry() {
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    	FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	int registrationCount = FireP4jExceptionHandler.registrationCount
+    	
+    	// Two threads get handlers, one of them throws an exception
+    	Thread failingThread = new Thread({ throw new IllegalStateException("uncaught exception") } as Runnable)
+    	Thread idleThread = new Thread({ } as Runnable)
+    	localFireP4j.registerExceptionHandler(failingThread)
+    	localFireP4j.registerErrorHandler(idleThread)
+    	localFireP4j.registerExceptionHandler(idleThread)
+    	
+    	// The shared dispatcher is installed
+    	assertSame("dispatcher installed", FireP4jExceptionHandler.dispatcher, failingThread.uncaughtExceptionHandler)
+    	assertSame("same dispatcher", FireP4jExceptionHandler.dispatcher, idleThread.uncaughtExceptionHandler)
+    	assertEquals("registrations", registrationCount + 2, FireP4jExceptionHandler.registrationCount)
+    	
+    	failingThread.start()
+    	failingThread.join()
+    	localFireP4j.flush()
+    	
+    	// The exception was logged to the instance of the request
+    	String messageHeader = localMockResponse.getHeader("X-Wf-1-1-1-1").toString()
+    	assertTrue("exception logged", messageHeader.contains('"Type":"EXCEPTION"') && messageHeader.contains("uncaught exception"))
+    	
+    	// Releasing the instance removes the registrations and restores the default handling
+    	localFireP4j.release()
+    	assertEquals("registrations removed", registrationCount, FireP4jExceptionHandler.registrationCount)
+    	assertSame("default handling restored", idleThread.threadGroup, idleThread.uncaughtExceptionHandler)
+    }
+    
+    /**
+     * This method tests that repeated exceptions are collapsed within a request and output without their trace
+     * in further requests.
+     */
+    void testExceptionFingerprints() {
+    	List<HttpServletResponseMock> responses = (0..3).collect { new HttpServletResponseMock() }
+    	
+    	// Omitting the traces of known exceptions is enabled
+    	FireP4j.exceptionTraceInterval = 60
+    	
+    	try {
+    		responses.eachWithIndex { HttpServletResponseMock localMockResponse, int request ->
+    			HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    			localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    			FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    			
+    			// The first request was released already (its exceptions are only counted), in the last request
+    			// the full trace is always output
+    			if (request == 0) {
+    				localFireP4j.release()
+    			} else if (request == 3) {
+    				FireP4j.exceptionTraceInterval = 0
+    			}
+    			
+    			// Every request fails three times at the same place (with a different message)
+    			for (int i = 0; i < 3; i++) {
+    				localFireP4j.error(new IllegalStateException("broken dependency ${request}.${i}"))
+    			}
+    		}
+    	} finally {
+    		FireP4j.exceptionTraceInterval = 0
+    	}
+    	
+    	// The released request wrote nothing, so the first written request still outputs the trace once and counts
+    	// the repeats
+    	assertNull("nothing written", responses[0].getHeader("X-Wf-1-Index"))
+    	List<String> first = (1..2).collect { responses[1].getHeader("X-Wf-1-1-1-${it}").toString() }
+    	assertEquals("first request messages", "2", responses[1].getHeader("X-Wf-1-Index").toString())
+    	assertTrue("full trace", first[0].contains('"Type":"EXCEPTION"') && first[0].contains('"Trace":['))
+    	assertTrue("repeats counted", first[1].contains("repeated 2 more times"))
+    	
+    	// The second request only outputs the message and the number of occurrences
+    	String second = responses[2].getHeader("X-Wf-1-1-1-1").toString()
+    	assertTrue("no trace", second.contains('"Type":"ERROR"') && !second.contains('"Trace"'))
+    	assertTrue("occurrences", second.contains("broken dependency 2.0 (seen 7 times in the last minute, trace omitted)"))
+    	
+    	// Without a trace interval, the trace is output again
+    	assertTrue("trace output again", responses[3].getHeader("X-Wf-1-1-1-1").toString().contains('"Type":"EXCEPTION"'))
+    }
+    
+    /**
+     * This method tests that tail sampling only outputs the messages of requests with errors.
+     */
+    void testTailSampling() {
+    	// Two requests with tail sampling are simulated (neither is slow nor sampled)
+    	HttpServletResponseMock quietResponse = new HttpServletResponseMock()
+    	HttpServletResponseMock failingResponse = new HttpServletResponseMock()
+    	List<FireP4j> instances = [quietResponse, failingResponse].collect { HttpServletResponseMock localMockResponse ->
+    		HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    		localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    		FireP4j.getInstance(localMockRequest, localMockResponse)
+    	}
+    	
+    	try {
+    		instances.each { FireP4j localFireP4j ->
+    			localFireP4j.setTailSampling(60000, 0)
+    			assertTrue("sampling enabled", localFireP4j.sampling)
+    			localFireP4j.log("buffered message")
+    		}
+    		instances[1].error("error message")
+    		
+    		// Nothing is output before the decision is made
+    		assertNull("no header before flush", failingResponse.getHeader("X-Wf-1-Index"))
+    		instances*.flush()
+    		
+    		// Messages after a negative decision are dropped as well
+    		instances[0].log("dropped message")
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	}
+    	
+    	// The quiet request did not output anything, the failing one output all its messages in order
+    	assertNull("quiet request dropped", quietResponse.getHeader("X-Wf-1-Index"))
+    	assertEquals("failing request output", "2", failingResponse.getHeader("X-Wf-1-Index").toString())
+    	assertTrue("buffered message output", failingResponse.getHeader("X-Wf-1-1-1-1").toString().contains("buffered message"))
+    	assertTrue("error message output", failingResponse.getHeader("X-Wf-1-1-1-2").toString().contains("error message"))
+    }
+    
+    /**
+     * This method tests that lazy exceptions decide the sampling and that messages beyond the buffer are summarized.
+     */
+    void testTailSamplingDecision() {
+    	HttpServletResponseMock lazyResponse = new HttpServletResponseMock()
+    	HttpServletResponseMock fullResponse = new HttpServletResponseMock()
+    	List<FireP4j> instances = [lazyResponse, fullResponse].collect { HttpServletResponseMock localMockResponse ->
+    		HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    		localMockRequest.setHeader("User-Agent", mockRequest.getHeader("User-Agent"))
+    		FireP4j localFireP4j = FireP4j.getInstance(localMockRequest, localMockResponse)
+    		localFireP4j.setTailSampling(60000, 0)
+    		localFireP4j
+    	}
+    	
+    	try {
+    		// The first request logs an exception lazily
+    		instances[0].log("buffered message")
+    		instances[0].log(LazyObject.of({ new IllegalStateException("lazy failure") } as Supplier))
+    		
+    		// The second request logs more messages than the buffer holds (the last one is an error)
+    		for (int i = 0; i < 1001; i++) {
+    			instances[1].log("message ${i}".toString())
+    		}
+    		instances[1].error("error message")
+    		instances*.flush()
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to fireP4j: " + e.getMessage()
+    	}
+    	
+    	// The lazy exception caused the messages to be output
+    	assertEquals("lazy request output", "2", lazyResponse.getHeader("X-Wf-1-Index").toString())
+    	assertTrue("lazy exception", lazyResponse.getHeader("X-Wf-1-1-1-2").toString().contains('"Type":"EXCEPTION"'))
+    	
+    	// The buffered messages were output and the dropped ones summarized
+    	assertEquals("full request output", "1001", fullResponse.getHeader("X-Wf-1-Index").toString())
+    	assertTrue("last buffered message", fullResponse.getHeader("X-Wf-1-1-1-1000").toString().contains('"message 999"]'))
+    	assertTrue("overflow summary", fullResponse.getHeader("X-Wf-1-1-1-1001").toString().contains("2 messages dropped"))
+    }
+    
+    /**
+     * This method tests that clients without a FirePHP user agent share the disabled instance.
+     */
+    void testDisabledInstance() {
+    	// The current instance number is retrieved
+    	int currentCount = fireP4j.instanceCount
+    	
+    	// Two requests without a FirePHP user agent are simulated
+    	HttpServletRequestMock localMockRequest = new HttpServletRequestMock()
+    	HttpServletResponseMock localMockResponse = new HttpServletResponseMock()
+    	FireP4j localFireP4j1 = FireP4j.getInstance(localMockRequest, localMockResponse)
+    	FireP4j localFireP4j2 = FireP4j.getInstance(new HttpServletRequestMock(), new HttpServletResponseMock(), true)
+    	
+    	// Both requests get the same shared instance and no new instance is created
+    	assertSame("shared disabled instance", localFireP4j1, localFireP4j2)
+    	assertFalse("disabled instance is not active", localFireP4j1.active)
+    	assertEquals("no new instance created", currentCount, localFireP4j1.instanceCount)
+    	
+    	try {
+    		// The disabled instance ignores every call
+    		localFireP4j1.enabled = true
+    		localFireP4j1.setOptions(1, 1, true)
+    		localFireP4j1.addTraceFilter(Filter.Criteria.STARTS_WITH, "foo.bar")
+    		localFireP4j1.registerExceptionHandler()
+    		localFireP4j1.group("group")
+    		localFireP4j1.log("should not be output")
+    		localFireP4j1.groupEnd()
+    	} catch (Exception e) {
+    		// Fail on error
+    		fail "error writing to disabled fireP4j: " + e.getMessage()
+    	}
+    	
+    	// Nothing is output and the instance stays disabled
+    	assertFalse("disabled instance stays inactive", localFireP4j1.active)
+    	assertNull("no message header", localMockResponse.getHeader("X-Wf-1-1-1-1"))
+    	assertNull("no instance stored on the request", localMockRequest.getAttribute("fireP4jInstance"))
+    }
+    
     /**
      * This method creates a standard person object.
      * 
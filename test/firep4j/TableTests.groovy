@@ -19,6 +19,15 @@ import firep4j.tools.JSONUtils;
 import firep4j.Table;
 import groovy.util.GroovyTestCase
 
+import firep4j.objects.Dog
+
+import java.sql.ResultSet
+import java.sql.ResultSetMetaData
+import java.util.function.UnaryOperator
+import java.util.stream.Stream
+import servlet.http.HttpServletRequestMock
+import servlet.http.HttpServletResponseMock
+
 /**
  * This class tests the Table structure for FireP4j.
  * 
@@ -80,4 +89,160 @@ class TableTests extends GroovyTestCase {
         // The output of the serializer is tested
         assertEquals("Table serialization", "[[\"\",\"\"]]", response)
     }
-}
\ No newline at end of file
+    
+    /**
+     * This method tests tables with typed columns (they are serialized the same way as tables of objects).
+     */
+    void testTypedColumns() {
+    	JSONUtils jsonUtils = new JSONUtils()
+    	
+    	// The same rows are added to a typed table and to a table of objects
+    	Table typed = new Table(Table.ColumnType.STRING, Table.ColumnType.INT, Table.ColumnType.LONG,
+    		Table.ColumnType.DOUBLE, Table.ColumnType.BOOLEAN)
+    	Table objects = new Table(5)
+    	typed.setHeaders("query", "rows", "bytes", "millis", "cached")
+    	objects.setHeaders("query", "rows", "bytes", "millis", "cached")
+    	for (int i = 0; i < 3000; i++) {
+    		typed.newRow().set(0, "select \"${i}\"".toString()).set(1, i).set(2, i * 1000000000L).set(3, i / 8.0d).set(4, i % 2 == 0)
+    		objects.addRow("select \"${i}\"".toString(), i, i * 1000000000L, i / 8.0d, i % 2 == 0)
+    	}
+    	typed.addRow("partial row", 1)
+    	objects.addRow("partial row", 1)
+    	
+    	assertEquals("row count", 3001, typed.rowCount)
+    	assertEquals("column type", Table.ColumnType.LONG, typed.getColumnType(2))
+    	assertEquals("same serialization", objects.serialize(jsonUtils), typed.serialize(jsonUtils))
+    	assertTrue("typed values", typed.serialize(jsonUtils).endsWith(',["select \\"2999\\"",2999,2999000000000,374.875,false],["partial row",1,null,null,null]]'))
+    	
+    	// Values that do not match the column type are rejected
+    	try {
+    		typed.addRow("query", "not a number")
+    		fail "intentional exception was not fired"
+    	} catch (IllegalArgumentException e) { }
+    	assertEquals("rejected row not added", 3001, typed.rowCount)
+    	assertEquals("unchanged serialization", objects.serialize(jsonUtils), typed.serialize(jsonUtils))
+    	try {
+    		typed.newRow().set(4, 1.5d)
+    		fail "intentional exception was not fired"
+    	} catch (IllegalArgumentException e) { }
+    	
+    	// Values can only be set after a row was added
+    	try {
+    		new Table(Table.ColumnType.INT).set(0, 1)
+    		fail "intentional exception was not fired"
+    	} catch (IllegalStateException e) { }
+    }
+    
+    /**
+     * This method tests tables reading their rows from an iterable, a stream and a result set.
+     */
+    void testSources() {
+    	JSONUtils jsonUtils = new JSONUtils()
+    	
+    	// The rows of an iterable are only read when the table is serialized
+    	int iteratorCount = 0
+    	List<List<Object>> rows = [["a", 1], ["b", 2], ["c", 3], ["d", 4], ["e", 5]]
+    	Iterable<List<Object>> iterable = { iteratorCount++; rows.iterator() } as Iterable
+    	Table table = Table.of(iterable, 3, "name", "value")
+    	assertEquals("not read yet", 0, iteratorCount)
+    	assertEquals("iterable table", '[["name","value"],["a",1],["b",2],["c",3],["... 2 more rows",null]]', table.serialize(jsonUtils))
+    	assertEquals("read once", 1, iteratorCount)
+    	
+    	// Collections are not iterated beyond the limit
+    	assertEquals("collection table", '[["name","value"],["a",1],["... 4 more rows",null]]', Table.of(rows, 1, "name", "value").serialize(jsonUtils))
+    	
+    	// Only a limited number of remaining stream rows is counted, the stream is closed afterwards
+    	boolean closed = false
+    	Stream<Integer> stream = Stream.iterate(0, { Integer i -> i + 1 } as UnaryOperator).onClose({ closed = true } as Runnable)
+    	assertEquals("stream table", '[["number"],[0],[1],["... more than 10000 more rows"]]', Table.of(stream, 2, "number").serialize(jsonUtils))
+    	assertTrue("stream closed", closed)
+    	
+    	// The headers of a result set are the column labels
+    	int position = 0
+    	ResultSetMetaData metaData = [getColumnCount: { 2 }, getColumnLabel: { int column -> column == 1 ? "id" : "label" }] as ResultSetMetaData
+    	ResultSet resultSet = [
+    		getMetaData: { metaData },
+    		next: { ++position <= 3 },
+    		getObject: { int column -> column == 1 ? position : "row " + position }
+    	] as ResultSet
+    	assertEquals("result set table", '[["id","label"],[1,"row 1"],[2,"row 2"],["... 1 more row",null]]', Table.of(resultSet, 2).serialize(jsonUtils))
+    }
+    
+    /**
+     * This method tests that the sources of tables that are not output are not read, and that streams are read
+     * when they are logged under tail sampling.
+     */
+    void testSourcesNotRead() {
+    	int iteratorCount = 0
+    	Iterable<List<Object>> iterable = { iteratorCount++; [["a", 1]].iterator() } as Iterable
+    	
+    	// The disabled instance does nothing at all
+    	DisabledFireP4j.sharedInstance.table(Table.of(iterable, 10, "name", "value"), "names")
+    	assertEquals("not read when disabled", 0, iteratorCount)
+    	
+    	// Without room in the header budget, the table is dropped before it is serialized
+    	FireP4j budgetFireP4j = createFireP4j(new HttpServletResponseMock())
+    	budgetFireP4j.headerBudget = 0
+    	budgetFireP4j.table(Table.of(iterable, 10, "name", "value"), "names")
+    	assertEquals("not read without header budget", 0, iteratorCount)
+    	
+    	// Above the global rate limit, the table is suppressed before it is serialized
+    	FireP4j.globalRateLimit = 0
+    	try {
+    		createFireP4j(new HttpServletResponseMock()).table(Table.of(iterable, 10, "name", "value"), "names")
+    	} finally {
+    		FireP4j.globalRateLimit = -1
+    	}
+    	assertEquals("not read above the rate limit", 0, iteratorCount)
+    	
+    	// With tail sampling, a stream is read when it is logged, an iterable only if the messages are output
+    	boolean closed = false
+    	Stream<Integer> stream = Stream.of(1, 2, 3).onClose({ closed = true } as Runnable)
+    	HttpServletResponseMock sampledResponse = new HttpServletResponseMock()
+    	FireP4j sampledFireP4j = createFireP4j(sampledResponse)
+    	sampledFireP4j.setTailSampling(60000, 0)
+    	sampledFireP4j.table(Table.of(stream, 10, "number"), "numbers")
+    	sampledFireP4j.table(Table.of(iterable, 10, "name", "value"), "names")
+    	assertTrue("stream read when logged", closed)
+    	sampledFireP4j.flush()
+    	assertEquals("iterable not read for dropped messages", 0, iteratorCount)
+    	assertNull("nothing output", sampledResponse.getHeader("X-Wf-1-Index"))
+    	
+    	// A table that is output is read once
+    	createFireP4j(new HttpServletResponseMock()).table(Table.of(iterable, 10, "name", "value"), "names")
+    	assertEquals("read when output", 1, iteratorCount)
+    }
+    
+    /**
+     * This method creates a FireP4j instance for a request of a client with FirePHP.
+     * 
+     * @param response Response mock
+     * @return FireP4j instance
+     */
+    private FireP4j createFireP4j(HttpServletResponseMock response) {
+    	HttpServletRequestMock request = new HttpServletRequestMock()
+    	request.setHeader("User-Agent", "Mozilla/5.0 (Windows; U; Windows NT 6.1; de; rv:1.9.2.3) Gecko/20100401 Firefox/3.6.3 FirePHP/0.4")
+    	FireP4j.getInstance(request, response)
+    }
+    
+    /**
+     * This method tests that the parallel serialization of a large table has the same output as the sequential one.
+     */
+    void testParallelSerialize() {
+    	JSONUtils jsonUtils = new JSONUtils()
+    	jsonUtils.addObjectFilter(Dog.name, "race")
+    	
+    	// A table with objects in its cells spans several blocks
+    	Table table = new Table(Table.ColumnType.INT, Table.ColumnType.STRING, Table.ColumnType.OBJECT)
+    	table.setHeaders("id", "name", "dog")
+    	for (int i = 0; i < 2500; i++) {
+    		table.newRow().set(0, i).set(1, "dog ${i}".toString()).set(2, new Dog("Lassie ${i}".toString(), "Collie ${i}".toString(), "tag ${i}".toString()))
+    	}
+    	table.addRow(2500)
+    	
+    	String sequential = table.serialize(jsonUtils)
+    	table.parallel = true
+    	assertEquals("same output", sequential, table.serialize(jsonUtils))
+    	assertTrue("object filter applied", sequential.contains("Lassie 2499") && !sequential.contains("Collie 2499"))
+    }
+}
@@ -15,6 +15,8 @@
  */
 package firep4j
 
+import firep4j.tools.UserAgentCache;
+import firep4j.tools.Version;
 import firep4j.tools.Versioner;
 import groovy.util.GroovyTestCase;
 
@@ -42,13 +44,14 @@ class VersionerTests extends GroovyTestCase {
      * This method tests the normalization of different version strings.
      */
     void testStandardizeVersion() {
-    	// Several version strings are normalized and asserted    	
-    	assertEquals("standard version string", "0.4", Versioner.standardizeVersion("0.4"))
-    	assertEquals("version string with different separator characters", "0.3.4.5", Versioner.standardizeVersion("0-3+4 5"))
-    	assertEquals("version containing letters", "0.4.RC", Versioner.standardizeVersion("0.4RC"))
-    	assertEquals("version containing letters and numbers", "0.4.RC.1", Versioner.standardizeVersion("0.4RC1"))
-    	assertEquals("version containing dots in inappropriate places", "0.0.40.0.1.0", Versioner.standardizeVersion(".0.40..1."))
-    	assertEquals("version containing forbidden characters", "0.0.4", Versioner.standardizeVersion("0.%.4%"))
+    	// Several version strings are parsed and compared to their standardized form
+    	assertEquals("standard version string", Version.parse("0.4"), Version.parse("0.4"))
+    	assertEquals("version string with different separator characters", Version.parse("0.3.4.5"), Version.parse("0-3+4 5"))
+    	assertEquals("version containing letters", Version.parse("0.4.RC"), Version.parse("0.4RC"))
+    	assertEquals("version containing letters and numbers", Version.parse("0.4.RC.1"), Version.parse("0.4RC1"))
+    	assertEquals("version containing dots in inappropriate places", Version.parse("0.0.40.0.1.0"), Version.parse(".0.40..1."))
+    	assertEquals("version containing forbidden characters", Version.parse("0.0.4"), Version.parse("0.%.4%"))
+    	assertEquals("version with leading separators", 1, Version.parse("..1").compareTo(Version.parse("0.0.0.9")))
 	}
     
     /**
@@ -66,4 +69,40 @@ class VersionerTests extends GroovyTestCase {
     	assertEquals("complex version test 4", 1, Versioner.compareVersions("4.2a", "4.2dev"))
     	assertEquals("complex version test 5", -1, Versioner.compareVersions("4.2", "4.2pl"))
     }
+    
+    /**
+     * This method tests the parsed version type.
+     */
+    void testVersion() {
+    	// Parsed versions compare like version strings
+    	assertEquals("version equality test", 0, Version.parse("4.2").compareTo(Version.parse("4.2.0")))
+    	assertEquals("version equality", Version.parse("4.2"), Version.parse("4.2.0"))
+    	assertEquals("hash code equality", Version.parse("4.2").hashCode(), Version.parse("4.2.0").hashCode())
+    	assertEquals("version test", -1, Version.parse("4.2RC1").compareTo(Version.parse("4.2.RC2")))
+    	assertEquals("post release is newer than alpha", 1, Version.parse("4.2pl").compareTo(Version.parse("4.2a")))
+    	assertEquals("original version string", "4.2RC1", Version.parse("4.2RC1").toString())
+    	
+    	// Versions are sorted
+    	def versions = ["1.0", "1.0RC1", "1.0b2", "0.9", "1.0.1", "1.0a", "1.0dev", "1.0pl1"].collect { Version.parse(it) }
+    	assertEquals("sorted versions", ["0.9", "1.0dev", "1.0a", "1.0b2", "1.0RC1", "1.0", "1.0.1", "1.0pl1"], versions.sort()*.toString())
+    }
+    
+    /**
+     * This method tests the cached FirePHP version detection of user agents.
+     */
+    void testUserAgentCache() {
+    	UserAgentCache cache = new UserAgentCache("0.0.6", 2)
+    	
+    	// Supported, unsupported and missing FirePHP versions are asserted
+    	assertTrue("supported version", cache.isSupported("Mozilla/5.0 Firefox/3.6.3 FirePHP/0.4"))
+    	assertTrue("supported version (cached)", cache.isSupported("Mozilla/5.0 Firefox/3.6.3 FirePHP/0.4"))
+    	assertFalse("unsupported version", cache.isSupported("Mozilla/5.0 Firefox/3.6.3 FirePHP/0.0.5"))
+    	assertFalse("no FirePHP version", cache.isSupported("Mozilla/5.0 Chrome/4.1.249.1064 Safari/532.5"))
+    	assertFalse("no user agent", cache.isSupported(null))
+    	
+    	// Only FirePHP user agents are cached and the cache stays bounded
+    	assertEquals("cached user agents", 2, cache.size())
+    	assertTrue("supported version", cache.isSupported("Mozilla/5.0 Firefox/3.6.4 FirePHP/0.5"))
+    	assertTrue("bounded cache", cache.size() <= 2)
+    }
 }
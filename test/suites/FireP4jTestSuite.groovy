@@ -1,19 +1,19 @@
-/*
- * Copyright 2010 Thomas Endres
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
- * implied. See the License for the specific language governing
- * permissions and limitations under the License.
- */
-package suites
+/*
+ * Copyright 2010 Thomas Endres
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package suites
 
 import junit.framework.*;
 
@@ -43,6 +43,7 @@ class FireP4jTestSuite extends TestSuite {
         suite.addTestSuite(gsuite.compile(TEST_ROOT + "JSONUtilsTests.groovy"))
         suite.addTestSuite(gsuite.compile(TEST_ROOT + "TableTests.groovy"))
         suite.addTestSuite(gsuite.compile(TEST_ROOT + "FireP4jTests.groovy"))
+        suite.addTestSuite(gsuite.compile(TEST_ROOT + "FireP4jFilterTests.groovy"))
         
         // The resulting test suite is returned
         suite